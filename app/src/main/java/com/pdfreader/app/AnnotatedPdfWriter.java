@@ -0,0 +1,245 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDPageContentStream;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+import com.tom_roush.pdfbox.pdmodel.font.PDFont;
+import com.tom_roush.pdfbox.pdmodel.font.PDType0Font;
+import com.tom_roush.pdfbox.pdmodel.font.PDType1Font;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import com.tom_roush.pdfbox.util.Matrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Writes EditPdfActivity's text stamps and signatures into the original document with PdfBox,
+ * instead of re-rendering every page to a bitmap. Text becomes real page text and signatures
+ * image XObjects, appended to the content of the pages that have edits only, and saved as an
+ * incremental update (see IncrementalPdfWriter): the original bytes are copied as they are,
+ * so the text layer, vectors and images survive and the output is the original plus the edits.
+ *
+ * Edit positions are fractions of the page as displayed (CropBox, /Rotate applied) -- the same
+ * frame PdfBoxRenderer reports sizes in -- and text sizes are preview pixels, converted to
+ * points with the preview page width.
+ */
+final class AnnotatedPdfWriter {
+
+    // Close to the default font spacing the editor's TextViews lay lines out with.
+    private static final float LINE_SPACING = 1.17f;
+    private static final float POINTS_PER_INCH = 72f;
+
+    // Used when a stamp has characters the standard Helvetica (WinAnsi) can't encode. Embedded
+    // as a subset, so only the glyphs actually used are added to the file.
+    private static final String[] FALLBACK_FONTS = {
+            "/system/fonts/Roboto-Regular.ttf",
+            "/system/fonts/NotoSans-Regular.ttf",
+            "/system/fonts/DroidSans.ttf",
+    };
+    private static final String[] FALLBACK_BOLD_FONTS = {
+            "/system/fonts/Roboto-Bold.ttf",
+            "/system/fonts/NotoSans-Bold.ttf",
+            "/system/fonts/DroidSans-Bold.ttf",
+    };
+
+    private final PDDocument document;
+    private final float previewWidthPx;
+    private final ExportProfile profile;
+    // Loaded on first use, at most once each per save.
+    private PDFont fallbackFont;
+    private PDFont fallbackBoldFont;
+    // The same signature placed on several pages is embedded once.
+    private final Map<Bitmap, PDImageXObject> images = new IdentityHashMap<>();
+
+    private AnnotatedPdfWriter(PDDocument document, float previewWidthPx, ExportProfile profile) {
+        this.document = document;
+        this.previewWidthPx = previewWidthPx;
+        this.profile = profile;
+    }
+
+    /**
+     * Writes the document at {@code sourcePath} with the given edits to {@code destination}: a
+     * copy of the original with the edits appended as an incremental update.
+     *
+     * @param previewWidthPx width in pixels of the page preview the edits were placed on
+     * @param profile        caps the resolution signatures are embedded at
+     * @param progress       told after each edited page
+     */
+    static void write(Context context, String sourcePath,
+                      Map<Integer, List<EditPdfActivity.TextAnnotation>> annotations,
+                      Map<Integer, List<EditPdfActivity.SignatureOverlay>> signatures,
+                      float previewWidthPx, File destination, ExportProfile profile,
+                      ExportJob.Progress progress) throws IOException {
+        TreeSet<Integer> edited = new TreeSet<>();
+        addEditedPages(edited, annotations);
+        addEditedPages(edited, signatures);
+        IncrementalPdfWriter.copyAndUpdate(context, sourcePath, destination, document -> {
+            AnnotatedPdfWriter writer = new AnnotatedPdfWriter(document, previewWidthPx, profile);
+            int done = 0;
+            for (int pageIndex : edited) {
+                writer.writePage(pageIndex, annotations.get(pageIndex), signatures.get(pageIndex));
+                IncrementalPdfWriter.markPageUpdated(document, document.getPage(pageIndex));
+                progress.update(++done, edited.size());
+            }
+            writer.subsetFonts();
+        });
+    }
+
+    private static void addEditedPages(TreeSet<Integer> edited, Map<Integer, ? extends List<?>> edits) {
+        for (Map.Entry<Integer, ? extends List<?>> entry : edits.entrySet()) {
+            if (entry.getValue() != null && !entry.getValue().isEmpty()) {
+                edited.add(entry.getKey());
+            }
+        }
+    }
+
+    private void writePage(int pageIndex, List<EditPdfActivity.TextAnnotation> texts,
+                           List<EditPdfActivity.SignatureOverlay> sigs) throws IOException {
+        PDPage page = document.getPage(pageIndex);
+        PDRectangle crop = page.getCropBox();
+        int rotation = ((page.getRotation() % 360) + 360) % 360;
+        boolean sideways = rotation == 90 || rotation == 270;
+        float width = sideways ? crop.getHeight() : crop.getWidth();
+        float height = sideways ? crop.getWidth() : crop.getHeight();
+        float pointsPerPx = width / previewWidthPx;
+
+        // Appended after the existing content, with the graphics state reset around the
+        // original so its leftover transforms can't move the edits.
+        try (PDPageContentStream cs = new PDPageContentStream(
+                document, page, PDPageContentStream.AppendMode.APPEND, true, true)) {
+            // From here on, draw in the displayed page's frame: origin bottom-left, y up.
+            cs.transform(displayToUserSpace(crop, rotation));
+
+            if (sigs != null) {
+                for (EditPdfActivity.SignatureOverlay sig : sigs) {
+                    if (sig.bitmap == null || sig.bitmap.isRecycled()) continue;
+                    float w = sig.widthFraction * width;
+                    float h = sig.heightFraction * height;
+                    if (w <= 0 || h <= 0) continue;
+                    cs.drawImage(image(sig.bitmap, w),
+                            sig.xFraction * width,
+                            height - (sig.yFraction + sig.heightFraction) * height,
+                            w, h);
+                }
+            }
+
+            if (texts != null) {
+                for (EditPdfActivity.TextAnnotation ann : texts) {
+                    if (ann.text == null || ann.text.isEmpty()) continue;
+                    PDFont font = fontFor(ann.text, ann.bold);
+                    float size = ann.textSize * pointsPerPx;
+                    cs.beginText();
+                    cs.setFont(font, size);
+                    cs.setNonStrokingColor(Color.red(ann.color) / 255f,
+                            Color.green(ann.color) / 255f, Color.blue(ann.color) / 255f);
+                    cs.setLeading(size * LINE_SPACING);
+                    // yFraction points at the first baseline.
+                    cs.newLineAtOffset(ann.xFraction * width, height - ann.yFraction * height);
+                    String[] lines = ann.text.split("\n", -1);
+                    for (int i = 0; i < lines.length; i++) {
+                        if (i > 0) cs.newLine();
+                        cs.showText(lines[i]);
+                    }
+                    cs.endText();
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the displayed page (what the user saw: CropBox turned by /Rotate, origin bottom-left)
+     * onto the page's user space, so edits land where they were placed on rotated pages too.
+     */
+    private static Matrix displayToUserSpace(PDRectangle crop, int rotation) {
+        float x = crop.getLowerLeftX();
+        float y = crop.getLowerLeftY();
+        float w = crop.getWidth();
+        float h = crop.getHeight();
+        switch (rotation) {
+            case 90:
+                return new Matrix(0, 1, -1, 0, x + w, y);
+            case 180:
+                return new Matrix(-1, 0, 0, -1, x + w, y + h);
+            case 270:
+                return new Matrix(0, -1, 1, 0, x, y + h);
+            default:
+                return new Matrix(1, 0, 0, 1, x, y);
+        }
+    }
+
+    /** {@code widthPoints} is the width the first placement of {@code bitmap} is drawn at. */
+    private PDImageXObject image(Bitmap bitmap, float widthPoints) throws IOException {
+        PDImageXObject image = images.get(bitmap);
+        if (image == null) {
+            // Lossless whatever the profile, with the signature's transparency kept as a soft
+            // mask; the profile only caps its resolution at the size it's placed at.
+            float factor = profile.downsampleFactor(bitmap.getWidth() * POINTS_PER_INCH / widthPoints);
+            Bitmap embedded = bitmap;
+            if (factor < 1f) {
+                embedded = Bitmap.createScaledBitmap(bitmap,
+                        Math.max(1, Math.round(bitmap.getWidth() * factor)),
+                        Math.max(1, Math.round(bitmap.getHeight() * factor)), true);
+            }
+            try {
+                image = LosslessFactory.createFromImage(document, embedded);
+            } finally {
+                if (embedded != bitmap) embedded.recycle();
+            }
+            images.put(bitmap, image);
+        }
+        return image;
+    }
+
+    private PDFont fontFor(String text, boolean bold) throws IOException {
+        PDFont standard = bold ? PDType1Font.HELVETICA_BOLD : PDType1Font.HELVETICA;
+        if (canEncode(standard, text)) {
+            return standard;
+        }
+        if (bold) {
+            if (fallbackBoldFont == null) fallbackBoldFont = loadFallback(FALLBACK_BOLD_FONTS);
+            if (fallbackBoldFont != null) return fallbackBoldFont;
+        }
+        if (fallbackFont == null) fallbackFont = loadFallback(FALLBACK_FONTS);
+        if (fallbackFont == null) {
+            throw new IOException("No font available for the text \"" + text + "\"");
+        }
+        return fallbackFont;
+    }
+
+    // PDDocument.save() subsets the fonts PDType0Font.load() queued, but the incremental update
+    // is written through COSWriter directly; until subset() runs, a fallback font has no font
+    // program, CIDToGIDMap or widths to write.
+    private void subsetFonts() throws IOException {
+        if (fallbackFont != null) fallbackFont.subset();
+        if (fallbackBoldFont != null) fallbackBoldFont.subset();
+    }
+
+    private PDFont loadFallback(String[] candidates) throws IOException {
+        for (String path : candidates) {
+            File file = new File(path);
+            if (file.isFile()) {
+                return PDType0Font.load(document, file);
+            }
+        }
+        return null;
+    }
+
+    private static boolean canEncode(PDFont font, String text) {
+        try {
+            font.encode(text.replace("\n", ""));
+            return true;
+        } catch (IllegalArgumentException | IOException e) {
+            return false;
+        }
+    }
+}
@@ -1,5 +1,11 @@
 package com.pdfreader.app;
 
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+
 import com.tom_roush.pdfbox.pdmodel.PDDocument;
 import com.tom_roush.pdfbox.rendering.PDFRenderer;
 import com.tom_roush.pdfbox.rendering.PageDrawer;
@@ -26,4 +32,61 @@ public class AnnotationOnlyPDFRenderer extends PDFRenderer {
         drawer.setAnnotationFilter(getAnnotationsFilter());
         return drawer;
     }
+
+    /**
+     * Like renderImage(pageIndex, scale, ImageType.ARGB), but draws into a caller-supplied
+     * bitmap (sized exactly as renderImage would size it) instead of allocating a new one, so
+     * overlays can come from BitmapPool. The target is cleared to transparent first.
+     */
+    public void renderInto(int pageIndex, float scale, Bitmap target) throws IOException {
+        renderInto(pageIndex, scale, target, 0, 0);
+    }
+
+    /**
+     * Tile variant of renderInto: {@code target} receives the region of the full page render
+     * whose top-left corner is at ({@code offsetX}, {@code offsetY}) pixels. Everything outside
+     * the target's bounds is clipped away by the canvas.
+     */
+    public void renderInto(int pageIndex, float scale, Bitmap target, int offsetX, int offsetY)
+            throws IOException {
+        target.eraseColor(Color.TRANSPARENT);
+        Canvas canvas = new OverlayCanvas(target);
+        canvas.translate(-offsetX, -offsetY);
+        // renderPageToGraphics() fills the page's rectangle with this paint before drawing;
+        // a default Paint is opaque black, which would turn the whole overlay into a black page.
+        Paint background = new Paint();
+        background.setColor(Color.TRANSPARENT);
+        renderPageToGraphics(pageIndex, background, canvas, scale);
+    }
+
+    // renderPageToGraphics() is meant for drawing a whole page onto an existing surface, and
+    // may start by filling the page background; on an annotation-only overlay that fill would
+    // cover the content it gets composited onto, so full-canvas fills are dropped here (the
+    // background rectangle is drawn with the transparent paint above). Page drawing itself only
+    // ever uses path/bitmap/text primitives, which pass through untouched.
+    private static final class OverlayCanvas extends Canvas {
+        OverlayCanvas(Bitmap bitmap) {
+            super(bitmap);
+        }
+
+        @Override
+        public void drawColor(int color) {
+        }
+
+        @Override
+        public void drawColor(int color, PorterDuff.Mode mode) {
+        }
+
+        @Override
+        public void drawARGB(int a, int r, int g, int b) {
+        }
+
+        @Override
+        public void drawRGB(int r, int g, int b) {
+        }
+
+        @Override
+        public void drawPaint(Paint paint) {
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package com.pdfreader.app;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * App-wide pool of mutable ARGB_8888 bitmaps for page rendering and compositing.
+ *
+ * Rendering one page used to allocate up to four full-page bitmaps (content, two annotation
+ * overlays and the highlight-multiply scratch copy) and throw them all away again, which churns
+ * the GC and OOMs on large zoomed pages. Released bitmaps are kept here, bucketed by allocation
+ * size, and handed back out via Bitmap.reconfigure() for any request that fits in them.
+ *
+ * Thread-safe; render workers get() and put() concurrently.
+ */
+public final class BitmapPool {
+
+    private static final String TAG = "BitmapPool";
+
+    // Never hand out a pooled bitmap more than this many times larger than the request, so a
+    // thumbnail doesn't pin a full-page allocation for as long as it lives.
+    private static final int MAX_OVERSIZE_FACTOR = 2;
+
+    private static BitmapPool shared;
+
+    private final long maxBytes;
+    // Allocation byte count -> idle bitmaps of exactly that allocation size.
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    private long bytesHeld;
+    private long hits;
+    private long misses;
+
+    public static synchronized BitmapPool shared() {
+        if (shared == null) {
+            shared = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+        }
+        return shared;
+    }
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a mutable ARGB_8888 bitmap of exactly {@code width} x {@code height}. Its contents
+     * are undefined -- callers must clear or fully overwrite it.
+     */
+    public Bitmap get(int width, int height) {
+        int needed = width * height * 4;
+        synchronized (this) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(needed);
+            if (entry != null && entry.getKey() <= (long) needed * MAX_OVERSIZE_FACTOR) {
+                ArrayDeque<Bitmap> bucket = entry.getValue();
+                Bitmap bitmap = bucket.pollFirst();
+                if (bucket.isEmpty()) {
+                    buckets.remove(entry.getKey());
+                }
+                if (bitmap != null) {
+                    bytesHeld -= entry.getKey();
+                    hits++;
+                    bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                    return bitmap;
+                }
+            }
+            misses++;
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Hands a bitmap back for reuse. The caller must no longer draw it or display it anywhere.
+     * Bitmaps that can't be reused, or that don't fit in the budget, are recycled instead.
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            bitmap.recycle();
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        synchronized (this) {
+            if (bytesHeld + size <= maxBytes) {
+                ArrayDeque<Bitmap> bucket = buckets.get(size);
+                if (bucket == null) {
+                    bucket = new ArrayDeque<>();
+                    buckets.put(size, bucket);
+                }
+                bucket.addFirst(bitmap);
+                bytesHeld += size;
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    /** Recycles every pooled bitmap, e.g. on memory pressure. Counters are kept. */
+    public void clear() {
+        synchronized (this) {
+            for (ArrayDeque<Bitmap> bucket : buckets.values()) {
+                for (Bitmap bitmap : bucket) {
+                    bitmap.recycle();
+                }
+            }
+            buckets.clear();
+            bytesHeld = 0;
+        }
+        Log.d(TAG, "Cleared; " + statsString());
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /** Fraction of get() calls served from the pool, 0..1. */
+    public synchronized float getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0f : (float) hits / total;
+    }
+
+    public synchronized long getBytesHeld() {
+        return bytesHeld;
+    }
+
+    public synchronized String statsString() {
+        return "hits=" + hits + " misses=" + misses + " hitRate=" + getHitRate()
+                + " bytesHeld=" + bytesHeld + "/" + maxBytes;
+    }
+}
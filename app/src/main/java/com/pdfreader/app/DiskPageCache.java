@@ -0,0 +1,210 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent cache of rendered page bitmaps under cacheDir, so reopening a recently read book
+ * paints its pages from disk instead of running both render engines again.
+ *
+ * Entries are keyed by document fingerprint (see PdfBoxRenderer.getFingerprint), page index,
+ * render width in pixels and an annotation revision, and stored as JPEG -- rendered pages are
+ * always opaque, and JPEG decodes several times faster than the page renders. The cache is an
+ * LRU bounded by a byte cap the user picks in the reading preferences (0 turns it off); file
+ * modification times carry the LRU order across restarts. Pages of a document that changed on
+ * disk are dropped as soon as RendererRegistry notices, rather than waiting to age out.
+ * Thread-safe; all methods do blocking I/O.
+ */
+public final class DiskPageCache {
+
+    private static final String TAG = "DiskPageCache";
+    private static final String DIR_NAME = "page_cache";
+    private static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+    private static final int JPEG_QUALITY = 90;
+    private static final String PREFS_NAME = "reader_settings";
+    private static final String KEY_MAX_BYTES = "page_cache_max_bytes";
+
+    /** The caps offered in the reading preferences, smallest first; 0 is off. */
+    public static final long[] SIZE_CHOICES = {
+            0, 64L * 1024 * 1024, DEFAULT_MAX_BYTES, 512L * 1024 * 1024 };
+
+    private static DiskPageCache shared;
+
+    private final File dir;
+    private volatile long maxBytes;
+    // File name -> size, access-ordered; loaded lazily from the directory listing.
+    private LinkedHashMap<String, Long> index;
+    private long bytes;
+
+    public static synchronized DiskPageCache shared(Context context) {
+        if (shared == null) {
+            Context appContext = context.getApplicationContext();
+            long maxBytes = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                    .getLong(KEY_MAX_BYTES, DEFAULT_MAX_BYTES);
+            shared = new DiskPageCache(new File(appContext.getCacheDir(), DIR_NAME), maxBytes);
+        }
+        return shared;
+    }
+
+    public DiskPageCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Changes the cap, and remembers it for the next launch; shrinking deletes pages now. */
+    public void setMaxBytes(Context context, long maxBytes) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().putLong(KEY_MAX_BYTES, maxBytes).apply();
+        synchronized (this) {
+            this.maxBytes = maxBytes;
+            ensureIndex();
+            trimToSize();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized boolean contains(String fingerprint, int page, int width, int revision) {
+        ensureIndex();
+        return index.containsKey(fileName(fingerprint, page, width, revision));
+    }
+
+    /** Decodes a cached page into a BitmapPool bitmap, or returns null on a miss. */
+    public Bitmap get(String fingerprint, int page, int width, int revision) {
+        String name = fileName(fingerprint, page, width, revision);
+        File file = new File(dir, name);
+        synchronized (this) {
+            ensureIndex();
+            if (index.get(name) == null) {
+                return null;
+            }
+        }
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            remove(name);
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = BitmapPool.shared().get(bounds.outWidth, bounds.outHeight);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // inBitmap rejected; fall back to a fresh allocation.
+            BitmapPool.shared().put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        }
+        if (bitmap == null) {
+            remove(name);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    /** Compresses and stores a rendered page; the bitmap is only read, never retained. */
+    public void put(String fingerprint, int page, int width, int revision, Bitmap bitmap) {
+        // Turned off: compressing and writing the page would only be deleted again.
+        if (maxBytes <= 0) return;
+        String name = fileName(fingerprint, page, width, revision);
+        File file = new File(dir, name);
+        File partial = new File(dir, name + ".part");
+        dir.mkdirs();
+        try (FileOutputStream out = new FileOutputStream(partial)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                throw new IOException("compress failed");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write page " + page + " to disk cache", e);
+            partial.delete();
+            return;
+        }
+        synchronized (this) {
+            ensureIndex();
+            if (!partial.renameTo(file)) {
+                partial.delete();
+                return;
+            }
+            Long previous = index.put(name, file.length());
+            if (previous != null) {
+                bytes -= previous;
+            }
+            bytes += file.length();
+            trimToSize();
+        }
+    }
+
+    /** Drops every page of a document, e.g. once it changed on disk. */
+    public synchronized void removeDocument(String fingerprint) {
+        ensureIndex();
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        String prefix = fingerprint + "_";
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getKey().startsWith(prefix)) {
+                new File(dir, entry.getKey()).delete();
+                bytes -= entry.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    private synchronized void remove(String name) {
+        Long size = index.remove(name);
+        if (size != null) {
+            bytes -= size;
+        }
+        new File(dir, name).delete();
+    }
+
+    private void ensureIndex() {
+        if (index != null) return;
+        index = new LinkedHashMap<>(256, 0.75f, true);
+        bytes = 0;
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (file.getName().endsWith(".part")) {
+                file.delete();
+                continue;
+            }
+            index.put(file.getName(), file.length());
+            bytes += file.length();
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            new File(dir, eldest.getKey()).delete();
+            bytes -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    private static String fileName(String fingerprint, int page, int width, int revision) {
+        return fingerprint + "_" + page + "_" + width + "_" + revision + ".jpg";
+    }
+}
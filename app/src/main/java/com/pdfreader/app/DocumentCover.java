@@ -0,0 +1,117 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.FutureTarget;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Glide model for the cover of a PDF or EPUB document (see ReaderGlideModule).
+ *
+ * Identity is the path plus the file's size and modification time, so Glide's memory and disk
+ * caches serve a cover until the file itself changes. For plain files those come from a stat
+ * at bind time; content:// URIs aren't queried on the main thread, so their size and
+ * timestamp are resolved on Glide's worker, for the disk cache key only (see getCacheKey).
+ */
+public final class DocumentCover {
+
+    /** Cover size of library and home cards, which LibraryIndexJobService pre-renders. */
+    public static final int CARD_WIDTH = 400;
+    public static final int CARD_HEIGHT = 560;
+
+    final String path;
+    private final long size;
+    private final long lastModified;
+
+    private DocumentCover(String path, long size, long lastModified) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public static DocumentCover of(String path) {
+        if (path.startsWith("content://")) {
+            return new DocumentCover(path, -1, 0);
+        }
+        File file = path.startsWith("file://") ? new File(Uri.parse(path).getPath()) : new File(path);
+        return new DocumentCover(path, file.length(), file.lastModified());
+    }
+
+    /** Loads the cover of {@code path}, fitted within width x height, into {@code target}. */
+    public static void load(ImageView target, String path, int width, int height) {
+        // No view-derived transformation: the decoder already fits the cover, and leaving it out
+        // keeps the disk cache key the same as preload()'s.
+        Glide.with(target)
+                .load(of(path))
+                .override(width, height)
+                .dontTransform()
+                .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
+                .placeholder(R.drawable.placeholder_book)
+                .error(R.drawable.placeholder_book)
+                .into(target);
+    }
+
+    /**
+     * Renders the cover of {@code path} into Glide's disk cache, so a later load() at the same
+     * size is a cache hit. Blocking; returns false if the cover couldn't be produced.
+     */
+    public static boolean preload(Context context, String path, int width, int height)
+            throws InterruptedException {
+        FutureTarget<Bitmap> target = Glide.with(context.getApplicationContext())
+                .asBitmap()
+                .load(of(path))
+                .override(width, height)
+                .dontTransform()
+                .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
+                .skipMemoryCache(true)
+                .submit();
+        try {
+            target.get();
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        } finally {
+            Glide.with(context.getApplicationContext()).clear(target);
+        }
+    }
+
+    /** Disk cache key: path, size and last-modified, querying the provider if needed. Blocking. */
+    String getCacheKey(Context context) {
+        if (path.startsWith("content://")) {
+            DocumentSource.Stamp stamp = DocumentSource.stamp(context, path);
+            return path + "|" + stamp.size + "|" + stamp.lastModified;
+        }
+        return path + "|" + size + "|" + lastModified;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DocumentCover)) return false;
+        DocumentCover other = (DocumentCover) o;
+        return size == other.size && lastModified == other.lastModified && path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = path.hashCode();
+        result = 31 * result + Long.hashCode(size);
+        result = 31 * result + Long.hashCode(lastModified);
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DocumentCover{" + path + "|" + size + "|" + lastModified + "}";
+    }
+}
@@ -0,0 +1,76 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.ResourceDecoder;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.bumptech.glide.load.resource.bitmap.BitmapResource;
+import com.bumptech.glide.request.target.Target;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a cover from an opened document: page 0 for PDFs (PdfBoxRenderer.renderFirstPage),
+ * the package's cover image for EPUBs. Sniffs the file header rather than trusting the path,
+ * since content:// URIs rarely carry an extension.
+ */
+public final class DocumentCoverDecoder implements ResourceDecoder<DocumentSource.Opened, Bitmap> {
+
+    // Cover size used when the request doesn't say (Target.SIZE_ORIGINAL).
+    private static final int DEFAULT_WIDTH = 400;
+    private static final int DEFAULT_HEIGHT = 560;
+    // PDF readers accept the %PDF- header anywhere in the first KB.
+    private static final int HEADER_BYTES = 1024;
+
+    private final Context appContext;
+    private final BitmapPool glidePool;
+
+    public DocumentCoverDecoder(Context context, BitmapPool glidePool) {
+        this.appContext = context.getApplicationContext();
+        this.glidePool = glidePool;
+    }
+
+    @Override
+    public boolean handles(@NonNull DocumentSource.Opened source, @NonNull Options options) {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Resource<Bitmap> decode(@NonNull DocumentSource.Opened source, int width, int height,
+                                   @NonNull Options options) throws IOException {
+        if (width == Target.SIZE_ORIGINAL || width <= 0) width = DEFAULT_WIDTH;
+        if (height == Target.SIZE_ORIGINAL || height <= 0) height = DEFAULT_HEIGHT;
+
+        String header = readHeader(source);
+        Bitmap cover;
+        if (header.contains("%PDF-")) {
+            cover = PdfBoxRenderer.renderFirstPage(appContext, source.pfd, width, height);
+        } else if (header.startsWith("PK\u0003\u0004")) {
+            cover = EpubCoverExtractor.extract(source.pfd, width, height);
+        } else {
+            return null;
+        }
+        return BitmapResource.obtain(cover, glidePool);
+    }
+
+    private static String readHeader(DocumentSource.Opened source) throws IOException {
+        byte[] buffer = new byte[HEADER_BYTES];
+        int read;
+        try {
+            read = Os.pread(source.pfd.getFileDescriptor(), buffer, 0, buffer.length, 0);
+        } catch (ErrnoException e) {
+            throw new IOException("Could not read document header", e);
+        }
+        return new String(buffer, 0, Math.max(read, 0), StandardCharsets.ISO_8859_1);
+    }
+}
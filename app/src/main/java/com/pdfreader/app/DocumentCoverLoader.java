@@ -0,0 +1,116 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.io.IOException;
+
+/**
+ * Opens the document behind a DocumentCover for DocumentCoverDecoder, through DocumentSource
+ * so that seekable content:// descriptors are read in place. Documents only a pipe can read get
+ * no cover: copying each one just to draw it would churn the cache of copies that open
+ * documents are read from.
+ */
+public final class DocumentCoverLoader implements ModelLoader<DocumentCover, DocumentSource.Opened> {
+
+    private static final String TAG = "DocumentCoverLoader";
+
+    private final Context appContext;
+
+    DocumentCoverLoader(Context appContext) {
+        this.appContext = appContext;
+    }
+
+    @Override
+    public LoadData<DocumentSource.Opened> buildLoadData(@NonNull DocumentCover model, int width, int height,
+                                                         @NonNull Options options) {
+        // Runs on a Glide worker, so resolving the provider's size/timestamp here is fine.
+        return new LoadData<>(new ObjectKey(model.getCacheKey(appContext)), new Fetcher(appContext, model));
+    }
+
+    @Override
+    public boolean handles(@NonNull DocumentCover model) {
+        return true;
+    }
+
+    private static final class Fetcher implements DataFetcher<DocumentSource.Opened> {
+        private final Context appContext;
+        private final DocumentCover model;
+        private DocumentSource.Opened opened;
+
+        Fetcher(Context appContext, DocumentCover model) {
+            this.appContext = appContext;
+            this.model = model;
+        }
+
+        @Override
+        public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super DocumentSource.Opened> callback) {
+            try {
+                opened = DocumentSource.openInPlace(appContext, model.path);
+                if (opened == null) {
+                    callback.onLoadFailed(new IOException("Not seekable, no cover: " + model.path));
+                    return;
+                }
+                callback.onDataReady(opened);
+            } catch (IOException | RuntimeException e) {
+                callback.onLoadFailed(e instanceof IOException ? (IOException) e : new IOException(e));
+            }
+        }
+
+        @Override
+        public void cleanup() {
+            if (opened == null) return;
+            try {
+                opened.pfd.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing " + model.path, e);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            // Opening is a single blocking call; nothing to interrupt.
+        }
+
+        @NonNull
+        @Override
+        public Class<DocumentSource.Opened> getDataClass() {
+            return DocumentSource.Opened.class;
+        }
+
+        @NonNull
+        @Override
+        public DataSource getDataSource() {
+            return DataSource.LOCAL;
+        }
+    }
+
+    public static final class Factory implements ModelLoaderFactory<DocumentCover, DocumentSource.Opened> {
+        private final Context appContext;
+
+        public Factory(Context context) {
+            this.appContext = context.getApplicationContext();
+        }
+
+        @NonNull
+        @Override
+        public ModelLoader<DocumentCover, DocumentSource.Opened> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new DocumentCoverLoader(appContext);
+        }
+
+        @Override
+        public void teardown() {
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Per-document facts the library, home and profile screens need -- page count, first-page
+ * size, title, author, file size, fingerprint, whether it has annotations -- recorded once per
+ * document instead of opening the file on every card bind.
+ *
+ * Entries are keyed by path and stamped with the file's size and modification time; an entry
+ * whose stamp no longer matches is recomputed on next use. The reader records every document
+ * it opens for free, with everything PdfBox knows about it (see record). A document that
+ * hasn't been opened yet is only probed with the platform PdfRenderer, which reads no more
+ * than the xref and page tree to report the page count and first page size; its title,
+ * author, fingerprint and annotations stay unknown until the reader records it. EPUBs are
+ * never opened here, and they and broken files are remembered with a page count of 0, so
+ * they aren't retried on every bind.
+ *
+ * Thread-safe. Persisted as JSON in SharedPreferences, like HistoryManager; the decoded
+ * entries most recently used are also kept in memory.
+ */
+public final class DocumentMetadataStore {
+
+    private static final String TAG = "DocumentMetadataStore";
+    private static final String PREFS_NAME = "document_metadata";
+    // A library screen's worth of cards several times over; older entries are re-read from
+    // the preferences.
+    private static final int MAX_MEMORY_ENTRIES = 256;
+
+    public static final class Metadata {
+        /** 0 if the document couldn't be read as a PDF. */
+        public final int pageCount;
+        /** First page size in points (rotation applied), or 0 if there is none. */
+        public final float firstPageWidth;
+        public final float firstPageHeight;
+        /** Null if the document has none, or it hasn't been opened in the reader yet. */
+        @Nullable public final String title;
+        @Nullable public final String author;
+        /** File size in bytes, or -1 if the provider doesn't report it. */
+        public final long fileSize;
+        /** Null until the document has been opened in the reader. */
+        @Nullable public final String fingerprint;
+        /** False until the document has been opened in the reader. */
+        public final boolean hasAnnotations;
+        final long lastModified;
+
+        Metadata(int pageCount, float firstPageWidth, float firstPageHeight, @Nullable String title,
+                 @Nullable String author, long fileSize, long lastModified, @Nullable String fingerprint,
+                 boolean hasAnnotations) {
+            this.pageCount = pageCount;
+            this.firstPageWidth = firstPageWidth;
+            this.firstPageHeight = firstPageHeight;
+            this.title = title;
+            this.author = author;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+            this.hasAnnotations = hasAnnotations;
+        }
+
+        // With no size or timestamp from the provider a change can't be detected, so the entry
+        // is trusted rather than reopening the document on every bind.
+        boolean matches(DocumentSource.Stamp stamp) {
+            return !stamp.isKnown() || (stamp.size == fileSize && stamp.lastModified == lastModified);
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("pageCount", pageCount);
+            json.put("firstPageWidth", firstPageWidth);
+            json.put("firstPageHeight", firstPageHeight);
+            json.put("title", title != null ? title : "");
+            json.put("author", author != null ? author : "");
+            json.put("fileSize", fileSize);
+            json.put("lastModified", lastModified);
+            json.put("fingerprint", fingerprint != null ? fingerprint : "");
+            json.put("hasAnnotations", hasAnnotations);
+            return json;
+        }
+
+        static Metadata fromJson(JSONObject json) {
+            return new Metadata(
+                    json.optInt("pageCount"),
+                    (float) json.optDouble("firstPageWidth"),
+                    (float) json.optDouble("firstPageHeight"),
+                    emptyToNull(json.optString("title")),
+                    emptyToNull(json.optString("author")),
+                    json.optLong("fileSize", -1),
+                    json.optLong("lastModified"),
+                    emptyToNull(json.optString("fingerprint")),
+                    json.optBoolean("hasAnnotations"));
+        }
+    }
+
+    private static DocumentMetadataStore shared;
+
+    private final Context appContext;
+    private final SharedPreferences prefs;
+    // Decoded entries, so repeated binds don't re-parse the JSON. Guarded by `this`.
+    private final LruCache<String, Metadata> memory = new LruCache<>(MAX_MEMORY_ENTRIES);
+
+    public static synchronized DocumentMetadataStore shared(Context context) {
+        if (shared == null) {
+            shared = new DocumentMetadataStore(context.getApplicationContext());
+        }
+        return shared;
+    }
+
+    private DocumentMetadataStore(Context appContext) {
+        this.appContext = appContext;
+        this.prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Metadata for the document at {@code path}, probing and storing it if it's missing or the
+     * file changed since. Blocking -- may open the document with the platform renderer.
+     */
+    @WorkerThread
+    @NonNull
+    public Metadata get(String path) {
+        DocumentSource.Stamp stamp = DocumentSource.stamp(appContext, path);
+        Metadata cached = lookup(path);
+        if (cached != null && cached.matches(stamp)) {
+            return cached;
+        }
+
+        Metadata computed = null;
+        if (isPdf(path)) {
+            try {
+                computed = probe(path, stamp);
+            } catch (Exception e) {
+                Log.w(TAG, "Could not read metadata for " + path, e);
+            }
+        }
+        if (computed == null) {
+            computed = new Metadata(0, 0, 0, null, null, stamp.size, stamp.lastModified, null, false);
+        }
+        store(path, computed);
+        return computed;
+    }
+
+    // The stock renderer parses only what it needs to count and measure pages, so this costs
+    // far less than a PdfBoxRenderer, which walks every page and hashes the file. A document
+    // only a pipe can read isn't probed (null): it would need a full copy, which the reader
+    // makes when it's opened and records its metadata then.
+    private Metadata probe(String path, DocumentSource.Stamp stamp) throws IOException {
+        DocumentSource.Opened opened = DocumentSource.openInPlace(appContext, path);
+        if (opened == null) return null;
+        ParcelFileDescriptor pfd = opened.pfd;
+        android.graphics.pdf.PdfRenderer stock;
+        try {
+            // Takes ownership of the descriptor once it's open.
+            stock = new android.graphics.pdf.PdfRenderer(pfd);
+        } catch (IOException | RuntimeException e) {
+            pfd.close();
+            throw e;
+        }
+        try (android.graphics.pdf.PdfRenderer renderer = stock) {
+            int pageCount = renderer.getPageCount();
+            float width = 0;
+            float height = 0;
+            if (pageCount > 0) {
+                // Sizes in points, crop box with the page's rotation applied.
+                try (android.graphics.pdf.PdfRenderer.Page page = renderer.openPage(0)) {
+                    width = page.getWidth();
+                    height = page.getHeight();
+                }
+            }
+            return new Metadata(pageCount, width, height, null, null, stamp.size, stamp.lastModified,
+                    null, false);
+        }
+    }
+
+    // EPUBs by MIME type where the provider reports one, else by name as the library does. Any
+    // other type is still tried: some providers report PDFs as application/octet-stream.
+    private boolean isPdf(String path) {
+        if (path.startsWith("content://")) {
+            try {
+                String type = appContext.getContentResolver().getType(Uri.parse(path));
+                if ("application/epub+zip".equals(type)) return false;
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Could not query type of " + path, e);
+            }
+        }
+        return !path.toLowerCase(Locale.ROOT).contains(".epub");
+    }
+
+    /** Page count of the document at {@code path}, or 0 if it can't be read. Blocking. */
+    @WorkerThread
+    public int getPageCount(String path) {
+        return get(path).pageCount;
+    }
+
+    /** Records metadata from a renderer that's open on {@code path} anyway. Blocking (stats the file). */
+    @WorkerThread
+    public void record(String path, PdfBoxRenderer renderer) {
+        store(path, fromRenderer(renderer, DocumentSource.stamp(appContext, path)));
+    }
+
+    /** Forgets {@code path}, e.g. when it's removed from the library. */
+    public void remove(String path) {
+        synchronized (this) {
+            memory.remove(path);
+        }
+        prefs.edit().remove(path).apply();
+    }
+
+    private static Metadata fromRenderer(PdfBoxRenderer renderer, DocumentSource.Stamp stamp) {
+        boolean hasPages = renderer.getPageCount() > 0;
+        return new Metadata(
+                renderer.getPageCount(),
+                hasPages ? renderer.getPageWidthPoints(0) : 0,
+                hasPages ? renderer.getPageHeightPoints(0) : 0,
+                renderer.getTitle(),
+                renderer.getAuthor(),
+                stamp.size,
+                stamp.lastModified,
+                renderer.getFingerprint(),
+                renderer.hasAnyAnnotations());
+    }
+
+    @Nullable
+    private synchronized Metadata lookup(String path) {
+        Metadata metadata = memory.get(path);
+        if (metadata != null) {
+            return metadata;
+        }
+        String json = prefs.getString(path, null);
+        if (json == null) {
+            return null;
+        }
+        try {
+            metadata = Metadata.fromJson(new JSONObject(json));
+        } catch (JSONException e) {
+            return null;
+        }
+        memory.put(path, metadata);
+        return metadata;
+    }
+
+    private void store(String path, Metadata metadata) {
+        synchronized (this) {
+            memory.put(path, metadata);
+        }
+        try {
+            prefs.edit().putString(path, metadata.toJson().toString()).apply();
+        } catch (JSONException e) {
+            Log.w(TAG, "Could not persist metadata for " + path, e);
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
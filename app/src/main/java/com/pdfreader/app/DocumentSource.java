@@ -0,0 +1,236 @@
+package com.pdfreader.app;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Resolves a document path (plain file path, file:// or content:// URI) to a read-only
+ * descriptor PdfBoxRenderer can open in place.
+ *
+ * content:// descriptors that point at a regular (seekable) file -- local storage, MediaStore,
+ * and the FUSE proxies cloud providers hand out -- are used directly, with no copy at all.
+ * Only genuinely non-seekable descriptors (pipes) are copied, once, into a cache entry keyed
+ * by URI + size + last-modified, so reopening the same unchanged document skips the copy.
+ *
+ * Blocking I/O -- call off the main thread.
+ */
+public final class DocumentSource {
+
+    private static final String TAG = "DocumentSource";
+    private static final String CACHE_DIR_NAME = "open_cache";
+    private static final int MAX_CACHED_COPIES = 3;
+
+    /** An opened document. The caller owns {@link #pfd} and must close it. */
+    public static final class Opened {
+        public final ParcelFileDescriptor pfd;
+        /** Local file backing {@link #pfd}, or null when streaming straight from a provider. */
+        @Nullable public final String localPath;
+
+        Opened(ParcelFileDescriptor pfd, @Nullable String localPath) {
+            this.pfd = pfd;
+            this.localPath = localPath;
+        }
+    }
+
+    /** Size and last-modified time of a document, for telling whether it changed. */
+    public static final class Stamp {
+        /** Size in bytes, or -1 if unknown. */
+        public final long size;
+        /** Last-modified time in ms, or 0 if unknown. */
+        public final long lastModified;
+
+        Stamp(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /** False when neither field is known, i.e. a change can't be detected. */
+        public boolean isKnown() {
+            return size >= 0 || lastModified > 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Stamp)) return false;
+            Stamp other = (Stamp) o;
+            return size == other.size && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(size) + Long.hashCode(lastModified);
+        }
+    }
+
+    private DocumentSource() {}
+
+    /**
+     * Stats the document at {@code path} without opening it: the file itself for plain paths,
+     * the provider's OpenableColumns.SIZE / COLUMN_LAST_MODIFIED for content:// URIs.
+     */
+    @NonNull
+    public static Stamp stamp(Context context, String path) {
+        if (!path.startsWith("content://")) {
+            File file = path.startsWith("file://") ? new File(Uri.parse(path).getPath()) : new File(path);
+            return file.exists() ? new Stamp(file.length(), file.lastModified()) : new Stamp(-1, 0);
+        }
+        Uri uri = Uri.parse(path);
+        long size = -1;
+        long lastModified = 0;
+        try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (sizeIndex >= 0 && !cursor.isNull(sizeIndex)) {
+                    size = cursor.getLong(sizeIndex);
+                }
+                int modifiedIndex = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                if (modifiedIndex >= 0 && !cursor.isNull(modifiedIndex)) {
+                    lastModified = cursor.getLong(modifiedIndex);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not query metadata for " + uri, e);
+        }
+        return new Stamp(size, lastModified);
+    }
+
+    @NonNull
+    public static Opened open(Context context, String path) throws IOException {
+        Opened opened = openInPlace(context, path);
+        if (opened != null) {
+            return opened;
+        }
+        File copy = cachedCopy(context, Uri.parse(path));
+        return new Opened(ParcelFileDescriptor.open(copy, ParcelFileDescriptor.MODE_READ_ONLY),
+                copy.getAbsolutePath());
+    }
+
+    /**
+     * Like open(), but never copies: returns null for a content:// URI whose descriptor isn't
+     * seekable. For covers and metadata, which aren't worth a full copy of the document and
+     * mustn't push out the cached copies open documents are reading from.
+     */
+    @Nullable
+    public static Opened openInPlace(Context context, String path) throws IOException {
+        if (!path.startsWith("content://")) {
+            File file = path.startsWith("file://")
+                    ? new File(Uri.parse(path).getPath())
+                    : new File(path);
+            if (!file.exists()) {
+                throw new FileNotFoundException("PDF file not found: " + path);
+            }
+            ParcelFileDescriptor pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+            return new Opened(pfd, file.getAbsolutePath());
+        }
+
+        Uri uri = Uri.parse(path);
+        ContentResolver resolver = context.getContentResolver();
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            throw new FileNotFoundException("Cannot open " + path);
+        }
+        if (isSeekable(pfd)) {
+            return new Opened(pfd, null);
+        }
+        pfd.close();
+        return null;
+    }
+
+    /** True for descriptors backed by a regular file, i.e. ones that support random access. */
+    public static boolean isSeekable(ParcelFileDescriptor pfd) {
+        try {
+            return OsConstants.S_ISREG(Os.fstat(pfd.getFileDescriptor()).st_mode);
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    private static File cachedCopy(Context context, Uri uri) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        Stamp stamp = stamp(context, uri.toString());
+        long size = stamp.size;
+        long lastModified = stamp.lastModified;
+
+        File dir = new File(context.getCacheDir(), CACHE_DIR_NAME);
+        dir.mkdirs();
+        File target = new File(dir, cacheKey(uri + "|" + size + "|" + lastModified) + ".pdf");
+
+        // Without a size or timestamp there's no way to tell whether the provider's content
+        // changed since the last copy, so only reuse entries we can actually validate.
+        if (stamp.isKnown() && target.exists() && (size < 0 || target.length() == size)) {
+            target.setLastModified(System.currentTimeMillis());
+            Log.d(TAG, "Reusing cached copy for " + uri);
+            return target;
+        }
+
+        File partial = new File(dir, target.getName() + ".part");
+        try (InputStream in = resolver.openInputStream(uri);
+             FileOutputStream out = new FileOutputStream(partial)) {
+            if (in == null) {
+                throw new FileNotFoundException("Cannot open " + uri);
+            }
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                out.write(buffer, 0, len);
+            }
+        } catch (IOException e) {
+            partial.delete();
+            throw e;
+        }
+        if (!partial.renameTo(target)) {
+            partial.delete();
+            throw new IOException("Could not move cached copy into place for " + uri);
+        }
+        trimCache(dir);
+        return target;
+    }
+
+    private static void trimCache(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null || files.length <= MAX_CACHED_COPIES) return;
+        Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = MAX_CACHED_COPIES; i < files.length; i++) {
+            if (!files[i].delete()) {
+                Log.w(TAG, "Failed to delete cached copy " + files[i]);
+            }
+        }
+    }
+
+    private static String cacheKey(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+}
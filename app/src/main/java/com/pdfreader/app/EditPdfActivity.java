@@ -4,20 +4,14 @@ import android.app.DatePickerDialog;
 import android.content.Intent;
 import android.content.res.ColorStateList;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.graphics.drawable.GradientDrawable;
-import android.text.TextPaint;
 import android.view.Gravity;
-import android.graphics.pdf.PdfDocument;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.ParcelFileDescriptor;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
@@ -55,11 +49,8 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.card.MaterialCardView;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -68,6 +59,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -75,6 +67,7 @@ public class EditPdfActivity extends AppCompatActivity {
 
     public static final String EXTRA_PDF_PATH = "pdf_path";
     public static final String EXTRA_PDF_TITLE = "pdf_title";
+    private static final String STATE_EXPORT_JOB = "export_job";
 
     private RecyclerView pagesRecycler;
     private ProgressBar loadingIndicator;
@@ -106,10 +99,13 @@ public class EditPdfActivity extends AppCompatActivity {
     private TextView successFileName;
     private TextView successFileMeta;
     private String lastSavedPdfPath;
+    // The save running in ExportQueue, if any.
+    private String exportJobId;
 
     private PdfBoxRenderer pdfRenderer;
-    private ParcelFileDescriptor parcelFileDescriptor;
-    private File currentPdfCacheFile;
+    private RendererRegistry.Handle rendererHandle;
+    // What rendererHandle was acquired for; the save re-reads the original from here.
+    private String sourcePath;
 
     boolean isTextMode = false;
     boolean isSignMode = false;
@@ -314,6 +310,18 @@ public class EditPdfActivity extends AppCompatActivity {
                 pageCountText.setText(title);
             }
         }
+
+        if (savedInstanceState != null) {
+            exportJobId = savedInstanceState.getString(STATE_EXPORT_JOB);
+            if (exportJobId != null) {
+                showSaving();
+                if (!ExportQueue.shared(this).observe(exportJobId, exportListener)) {
+                    // Finished and reported while nobody was watching.
+                    exportJobId = null;
+                    resetSaveButton();
+                }
+            }
+        }
     }
 
     // ── File loading ──────────────────────────────────────────────────────────
@@ -331,9 +339,7 @@ public class EditPdfActivity extends AppCompatActivity {
         executor.execute(() -> {
             try {
                 closePdfRenderer();
-                currentPdfCacheFile = new File(path);
-                parcelFileDescriptor = ParcelFileDescriptor.open(currentPdfCacheFile, ParcelFileDescriptor.MODE_READ_ONLY);
-                pdfRenderer = new PdfBoxRenderer(this, parcelFileDescriptor);
+                openRenderer(path);
                 onPdfLoaded();
             } catch (Exception e) {
                 mainHandler.post(() -> {
@@ -352,15 +358,8 @@ public class EditPdfActivity extends AppCompatActivity {
         emptyState.setVisibility(View.GONE);
         executor.execute(() -> {
             try {
-                currentPdfCacheFile = new File(getCacheDir(), "edit_temp.pdf");
-                try (InputStream in = getContentResolver().openInputStream(uri);
-                     FileOutputStream out = new FileOutputStream(currentPdfCacheFile)) {
-                    byte[] buf = new byte[8192]; int len;
-                    while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
-                }
                 closePdfRenderer();
-                parcelFileDescriptor = ParcelFileDescriptor.open(currentPdfCacheFile, ParcelFileDescriptor.MODE_READ_ONLY);
-                pdfRenderer = new PdfBoxRenderer(this, parcelFileDescriptor);
+                openRenderer(uri.toString());
                 onPdfLoaded();
             } catch (Exception e) {
                 mainHandler.post(() -> {
@@ -374,6 +373,14 @@ public class EditPdfActivity extends AppCompatActivity {
         });
     }
 
+    // Shares the renderer of any other screen that has this document open (e.g. the reader
+    // that launched us), instead of copying and parsing the file again.
+    private void openRenderer(String path) throws IOException {
+        rendererHandle = RendererRegistry.shared(this).acquire(path);
+        pdfRenderer = rendererHandle.getRenderer();
+        sourcePath = path;
+    }
+
     private void onPdfLoaded() {
         int count = pdfRenderer.getPageCount();
         annotations.clear();
@@ -1797,102 +1804,96 @@ public class EditPdfActivity extends AppCompatActivity {
     // ── Save ──────────────────────────────────────────────────────────────────
 
     private void saveAnnotatedPdf() {
-        if (pdfRenderer == null) return;
+        if (pdfRenderer == null || sourcePath == null) return;
+
+        // Edits go into a copy of the original with PdfBox, on the edited pages only; nothing is
+        // rasterized, so the text layer survives and the save appends just the edits to the
+        // copied bytes. The job gets its own copy of the edits, which may change on screen
+        // while it runs.
+        String fileName = "edited_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".pdf";
+        String source = sourcePath;
+        Map<Integer, List<TextAnnotation>> texts = copyAnnotations();
+        Map<Integer, List<SignatureOverlay>> signatures = copySignatureOverlays();
+        float previewWidth = previewPageWidthPx();
+        ExportProfile profile = ExportProfile.load(this);
+        ExportJob job = ExportJob.of("Saving " + fileName, fileName, FileManager.CATEGORY_SIGNED,
+                (context, destination, progress) -> AnnotatedPdfWriter.write(context, source,
+                        texts, signatures, previewWidth, destination, profile, progress));
+        job.historyName = fileName;
+        job.profile = profile;
+        // Runs in ExportQueue, so it carries on if this screen is rotated or left.
+        exportJobId = ExportQueue.shared(this).enqueue(job);
+        ExportQueue.shared(this).observe(exportJobId, exportListener);
+        showSaving();
+    }
+
+    private void showSaving() {
         btnSave.setEnabled(false);
         btnSave.setText("Saving…");
         btnSave.setIconResource(0);
+    }
 
-        executor.execute(() -> {
-            try {
-                int pageCount  = pdfRenderer.getPageCount();
-                int screenWidth = getResources().getDisplayMetrics().widthPixels - 64;
-                PdfDocument doc = new PdfDocument();
-
-                for (int i = 0; i < pageCount; i++) {
-                    int w = screenWidth;
-                    float scale = w / pdfRenderer.getPageWidthPoints(i);
-                    int h = Math.round(pdfRenderer.getPageHeightPoints(i) * scale);
-
-                    Bitmap bmp = pdfRenderer.renderPage(i, scale);
-
-                    List<TextAnnotation> anns = annotations.get(i);
-                    List<SignatureOverlay> sigs = signatureOverlays.get(i);
-                    boolean hasText = anns != null && !anns.isEmpty();
-                    boolean hasSigs = sigs != null && !sigs.isEmpty();
-
-                    if (hasText || hasSigs) {
-                        Canvas canvas = new Canvas(bmp);
-                        if (hasText) {
-                            TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
-                            for (TextAnnotation ann : anns) {
-                                paint.setColor(ann.color);
-                                paint.setTextSize(ann.textSize);
-                                paint.setTypeface(ann.bold ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
-                                float x = ann.xFraction * w;
-                                float y = ann.yFraction * h;
-                                String[] lines = ann.text.split("\n", -1);
-                                float lineHeight = paint.getFontSpacing();
-                                // yFraction points at the first baseline
-                                for (int li = 0; li < lines.length; li++) {
-                                    canvas.drawText(lines[li], x, y + li * lineHeight, paint);
-                                }
-                            }
-                        }
-                        if (hasSigs) {
-                            Paint sigPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
-                            for (SignatureOverlay sig : sigs) {
-                                RectF dst = new RectF(
-                                        sig.xFraction * w,
-                                        sig.yFraction * h,
-                                        (sig.xFraction + sig.widthFraction) * w,
-                                        (sig.yFraction + sig.heightFraction) * h);
-                                canvas.drawBitmap(sig.bitmap, null, dst, sigPaint);
-                            }
-                        }
-                    }
+    private void resetSaveButton() {
+        btnSave.setEnabled(true);
+        btnSave.setText("Save PDF");
+        btnSave.setIconResource(R.drawable.ic_save);
+    }
 
-                    PdfDocument.PageInfo info = new PdfDocument.PageInfo.Builder(w, h, i + 1).create();
-                    PdfDocument.Page docPage = doc.startPage(info);
-                    docPage.getCanvas().drawBitmap(bmp, 0, 0, null);
-                    doc.finishPage(docPage);
-                    bmp.recycle();
-                }
+    private final ExportQueue.Listener exportListener = new ExportQueue.Listener() {
+        @Override
+        public void onProgress(int done, int total) {
+            btnSave.setText("Saving… " + done + "/" + total);
+        }
 
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                doc.writeTo(baos);
-                doc.close();
-                byte[] bytes = baos.toByteArray();
-
-                String fileName = "edited_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".pdf";
-                FileManager fm = new FileManager(this);
-                String saved = fm.savePdf(bytes, fileName, FileManager.CATEGORY_SIGNED);
-                if (saved == null) {
-                    File fallback = new File(getFilesDir(), fileName);
-                    try (FileOutputStream fos = new FileOutputStream(fallback)) { fos.write(bytes); }
-                    saved = fallback.getAbsolutePath();
-                }
-                final String finalPath = saved;
-                if (finalPath != null) {
-                    new HistoryManager(this).addToHistory(fileName, finalPath);
-                }
+        @Override
+        public void onFinished(String path) {
+            exportJobId = null;
+            resetSaveButton();
+            File saved = new File(path);
+            showSuccessScreen(path, saved.getName(), saved.length() / (1024.0 * 1024.0));
+        }
 
-                final String finalFileName = fileName;
-                final double sizeMb = bytes.length / (1024.0 * 1024.0);
-                mainHandler.post(() -> {
-                    btnSave.setEnabled(true);
-                    btnSave.setText("Save PDF");
-                    btnSave.setIconResource(R.drawable.ic_save);
-                    showSuccessScreen(finalPath, finalFileName, sizeMb);
-                });
-            } catch (Exception e) {
-                mainHandler.post(() -> {
-                    btnSave.setEnabled(true);
-                    btnSave.setText("Save PDF");
-                    btnSave.setIconResource(R.drawable.ic_save);
-                    Toast.makeText(this, "Save failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                });
+        @Override
+        public void onFailed(Exception e) {
+            exportJobId = null;
+            resetSaveButton();
+            if (!(e instanceof CancellationException)) {
+                Toast.makeText(EditPdfActivity.this, "Save failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
             }
-        });
+        }
+    };
+
+    private Map<Integer, List<TextAnnotation>> copyAnnotations() {
+        Map<Integer, List<TextAnnotation>> copy = new HashMap<>();
+        for (Map.Entry<Integer, List<TextAnnotation>> entry : annotations.entrySet()) {
+            List<TextAnnotation> page = new ArrayList<>();
+            for (TextAnnotation a : entry.getValue()) {
+                page.add(new TextAnnotation(a.pageIndex, a.xFraction, a.yFraction, a.text,
+                        a.textSize, a.color, a.bold));
+            }
+            copy.put(entry.getKey(), page);
+        }
+        return copy;
+    }
+
+    private Map<Integer, List<SignatureOverlay>> copySignatureOverlays() {
+        Map<Integer, List<SignatureOverlay>> copy = new HashMap<>();
+        for (Map.Entry<Integer, List<SignatureOverlay>> entry : signatureOverlays.entrySet()) {
+            List<SignatureOverlay> page = new ArrayList<>();
+            for (SignatureOverlay o : entry.getValue()) {
+                page.add(new SignatureOverlay(o.pageIndex, o.xFraction, o.yFraction,
+                        o.widthFraction, o.heightFraction, o.bitmap));
+            }
+            copy.put(entry.getKey(), page);
+        }
+        return copy;
+    }
+
+    /** Width of a page preview, which annotation positions and text sizes are relative to. */
+    private int previewPageWidthPx() {
+        float density = getResources().getDisplayMetrics().density;
+        int sideInset = Math.round(40f * density);
+        return getResources().getDisplayMetrics().widthPixels - sideInset;
     }
 
     private void sharePdf(String path) {
@@ -1922,15 +1923,21 @@ public class EditPdfActivity extends AppCompatActivity {
     }
 
     private void closePdfRenderer() {
-        try {
-            if (pdfRenderer != null) { pdfRenderer.close(); pdfRenderer = null; }
-            if (parcelFileDescriptor != null) { parcelFileDescriptor.close(); parcelFileDescriptor = null; }
-        } catch (IOException ignored) {}
+        pdfRenderer = null;
+        if (rendererHandle != null) { rendererHandle.close(); rendererHandle = null; }
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_EXPORT_JOB, exportJobId);
     }
 
     @Override
     protected void onDestroy() {
         detachLiveEditImeAvoidance();
+        // The save itself carries on; a recreated screen picks it up again.
+        ExportQueue.shared(this).removeListener(exportListener);
         super.onDestroy();
         executor.shutdown();
         closePdfRenderer();
@@ -2093,10 +2100,7 @@ public class EditPdfActivity extends AppCompatActivity {
             private Bitmap renderPage(int index) {
                 if (pdfRenderer == null) return null;
                 try {
-                    float density = getResources().getDisplayMetrics().density;
-                    int sideInset = Math.round(40f * density);
-                    int screenW = getResources().getDisplayMetrics().widthPixels - sideInset;
-                    float scale = screenW / pdfRenderer.getPageWidthPoints(index);
+                    float scale = previewPageWidthPx() / pdfRenderer.getPageWidthPoints(index);
                     return pdfRenderer.renderPage(index, scale);
                 } catch (Exception e) { return null; }
             }
@@ -0,0 +1,196 @@
+package com.pdfreader.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.Nullable;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Reads the cover image of an EPUB straight out of the zip, without extracting the book the
+ * way EpubReaderActivity does. Two streaming passes: one for the package metadata
+ * (container.xml and the .opf), one for the cover image it names.
+ */
+final class EpubCoverExtractor {
+
+    // Package documents and covers are small; anything bigger is not what we're looking for.
+    private static final int MAX_METADATA_BYTES = 1024 * 1024;
+    private static final int MAX_IMAGE_BYTES = 16 * 1024 * 1024;
+
+    private EpubCoverExtractor() {}
+
+    /** The cover, downsampled to roughly maxWidth x maxHeight, or null if the book has none. */
+    @Nullable
+    static Bitmap extract(ParcelFileDescriptor pfd, int maxWidth, int maxHeight) throws IOException {
+        Map<String, byte[]> metadata = new HashMap<>();
+        String fallback = null;
+        try (ZipInputStream zip = openZip(pfd)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                String lower = name.toLowerCase();
+                if (lower.equals("meta-inf/container.xml") || lower.endsWith(".opf")) {
+                    byte[] bytes = readEntry(zip, MAX_METADATA_BYTES);
+                    if (bytes != null) metadata.put(name, bytes);
+                } else if (fallback == null && lower.contains("cover") && isImageName(lower)) {
+                    fallback = name;
+                }
+            }
+        }
+
+        String coverPath = findCoverInPackage(metadata);
+        if (coverPath == null) coverPath = fallback;
+        if (coverPath == null) return null;
+
+        try (ZipInputStream zip = openZip(pfd)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().equals(coverPath)) {
+                    byte[] bytes = readEntry(zip, MAX_IMAGE_BYTES);
+                    return bytes != null ? decodeSampled(bytes, maxWidth, maxHeight) : null;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Each pass reads its own dup() from the start, so closing the stream leaves the caller's
+    // descriptor open. dup()s share the file offset; nothing else reads this one meanwhile.
+    private static ZipInputStream openZip(ParcelFileDescriptor pfd) throws IOException {
+        FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd.dup());
+        in.getChannel().position(0);
+        return new ZipInputStream(in);
+    }
+
+    @Nullable
+    private static String findCoverInPackage(Map<String, byte[]> metadata) {
+        try {
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            String opfPath = null;
+            for (Map.Entry<String, byte[]> e : metadata.entrySet()) {
+                if (e.getKey().equalsIgnoreCase("META-INF/container.xml")) {
+                    NodeList rootfiles = parse(builder, e.getValue()).getElementsByTagName("rootfile");
+                    if (rootfiles.getLength() > 0) {
+                        opfPath = ((Element) rootfiles.item(0)).getAttribute("full-path");
+                    }
+                }
+            }
+            byte[] opf = opfPath != null ? metadata.get(opfPath) : null;
+            if (opf == null) {
+                // No (usable) container.xml: take any package document.
+                for (Map.Entry<String, byte[]> e : metadata.entrySet()) {
+                    if (e.getKey().toLowerCase().endsWith(".opf")) {
+                        opfPath = e.getKey();
+                        opf = e.getValue();
+                        break;
+                    }
+                }
+            }
+            if (opf == null) return null;
+
+            Document doc = parse(builder, opf);
+            // EPUB 2 names the cover's manifest id in <meta name="cover" content="...">.
+            String coverId = null;
+            NodeList metas = doc.getElementsByTagName("meta");
+            for (int i = 0; i < metas.getLength(); i++) {
+                Element meta = (Element) metas.item(i);
+                if ("cover".equals(meta.getAttribute("name"))) {
+                    coverId = meta.getAttribute("content");
+                }
+            }
+            String href = null;
+            String guess = null;
+            NodeList items = doc.getElementsByTagName("item");
+            for (int i = 0; i < items.getLength(); i++) {
+                Element item = (Element) items.item(i);
+                String itemHref = item.getAttribute("href");
+                // EPUB 3 marks it with properties="cover-image".
+                if (item.getAttribute("properties").contains("cover-image")
+                        || (coverId != null && coverId.equals(item.getAttribute("id")))) {
+                    href = itemHref;
+                    break;
+                }
+                if (guess == null && item.getAttribute("media-type").startsWith("image/")
+                        && (item.getAttribute("id").toLowerCase().contains("cover")
+                            || itemHref.toLowerCase().contains("cover"))) {
+                    guess = itemHref;
+                }
+            }
+            if (href == null) href = guess;
+            if (href == null || href.isEmpty()) return null;
+
+            // Manifest hrefs are URL-encoded and relative to the package document.
+            int slash = opfPath.lastIndexOf('/');
+            String base = slash >= 0 ? opfPath.substring(0, slash + 1) : "";
+            return normalize(base + Uri.decode(href));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Document parse(DocumentBuilder builder, byte[] bytes) throws Exception {
+        return builder.parse(new ByteArrayInputStream(bytes));
+    }
+
+    // Resolves "." and ".." segments, e.g. OEBPS/Text/../Images/cover.jpg.
+    private static String normalize(String path) {
+        java.util.ArrayDeque<String> segments = new java.util.ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) continue;
+            if (segment.equals("..")) {
+                segments.pollLast();
+            } else {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    @Nullable
+    private static byte[] readEntry(InputStream in, int limit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            if (out.size() + len > limit) return null;
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    private static Bitmap decodeSampled(byte[] bytes, int maxWidth, int maxHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        int sample = 1;
+        while (options.outWidth / (sample * 2) >= maxWidth && options.outHeight / (sample * 2) >= maxHeight) {
+            sample *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+
+    private static boolean isImageName(String lower) {
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png")
+                || lower.endsWith(".gif") || lower.endsWith(".webp");
+    }
+}
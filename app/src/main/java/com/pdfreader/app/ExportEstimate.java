@@ -0,0 +1,134 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.text.format.Formatter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Pre-flight estimate of an export's output size and duration under each ExportProfile, shown
+ * before it starts. Built from what's cheap to learn up front -- file sizes, image headers,
+ * page sizes -- without decoding or rendering anything, so it's ready in a moment even for
+ * hundreds of inputs. The figures are deliberately rough: throughputs are those of a mid-range
+ * phone, and encoded sizes are typical rather than exact.
+ */
+final class ExportEstimate {
+
+    // Copying bytes through unchanged: storage plus PdfBox's parse of the object structure.
+    private static final double COPY_BYTES_PER_MS = 30_000;
+    // Decoding a (subsampled) image, plus resampling it.
+    private static final double DECODE_PIXELS_PER_MS = 20_000;
+    // Encoding pixels the profile's way.
+    private static final double ENCODE_PIXELS_PER_MS = 10_000;
+    // Rasterizing page content, per renderer engine.
+    private static final double RENDER_PIXELS_PER_MS = 3_000;
+    // Rendered pages are mostly flat paper and text, which compress far better than photos.
+    private static final float RENDERED_PAGE_COMPRESSIBILITY = 0.4f;
+    // For an image whose file size is unknown, as a multiple of its pixel count.
+    private static final float UNKNOWN_JPEG_BYTES_PER_PIXEL = 0.3f;
+    private static final float POINTS_PER_INCH = 72f;
+
+    private static final class Image {
+        final ImagePageFactory.Source source;
+        final float pointsPerPixel;
+
+        Image(ImagePageFactory.Source source, float pointsPerPixel) {
+            this.source = source;
+            this.pointsPerPixel = pointsPerPixel;
+        }
+    }
+
+    private final List<Image> images = new ArrayList<>();
+    private long copiedBytes;
+    // Sum of the flattened pages' areas in square inches.
+    private double renderedSquareInches;
+    private int renderParallelism = 1;
+
+    /** Adds a document at {@code uri} that's copied into the output as it is. */
+    void addCopied(Context context, Uri uri) throws IOException {
+        try (AssetFileDescriptor afd = context.getContentResolver().openAssetFileDescriptor(uri, "r")) {
+            if (afd != null) copiedBytes += Math.max(0, afd.getLength());
+        }
+    }
+
+    /** Adds the image at {@code uri}, as ImagePageFactory lays it out. Reads only its header. */
+    void addImage(Context context, Uri uri) throws IOException {
+        ImagePageFactory.Source source = ImagePageFactory.probe(context, uri);
+        if (source == null) return;
+        images.add(new Image(source, ImagePageFactory.pointsPerPixel(source)));
+    }
+
+    /** Adds the pages of a document to be flattened, rendered {@code parallelism} at a time. */
+    void addRenderedPages(float[] widthsPoints, float[] heightsPoints, int parallelism) {
+        for (int i = 0; i < widthsPoints.length; i++) {
+            renderedSquareInches += (widthsPoints[i] / POINTS_PER_INCH) * (heightsPoints[i] / POINTS_PER_INCH);
+        }
+        renderParallelism = Math.max(1, parallelism);
+    }
+
+    long bytes(ExportProfile profile) {
+        double total = copiedBytes;
+        for (Image image : images) {
+            ImagePageFactory.Source source = image.source;
+            float sourceDpi = ImagePageFactory.sourceDpi(image.pointsPerPixel);
+            if (source.jpeg && profile.keepsResolution(sourceDpi)) {
+                total += source.bytes >= 0
+                        ? source.bytes
+                        : (double) source.width * source.height * UNKNOWN_JPEG_BYTES_PER_PIXEL;
+            } else {
+                float factor = profile.downsampleFactor(sourceDpi);
+                total += (double) source.width * source.height * factor * factor * profile.bytesPerPixel;
+            }
+        }
+        total += renderedPixels(profile) * profile.bytesPerPixel * RENDERED_PAGE_COMPRESSIBILITY;
+        return (long) total;
+    }
+
+    long millis(ExportProfile profile) {
+        double total = copiedBytes / COPY_BYTES_PER_MS;
+        for (Image image : images) {
+            ImagePageFactory.Source source = image.source;
+            float sourceDpi = ImagePageFactory.sourceDpi(image.pointsPerPixel);
+            double pixels = (double) source.width * source.height;
+            if (source.jpeg && profile.keepsResolution(sourceDpi)) {
+                total += (source.bytes >= 0 ? source.bytes : pixels * UNKNOWN_JPEG_BYTES_PER_PIXEL)
+                        / COPY_BYTES_PER_MS;
+            } else {
+                float factor = profile.downsampleFactor(sourceDpi);
+                total += pixels * factor / DECODE_PIXELS_PER_MS
+                        + pixels * factor * factor / ENCODE_PIXELS_PER_MS;
+            }
+        }
+        double rendered = renderedPixels(profile);
+        total += rendered / (RENDER_PIXELS_PER_MS * renderParallelism) + rendered / ENCODE_PIXELS_PER_MS;
+        return (long) total;
+    }
+
+    private double renderedPixels(ExportProfile profile) {
+        double dpi = profile.renderDpi();
+        return renderedSquareInches * dpi * dpi;
+    }
+
+    /** E.g. "about 12 MB, about 20 s". */
+    String describe(Context context, ExportProfile profile) {
+        return "about " + Formatter.formatShortFileSize(context, bytes(profile)) + ", "
+                + describeDuration(millis(profile));
+    }
+
+    private static String describeDuration(long millis) {
+        long seconds = (millis + 999) / 1000;
+        if (seconds <= 5) return "a few seconds";
+        if (seconds < 60) return String.format(Locale.getDefault(), "about %d s", roundTo(seconds, 5));
+        long minutes = (seconds + 30) / 60;
+        return minutes == 1 ? "about a minute" : String.format(Locale.getDefault(), "about %d min", minutes);
+    }
+
+    private static long roundTo(long value, long step) {
+        return Math.max(step, (value + step / 2) / step * step);
+    }
+}
@@ -0,0 +1,135 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * A PDF export run by ExportQueue: writes one new document into a category folder, which the
+ * queue then publishes and, if {@link #historyName} is set, adds to the reading history. A job
+ * whose output is only passed on (see {@link #isPublished}) writes where it likes instead.
+ *
+ * Jobs whose input is on disk (merge, image-to-PDF, scan, flatten) can describe themselves as
+ * JSON -- {@link #kind()} and {@link #writeSpec} -- and are run again from the start if the
+ * process dies under them. Saves of in-memory edits can't be; their partial output is deleted instead.
+ */
+abstract class ExportJob {
+
+    /**
+     * Receives progress from {@link #write}. Throws {@link java.util.concurrent.CancellationException}
+     * once the job has been cancelled, so a writer stops at its next page.
+     */
+    interface Progress {
+        void update(int done, int total);
+    }
+
+    /** The work of a job built with {@link #of}. */
+    interface Writer {
+        void write(Context context, File destination, Progress progress) throws IOException;
+    }
+
+    final String id = UUID.randomUUID().toString();
+    /** Shown in the progress notification, e.g. "Merging 5 files". */
+    final String title;
+    final String fileName;
+    final String category;
+    /** Name the saved document is added to the reading history under, or null. */
+    String historyName;
+    /** How images the job writes are sized and compressed. */
+    ExportProfile profile = ExportProfile.DEFAULT;
+
+    ExportJob(String title, String fileName, String category) {
+        this.title = title;
+        this.fileName = fileName;
+        this.category = category;
+    }
+
+    /**
+     * Writes the document to {@code destination}, reporting progress as it goes. Runs on one
+     * of the queue's worker threads; {@code context} is the application context.
+     */
+    abstract void write(Context context, File destination, Progress progress) throws IOException;
+
+    /** Creates the file the job writes to: by default a new one in its category folder. */
+    File createDestination(Context context) {
+        return new FileManager(context).getPdfFile(fileName, category);
+    }
+
+    /**
+     * Whether the written document is published to the library (and the history). False for
+     * output that's only handed to another app, which mustn't pile up there.
+     */
+    boolean isPublished() {
+        return true;
+    }
+
+    /** Identifies the job type in {@link #fromJson}, or null if the job can't be restarted. */
+    String kind() {
+        return null;
+    }
+
+    /** Adds what the job needs to run again to {@code spec}. Only called if kind() isn't null. */
+    void writeSpec(JSONObject spec) throws JSONException {
+    }
+
+    /** A job that runs {@code writer}; it isn't restarted after process death. */
+    static ExportJob of(String title, String fileName, String category, Writer writer) {
+        return new ExportJob(title, fileName, category) {
+            @Override
+            void write(Context context, File destination, Progress progress) throws IOException {
+                writer.write(context, destination, progress);
+            }
+        };
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("title", title);
+        json.put("fileName", fileName);
+        json.put("category", category);
+        if (historyName != null) json.put("historyName", historyName);
+        json.put("profile", profile.key);
+        String kind = kind();
+        if (kind != null) {
+            JSONObject spec = new JSONObject();
+            writeSpec(spec);
+            json.put("kind", kind);
+            json.put("spec", spec);
+        }
+        return json;
+    }
+
+    /** Rebuilds a job saved with {@link #toJson}, or returns null if it can't be restarted. */
+    static ExportJob fromJson(JSONObject json) throws JSONException {
+        String kind = json.optString("kind", null);
+        if (kind == null) return null;
+        String title = json.getString("title");
+        String fileName = json.getString("fileName");
+        JSONObject spec = json.getJSONObject("spec");
+        ExportJob job;
+        switch (kind) {
+            case MergePdfActivity.MergeJob.KIND:
+                job = MergePdfActivity.MergeJob.fromSpec(title, fileName, spec);
+                break;
+            case ImageToPdfActivity.ImagesJob.KIND:
+                job = ImageToPdfActivity.ImagesJob.fromSpec(title, fileName, spec);
+                break;
+            case ScanReviewActivity.ScanJob.KIND:
+                job = ScanReviewActivity.ScanJob.fromSpec(title, fileName, spec);
+                break;
+            case PdfReaderActivity.FlattenJob.KIND:
+                job = PdfReaderActivity.FlattenJob.fromSpec(title, fileName, spec);
+                break;
+            default:
+                return null;
+        }
+        job.historyName = json.optString("historyName", null);
+        job.profile = ExportProfile.forKey(json.optString("profile", null));
+        return job;
+    }
+}
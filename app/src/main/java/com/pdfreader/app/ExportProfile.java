@@ -0,0 +1,113 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.io.IOException;
+
+/**
+ * Resolution and compression for the images an export writes -- flattened pages, converted
+ * photos and scans, placed signatures -- so a document exports at the same quality whichever
+ * screen or device it's saved from. Page content that's copied rather than rasterized (merged
+ * PDFs, the original pages under an edit) is unaffected.
+ *
+ * Images already at or near the profile's resolution are kept as they are; only ones well
+ * above it are downsampled, and only those (or rasters produced by the export itself) are
+ * encoded the profile's way.
+ */
+final class ExportProfile {
+
+    /** For {@link #dpi}: images keep their own resolution. */
+    static final int ORIGINAL_RESOLUTION = 0;
+
+    static final ExportProfile SCREEN = new ExportProfile("screen", "Screen", 150, 0.80f, false, 0.12f);
+    static final ExportProfile PRINT = new ExportProfile("print", "Print (300 dpi)", 300, 0.92f, false, 0.25f);
+    static final ExportProfile ARCHIVE = new ExportProfile("archive", "Archive (lossless)",
+            ORIGINAL_RESOLUTION, 1f, true, 1.2f);
+    static final ExportProfile MINIMUM = new ExportProfile("minimum", "Minimum size", 96, 0.60f, false, 0.07f);
+
+    /** In the order they're offered. */
+    static final ExportProfile[] ALL = {SCREEN, PRINT, ARCHIVE, MINIMUM};
+
+    /** Until the user picks one. */
+    static final ExportProfile DEFAULT = PRINT;
+
+    private static final String PREFS_NAME = "export_settings";
+    private static final String KEY_PROFILE = "profile";
+
+    // Flattening has no source resolution to keep, so ORIGINAL_RESOLUTION renders at this.
+    private static final int ORIGINAL_RENDER_DPI = 300;
+    // An image up to this much sharper than the target is kept rather than re-encoded: the
+    // saving would be small and re-encoding a JPEG always costs some quality.
+    private static final float DOWNSAMPLE_THRESHOLD = 1.5f;
+
+    final String key;
+    final String label;
+    /** Target resolution of images on the page, or ORIGINAL_RESOLUTION. */
+    final int dpi;
+    /** JPEG quality for images the export encodes, unless {@link #lossless}. */
+    final float jpegQuality;
+    /** Whether images the export encodes are stored losslessly (Flate) instead of as JPEG. */
+    final boolean lossless;
+    /** Rough encoded size of one photo pixel, for ExportEstimate. */
+    final float bytesPerPixel;
+
+    private ExportProfile(String key, String label, int dpi, float jpegQuality, boolean lossless,
+                          float bytesPerPixel) {
+        this.key = key;
+        this.label = label;
+        this.dpi = dpi;
+        this.jpegQuality = jpegQuality;
+        this.lossless = lossless;
+        this.bytesPerPixel = bytesPerPixel;
+    }
+
+    /** The profile saved under {@code key}, or the default for an unknown or missing key. */
+    static ExportProfile forKey(String key) {
+        for (ExportProfile profile : ALL) {
+            if (profile.key.equals(key)) return profile;
+        }
+        return DEFAULT;
+    }
+
+    /** The profile the user chose last. */
+    static ExportProfile load(Context context) {
+        return forKey(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(KEY_PROFILE, null));
+    }
+
+    void save(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().putString(KEY_PROFILE, key).apply();
+    }
+
+    /** Resolution pages are rasterized at when flattening. */
+    int renderDpi() {
+        return dpi == ORIGINAL_RESOLUTION ? ORIGINAL_RENDER_DPI : dpi;
+    }
+
+    /** Whether an image shown at {@code sourceDpi} is kept at its own resolution. */
+    boolean keepsResolution(float sourceDpi) {
+        return dpi == ORIGINAL_RESOLUTION || sourceDpi <= dpi * DOWNSAMPLE_THRESHOLD;
+    }
+
+    /**
+     * The factor (at most 1) to scale an image shown at {@code sourceDpi} by: 1 if it's kept,
+     * else down to the profile's resolution.
+     */
+    float downsampleFactor(float sourceDpi) {
+        return keepsResolution(sourceDpi) ? 1f : dpi / sourceDpi;
+    }
+
+    /** Encodes {@code bitmap} into {@code document} the profile's way. */
+    PDImageXObject encode(PDDocument document, Bitmap bitmap) throws IOException {
+        return lossless
+                ? LosslessFactory.createFromImage(document, bitmap)
+                : JPEGFactory.createFromImage(document, bitmap, jpegQuality);
+    }
+}
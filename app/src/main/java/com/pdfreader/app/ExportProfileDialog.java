@@ -0,0 +1,81 @@
+package com.pdfreader.app;
+
+import android.app.Activity;
+import android.util.Log;
+import android.widget.ArrayAdapter;
+
+import androidx.appcompat.app.AlertDialog;
+
+import java.io.IOException;
+
+/**
+ * Asks which ExportProfile to export with before a long export starts, showing each profile's
+ * ExportEstimate next to it. The dialog opens at once with the last-used profile selected; the
+ * estimates fill in when they're ready, since building them reads file headers. The choice
+ * becomes the new default.
+ */
+final class ExportProfileDialog {
+
+    private static final String TAG = "ExportProfileDialog";
+
+    /** Builds the estimate; runs off the main thread. */
+    interface Estimator {
+        ExportEstimate estimate() throws IOException;
+    }
+
+    interface Callback {
+        void onProfileChosen(ExportProfile profile);
+    }
+
+    private ExportProfileDialog() {
+    }
+
+    static void show(Activity activity, String title, String action, Estimator estimator,
+                     Callback callback) {
+        ExportProfile current = ExportProfile.load(activity);
+        int checked = 0;
+        for (int i = 0; i < ExportProfile.ALL.length; i++) {
+            if (ExportProfile.ALL[i] == current) checked = i;
+        }
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(activity,
+                android.R.layout.simple_list_item_single_choice, labels(activity, null));
+        int[] selected = {checked};
+        AlertDialog dialog = new AlertDialog.Builder(activity)
+                .setTitle(title)
+                .setSingleChoiceItems(adapter, checked, (d, which) -> selected[0] = which)
+                .setPositiveButton(action, (d, which) -> {
+                    ExportProfile profile = ExportProfile.ALL[selected[0]];
+                    profile.save(activity);
+                    callback.onProfileChosen(profile);
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+
+        new Thread(() -> {
+            ExportEstimate estimate;
+            try {
+                estimate = estimator.estimate();
+            } catch (IOException | RuntimeException e) {
+                // Only the estimate is lost; the profiles can still be chosen without it.
+                Log.w(TAG, "Could not estimate export", e);
+                return;
+            }
+            activity.runOnUiThread(() -> {
+                if (!dialog.isShowing()) return;
+                adapter.clear();
+                adapter.addAll(labels(activity, estimate));
+            });
+        }, "export-estimate").start();
+    }
+
+    private static String[] labels(Activity activity, ExportEstimate estimate) {
+        String[] labels = new String[ExportProfile.ALL.length];
+        for (int i = 0; i < labels.length; i++) {
+            ExportProfile profile = ExportProfile.ALL[i];
+            labels[i] = profile.label + "\n" + (estimate != null
+                    ? estimate.describe(activity, profile)
+                    : "Estimating…");
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,373 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * App-wide queue of PDF exports (saves, merges, image-to-PDF, scans), run off any screen so
+ * rotating the device or leaving the screen doesn't lose or leak the work. While jobs are queued
+ * ExportService keeps the process in the foreground and shows their progress, with a Cancel
+ * action.
+ *
+ * Screens enqueue a job, keep its id (across configuration changes too) and observe it for
+ * page-level progress and the outcome, which is held for them if it arrives while they're
+ * being recreated. An outcome nobody is observing is posted as a notification instead, and held
+ * only briefly in case its screen is on its way back.
+ *
+ * Every queued job is journaled along with its output file. A journal entry still present when
+ * the queue is created belongs to a process that died mid-export: its partial output is
+ * deleted and, if the job can be rebuilt from its description (see ExportJob.kind()), it's
+ * queued again the next time a screen starts -- a foreground service can only be started
+ * from the foreground.
+ */
+final class ExportQueue {
+
+    private static final String TAG = "ExportQueue";
+    private static final String PREFS_NAME = "export_queue";
+    private static final String KEY_DESTINATION = "destination";
+
+    // Two at a time: one job's file I/O overlaps another's PdfBox work, without several large
+    // documents' object graphs on the heap at once.
+    private static final int MAX_PARALLEL = 2;
+    // How long an outcome nobody observed is held after its notification is posted: long
+    // enough for a screen being recreated to come back for it.
+    private static final long UNOBSERVED_OUTCOME_MS = 60_000;
+
+    /** Progress and outcome of one job, delivered on the main thread. */
+    interface Listener {
+        void onProgress(int done, int total);
+
+        void onFinished(String path);
+
+        /** {@code error} is a CancellationException if the job was cancelled. */
+        void onFailed(Exception error);
+    }
+
+    /** What the progress notification shows: the first running job and how many there are. */
+    static final class Status {
+        final String jobId;
+        final String title;
+        final int done;
+        final int total;
+        final int jobCount;
+
+        Status(Task task, int jobCount) {
+            this.jobId = task.job.id;
+            this.title = task.job.title;
+            this.done = task.done;
+            this.total = task.total;
+            this.jobCount = jobCount;
+        }
+    }
+
+    private static final class Task {
+        final ExportJob job;
+        final File destination;
+        volatile boolean cancelled;
+        volatile boolean running;
+        volatile int done;
+        volatile int total;
+
+        Task(ExportJob job, File destination) {
+            this.job = job;
+            this.destination = destination;
+        }
+    }
+
+    /** A finished job's outcome, kept until its screen observes it again or it expires. */
+    private static final class Outcome {
+        final String path;
+        final Exception error;
+
+        Outcome(String path, Exception error) {
+            this.path = path;
+            this.error = error;
+        }
+    }
+
+    private static ExportQueue shared;
+
+    private final Context context;
+    private final SharedPreferences journal;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor;
+
+    // Queued and running jobs, in queue order. Guarded by this.
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+    // Jobs interrupted by process death, by their journal key, waiting for resumeInterrupted().
+    // Guarded by this.
+    private final Map<String, ExportJob> interrupted = new LinkedHashMap<>();
+    // Outcomes not yet delivered to a listener. Guarded by this.
+    private final Map<String, Outcome> outcomes = new HashMap<>();
+    // Main thread only.
+    private final Map<String, Listener> listeners = new HashMap<>();
+    // Set by ExportService while it runs.
+    private volatile Runnable onChanged;
+
+    static synchronized ExportQueue shared(Context context) {
+        if (shared == null) {
+            shared = new ExportQueue(context.getApplicationContext());
+        }
+        return shared;
+    }
+
+    private ExportQueue(Context context) {
+        this.context = context;
+        this.journal = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(MAX_PARALLEL, r -> {
+            Thread t = new Thread(r, "export-" + threadCount.incrementAndGet());
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+        recoverJournal();
+    }
+
+    /**
+     * Queues {@code job} and starts the foreground service. Call from a screen in the
+     * foreground. Returns the job's id, for observe() and cancel().
+     */
+    String enqueue(ExportJob job) {
+        File destination = job.createDestination(context);
+        try {
+            // Claimed now, so another job queued under the same name gets a different file.
+            destination.createNewFile();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not create " + destination, e);
+        }
+        Task task = new Task(job, destination);
+        synchronized (this) {
+            tasks.put(job.id, task);
+        }
+        writeJournal(task);
+        ExportService.start(context);
+        executor.execute(() -> run(task));
+        changed();
+        return job.id;
+    }
+
+    /** Cancels a queued or running job; its partial output is deleted. */
+    void cancel(String jobId) {
+        Task task;
+        boolean started;
+        synchronized (this) {
+            task = tasks.get(jobId);
+            if (task == null) return;
+            task.cancelled = true;
+            started = task.running;
+        }
+        if (!started) {
+            // Not started yet: finish it now rather than when a worker reaches it.
+            finish(task, null, new CancellationException());
+        }
+    }
+
+    /**
+     * Delivers the job's progress and outcome to {@code listener}, replacing any previous
+     * listener for it. Main thread only. Returns false if the job isn't known -- it finished
+     * and was already delivered, or was lost with a previous process.
+     */
+    boolean observe(String jobId, Listener listener) {
+        Outcome outcome;
+        Task task;
+        synchronized (this) {
+            outcome = outcomes.remove(jobId);
+            task = tasks.get(jobId);
+        }
+        if (outcome != null) {
+            deliver(listener, outcome);
+            return true;
+        }
+        if (task == null) return false;
+        listeners.put(jobId, listener);
+        if (task.total > 0) {
+            listener.onProgress(task.done, task.total);
+        }
+        return true;
+    }
+
+    /** Stops delivering to {@code listener}. Main thread only. */
+    void removeListener(Listener listener) {
+        Iterator<Listener> it = listeners.values().iterator();
+        while (it.hasNext()) {
+            if (it.next() == listener) it.remove();
+        }
+    }
+
+    /** Queues again the jobs a previous process didn't finish. Call when a screen starts. */
+    void resumeInterrupted() {
+        Map<String, ExportJob> jobs;
+        synchronized (this) {
+            if (interrupted.isEmpty()) return;
+            jobs = new LinkedHashMap<>(interrupted);
+            interrupted.clear();
+        }
+        for (Map.Entry<String, ExportJob> entry : jobs.entrySet()) {
+            Log.i(TAG, "Restarting interrupted export " + entry.getValue().fileName);
+            journal.edit().remove(entry.getKey()).apply();
+            enqueue(entry.getValue());
+        }
+    }
+
+    /** The first running (or else queued) job, or null once the queue is empty. */
+    @Nullable
+    synchronized Status status() {
+        Task first = null;
+        for (Task task : tasks.values()) {
+            if (task.running) {
+                first = task;
+                break;
+            }
+            if (first == null) first = task;
+        }
+        return first != null ? new Status(first, tasks.size()) : null;
+    }
+
+    void setOnChanged(@Nullable Runnable onChanged) {
+        this.onChanged = onChanged;
+    }
+
+    private void run(Task task) {
+        synchronized (this) {
+            // Cancelled while it was waiting.
+            if (task.cancelled) return;
+            task.running = true;
+        }
+        changed();
+        try {
+            task.job.write(context, task.destination, (done, total) -> {
+                if (task.cancelled) throw new CancellationException();
+                task.done = done;
+                task.total = total;
+                progress(task);
+            });
+            if (task.cancelled) throw new CancellationException();
+            String path = task.destination.getAbsolutePath();
+            if (task.job.isPublished()) {
+                path = new FileManager(context).publishSavedPdf(task.destination, task.job.category);
+                if (task.job.historyName != null) {
+                    new HistoryManager(context).addToHistory(task.job.historyName, path);
+                }
+            }
+            finish(task, path, null);
+        } catch (Exception e) {
+            if (!(e instanceof CancellationException)) {
+                Log.e(TAG, "Export failed: " + task.job.fileName, e);
+            }
+            finish(task, null, e);
+        }
+    }
+
+    private void finish(Task task, String path, Exception error) {
+        synchronized (this) {
+            if (tasks.remove(task.job.id) == null) return;
+            outcomes.put(task.job.id, new Outcome(path, error));
+        }
+        if (error != null && !task.destination.delete() && task.destination.exists()) {
+            Log.w(TAG, "Could not delete partial export " + task.destination);
+        }
+        journal.edit().remove(task.job.id).apply();
+        changed();
+        mainHandler.post(() -> {
+            Listener listener = listeners.remove(task.job.id);
+            if (listener != null) {
+                Outcome outcome;
+                synchronized (this) {
+                    outcome = outcomes.remove(task.job.id);
+                }
+                if (outcome != null) deliver(listener, outcome);
+            } else {
+                // The screen is gone, or being recreated: the outcome is held for it for a
+                // while, and the user told in case it doesn't come back.
+                if (!(error instanceof CancellationException)) {
+                    ExportService.notifyOutcome(context, task.job, path, error);
+                }
+                mainHandler.postDelayed(() -> {
+                    synchronized (this) {
+                        outcomes.remove(task.job.id);
+                    }
+                }, UNOBSERVED_OUTCOME_MS);
+            }
+        });
+    }
+
+    private void progress(Task task) {
+        changed();
+        mainHandler.post(() -> {
+            Listener listener = listeners.get(task.job.id);
+            if (listener != null) listener.onProgress(task.done, task.total);
+        });
+    }
+
+    private static void deliver(Listener listener, Outcome outcome) {
+        if (outcome.error == null) {
+            listener.onFinished(outcome.path);
+        } else {
+            listener.onFailed(outcome.error);
+        }
+    }
+
+    private void changed() {
+        Runnable callback = onChanged;
+        if (callback != null) callback.run();
+    }
+
+    private void writeJournal(Task task) {
+        try {
+            JSONObject entry = task.job.toJson();
+            entry.put(KEY_DESTINATION, task.destination.getAbsolutePath());
+            journal.edit().putString(task.job.id, entry.toString()).apply();
+        } catch (JSONException e) {
+            Log.w(TAG, "Could not journal export " + task.job.fileName, e);
+        }
+    }
+
+    /** Cleans up after exports a previous process didn't finish; see the class comment. */
+    private void recoverJournal() {
+        Map<String, ?> entries = journal.getAll();
+        if (entries.isEmpty()) return;
+        SharedPreferences.Editor editor = journal.edit();
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            try {
+                JSONObject json = new JSONObject(String.valueOf(entry.getValue()));
+                String destination = json.optString(KEY_DESTINATION, null);
+                if (destination != null) {
+                    new File(destination).delete();
+                }
+                ExportJob job = ExportJob.fromJson(json);
+                if (job != null) {
+                    // The entry stays, without its output, until the job is queued again: if
+                    // this process dies first too, the next one still finds it.
+                    json.remove(KEY_DESTINATION);
+                    editor.putString(entry.getKey(), json.toString());
+                    interrupted.put(entry.getKey(), job);
+                    continue;
+                }
+                Log.i(TAG, "Discarded interrupted export " + json.optString("fileName"));
+            } catch (JSONException e) {
+                Log.w(TAG, "Unreadable export journal entry", e);
+            }
+            editor.remove(entry.getKey());
+        }
+        editor.apply();
+    }
+}
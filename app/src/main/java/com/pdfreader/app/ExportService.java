@@ -0,0 +1,177 @@
+package com.pdfreader.app;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+
+/**
+ * Keeps the process in the foreground while ExportQueue has jobs, so an export carries on when
+ * the user leaves the screen that started it, and shows the running job's progress with a
+ * Cancel action. Stops itself once the queue is empty. The work itself runs on the queue's
+ * threads; this only reflects it.
+ */
+public class ExportService extends Service {
+
+    private static final String CHANNEL_ID = "exports";
+    private static final int NOTIFICATION_ID = 0x1d0c10;
+    private static final String ACTION_CANCEL = "com.pdfreader.app.action.CANCEL_EXPORT";
+    private static final String EXTRA_JOB_ID = "job_id";
+    // Progress is posted at most this often; the system drops faster updates anyway.
+    private static final long UPDATE_INTERVAL_MS = 500;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ExportQueue queue;
+    private int lastStartId;
+    private boolean updatePending;
+    private long lastUpdate;
+
+    /** Starts the service; the queue calls this whenever a job is queued. */
+    static void start(Context context) {
+        ContextCompat.startForegroundService(context, new Intent(context, ExportService.class));
+    }
+
+    /** Tells the user how an export nobody was watching ended; tapping a saved one opens it. */
+    static void notifyOutcome(Context context, ExportJob job, String path, Exception error) {
+        NotificationManager manager = context.getSystemService(NotificationManager.class);
+        if (manager == null) return;
+        ensureChannel(manager);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_save)
+                .setAutoCancel(true);
+        if (error == null) {
+            String name = new File(path).getName();
+            Intent open = new Intent(context, PdfReaderActivity.class)
+                    .putExtra("PDF_PATH", path)
+                    .putExtra("PDF_TITLE", name)
+                    .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            builder.setContentTitle("Saved " + name)
+                    .setContentText("Tap to open")
+                    .setContentIntent(PendingIntent.getActivity(context, job.id.hashCode(), open,
+                            PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT));
+        } else {
+            builder.setContentTitle("Couldn't save " + job.fileName)
+                    .setContentText(error.getMessage() != null ? error.getMessage() : job.title);
+        }
+        manager.notify(job.id.hashCode(), builder.build());
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        queue = ExportQueue.shared(this);
+        queue.setOnChanged(() -> mainHandler.post(this::scheduleUpdate));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        lastStartId = startId;
+        // Required promptly after startForegroundService(), even if there's nothing left to do.
+        Notification notification = buildNotification(queue.status());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+        if (intent != null && ACTION_CANCEL.equals(intent.getAction())) {
+            queue.cancel(intent.getStringExtra(EXTRA_JOB_ID));
+        }
+        update();
+        // Jobs live in the queue; a restarted service would have nothing to show.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        queue.setOnChanged(null);
+        mainHandler.removeCallbacksAndMessages(null);
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void scheduleUpdate() {
+        if (updatePending) return;
+        long wait = lastUpdate + UPDATE_INTERVAL_MS - SystemClock.uptimeMillis();
+        if (wait <= 0 || queue.status() == null) {
+            update();
+        } else {
+            updatePending = true;
+            mainHandler.postDelayed(() -> {
+                updatePending = false;
+                update();
+            }, wait);
+        }
+    }
+
+    private void update() {
+        lastUpdate = SystemClock.uptimeMillis();
+        ExportQueue.Status status = queue.status();
+        if (status == null) {
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            // Only if no job was queued since the last start; otherwise that start keeps it.
+            stopSelfResult(lastStartId);
+            return;
+        }
+        NotificationManager manager = getSystemService(NotificationManager.class);
+        if (manager != null) {
+            manager.notify(NOTIFICATION_ID, buildNotification(status));
+        }
+    }
+
+    private Notification buildNotification(@Nullable ExportQueue.Status status) {
+        NotificationManager manager = getSystemService(NotificationManager.class);
+        if (manager != null) ensureChannel(manager);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_save)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setSilent(true);
+        if (status == null) {
+            return builder.setContentTitle("Saving…").build();
+        }
+        String text = status.total > 0
+                ? status.done + " of " + status.total
+                : "Starting…";
+        if (status.jobCount > 1) {
+            text += " · " + (status.jobCount - 1) + " more queued";
+        }
+        Intent cancel = new Intent(this, ExportService.class)
+                .setAction(ACTION_CANCEL)
+                .putExtra(EXTRA_JOB_ID, status.jobId);
+        return builder.setContentTitle(status.title)
+                .setContentText(text)
+                .setProgress(status.total, status.done, status.total == 0)
+                .addAction(0, "Cancel", PendingIntent.getService(this, status.jobId.hashCode(),
+                        cancel, PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT))
+                .build();
+    }
+
+    private static void ensureChannel(NotificationManager manager) {
+        if (manager.getNotificationChannel(CHANNEL_ID) == null) {
+            NotificationChannel channel = new NotificationChannel(
+                    CHANNEL_ID, "Saving documents", NotificationManager.IMPORTANCE_LOW);
+            channel.setDescription("Progress of saves, merges and conversions");
+            manager.createNotificationChannel(channel);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.pdfreader.app;
+
+import android.os.ParcelFileDescriptor;
+
+import com.tom_roush.pdfbox.io.RandomAccessRead;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only PdfBox-Android source backed directly by a file descriptor, so a PDDocument can
+ * be parsed without first pulling the whole file onto the heap.
+ *
+ * Every read goes through FileChannel.read(ByteBuffer, long) -- a positional pread that never
+ * moves the descriptor's shared file offset. That matters because dup()'d descriptors share one
+ * offset with the original: the stock PdfRenderer (or the caller) can hold another dup of the
+ * same file and neither side will ever see its read position move underneath it.
+ *
+ * Not thread-safe; PdfBox only ever reads a document's source from one thread at a time.
+ */
+class FileChannelRandomAccessRead implements RandomAccessRead {
+
+    private static final int PAGE_SIZE = 16 * 1024;
+
+    private final ParcelFileDescriptor.AutoCloseInputStream stream;
+    private final FileChannel channel;
+    private final long length;
+
+    // Small read-ahead window; PdfBox's lexer reads byte-at-a-time and peeks/rewinds constantly.
+    private final ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+    private long pageStart = -1;
+    private int pageLength;
+
+    private long position;
+    private boolean closed;
+
+    /** Takes ownership of {@code pfd}; it is closed along with this source. */
+    FileChannelRandomAccessRead(ParcelFileDescriptor pfd) throws IOException {
+        stream = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+        channel = stream.getChannel();
+        try {
+            length = channel.size();
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkOpen();
+        if (position >= length) {
+            return -1;
+        }
+        fillPage(position);
+        int b = page.get((int) (position - pageStart)) & 0xff;
+        position++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int len) throws IOException {
+        checkOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        int total = 0;
+        while (total < len && position < length) {
+            fillPage(position);
+            int offsetInPage = (int) (position - pageStart);
+            int n = Math.min(len - total, pageLength - offsetInPage);
+            System.arraycopy(page.array(), offsetInPage, b, offset + total, n);
+            position += n;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public void seek(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IOException("Invalid position " + newPosition);
+        }
+        position = Math.min(newPosition, length);
+    }
+
+    @Override
+    public long length() throws IOException {
+        checkOpen();
+        return length;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int peek() throws IOException {
+        int b = read();
+        if (b != -1) {
+            rewind(1);
+        }
+        return b;
+    }
+
+    @Override
+    public void rewind(int bytes) throws IOException {
+        seek(position - bytes);
+    }
+
+    @Override
+    public byte[] readFully(int count) throws IOException {
+        byte[] bytes = new byte[count];
+        int off = 0;
+        while (off < count) {
+            int n = read(bytes, off, count - off);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            off += n;
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        checkOpen();
+        return position >= length;
+    }
+
+    @Override
+    public int available() throws IOException {
+        checkOpen();
+        return (int) Math.min(length - position, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            stream.close();
+        }
+    }
+
+    private void fillPage(long pos) throws IOException {
+        if (pageStart >= 0 && pos >= pageStart && pos < pageStart + pageLength) {
+            return;
+        }
+        // Align to PAGE_SIZE so the lexer's short rewinds land back inside the same window.
+        pageStart = pos - (pos % PAGE_SIZE);
+        page.clear();
+        while (page.hasRemaining()) {
+            int n = channel.read(page, pageStart + page.position());
+            if (n < 0) {
+                break;
+            }
+        }
+        pageLength = page.position();
+        if (pos >= pageStart + pageLength) {
+            pageStart = -1;
+            throw new EOFException("Unexpected end of file at offset " + pos);
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("RandomAccessRead already closed");
+        }
+    }
+}
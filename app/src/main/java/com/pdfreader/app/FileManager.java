@@ -6,13 +6,17 @@ import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -38,6 +42,7 @@ public class FileManager {
     private static final String TAG = "FileManager";
 
     private static final String APP_FOLDER_NAME = "PDFReader";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
     // Public category constants – callers use these when saving files
     public static final String CATEGORY_SIGNED     = "Signed";
@@ -119,34 +124,65 @@ public class FileManager {
     }
 
     /**
-     * Save a PDF byte array to the correct category folder.
-     * On Android 10+ files also appear in the Downloads app under PDFReader/<category>.
+     * Save a PDF to the correct category folder by letting {@code content} write it straight
+     * into the file, so it never has to be held in memory. On Android 10+ the file also appears
+     * in the Downloads app under PDFReader/<category> (see publishSavedPdf).
      *
-     * @param pdfData  raw PDF bytes
+     * @param content  writes the PDF
      * @param fileName desired file name (will have .pdf appended if missing)
      * @param category one of the CATEGORY_* constants
      * @return absolute file path of the saved file, or null on failure
      */
-    public String savePdf(byte[] pdfData, String fileName, String category) {
-        if (pdfData == null || pdfData.length == 0) {
-            Log.e(TAG, "Cannot save empty PDF data");
+    public String savePdf(PdfContent content, String fileName, String category) {
+        File pdfFile = getPdfFile(fileName, category);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(pdfFile), COPY_BUFFER_SIZE)) {
+            content.writeTo(out);
+        } catch (Exception e) {
+            Log.e(TAG, "Error saving PDF", e);
+            pdfFile.delete();
             return null;
         }
+        Log.d(TAG, "PDF saved [" + category + "]: " + pdfFile.getAbsolutePath());
+        return publishSavedPdf(pdfFile, category);
+    }
 
-        fileName = sanitizeFileName(fileName);
-
-        try {
-            // Primary: write to app-specific external storage (always writable, no permissions needed).
-            String result = savePdfDirect(pdfData, fileName, category);
-            if (result != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                // Additionally publish to MediaStore so the file also appears in Downloads.
-                publishToMediaStore(pdfData, fileName, category);
-            }
-            return result;
+    /**
+     * Save a copy of an existing PDF file (e.g. one written to the cache) to the category
+     * folder. The copy is a channel transfer, file to file.
+     *
+     * @return absolute file path of the saved file, or null on failure
+     */
+    public String savePdf(File source, String fileName, String category) {
+        File pdfFile = getPdfFile(fileName, category);
+        try (FileInputStream in = new FileInputStream(source);
+             FileOutputStream out = new FileOutputStream(pdfFile)) {
+            transfer(in.getChannel(), out.getChannel());
         } catch (Exception e) {
             Log.e(TAG, "Error saving PDF", e);
+            pdfFile.delete();
             return null;
         }
+        Log.d(TAG, "PDF saved [" + category + "]: " + pdfFile.getAbsolutePath());
+        return publishSavedPdf(pdfFile, category);
+    }
+
+    /**
+     * Publishes a PDF that was written straight into a category folder (see getPdfFile), so it
+     * also appears in Downloads on Android 10+, like the files savePdf() writes. The copy is
+     * a channel transfer from the file rather than read into memory.
+     *
+     * @return absolute path of {@code pdfFile}
+     */
+    public String publishSavedPdf(File pdfFile, String category) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            publishToMediaStore(pdfFile, category);
+        }
+        return pdfFile.getAbsolutePath();
+    }
+
+    /** Writes the bytes of a PDF being saved. */
+    public interface PdfContent {
+        void writeTo(OutputStream out) throws IOException;
     }
 
     /**
@@ -178,36 +214,17 @@ public class FileManager {
         }
     }
 
-    /** Write directly to app-specific external storage — always succeeds, no permissions. */
-    private String savePdfDirect(byte[] pdfData, String fileName, String category)
-            throws IOException {
-        File folder = getCategoryFolder(category);
-        if (folder == null) {
-            Log.e(TAG, "Cannot resolve folder for category: " + category);
-            return null;
-        }
-        folder.mkdirs();
-
-        File pdfFile = uniqueFile(folder, fileName);
-        try (FileOutputStream fos = new FileOutputStream(pdfFile)) {
-            fos.write(pdfData);
-            fos.flush();
-            Log.d(TAG, "PDF saved [" + category + "]: " + pdfFile.getAbsolutePath());
-            return pdfFile.getAbsolutePath();
-        }
-    }
-
     /**
      * On Android 10+ also insert a copy into MediaStore Downloads so the file
      * appears in the system Downloads app under PDFReader/<category>/.
-     * Failures here are non-fatal — the file is already saved via savePdfDirect.
+     * Failures here are non-fatal — the file is already saved in the category folder.
      */
-    private void publishToMediaStore(byte[] pdfData, String fileName, String category) {
+    private void publishToMediaStore(File pdfFile, String category) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return;
         try {
             ContentResolver resolver = context.getContentResolver();
             ContentValues values = new ContentValues();
-            values.put(MediaStore.MediaColumns.DISPLAY_NAME, fileName);
+            values.put(MediaStore.MediaColumns.DISPLAY_NAME, pdfFile.getName());
             values.put(MediaStore.MediaColumns.MIME_TYPE, "application/pdf");
             // RELATIVE_PATH for MediaStore.Downloads is relative to the Downloads root directory.
             values.put(MediaStore.MediaColumns.RELATIVE_PATH,
@@ -217,8 +234,13 @@ public class FileManager {
             Uri uri = resolver.insert(MediaStore.Downloads.EXTERNAL_CONTENT_URI, values);
             if (uri == null) { Log.w(TAG, "MediaStore insert returned null, skipping"); return; }
 
-            try (OutputStream out = resolver.openOutputStream(uri)) {
-                if (out != null) { out.write(pdfData); out.flush(); }
+            try (ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "w");
+                 FileInputStream in = new FileInputStream(pdfFile)) {
+                if (pfd != null) {
+                    try (FileOutputStream out = new FileOutputStream(pfd.getFileDescriptor())) {
+                        transfer(in.getChannel(), out.getChannel());
+                    }
+                }
             }
             ContentValues done = new ContentValues();
             done.put(MediaStore.MediaColumns.IS_PENDING, 0);
@@ -229,6 +251,15 @@ public class FileManager {
         }
     }
 
+    /** Copies all of {@code source} to {@code target} without passing through the heap. */
+    private static void transfer(FileChannel source, FileChannel target) throws IOException {
+        long size = source.size();
+        long copied = 0;
+        while (copied < size) {
+            copied += source.transferTo(copied, size - copied, target);
+        }
+    }
+
     /** Ensures the file name ends with .pdf and is not blank. */
     private String sanitizeFileName(String fileName) {
         if (fileName == null || fileName.trim().isEmpty()) {
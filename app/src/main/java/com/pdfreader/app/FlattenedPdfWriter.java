@@ -0,0 +1,142 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDPageContentStream;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a flattened copy of a PDF: every page rendered as the reader shows it -- content plus
+ * annotations and form fields -- and stored as a single image, for share targets that don't
+ * draw annotations or forms at all.
+ *
+ * Rendering and encoding dominate, so they run on a pool of the renderer's own engines
+ * (see PdfBoxRenderer.getMaxParallelism()), each producing a finished one-page document. The
+ * calling thread is the only writer: it appends those documents in page order through
+ * PdfMergeWriter, which streams them to the output. At most a small window of pages is in
+ * flight beyond the one being written, so memory stays bounded by the window, not the
+ * document's length, and a slow page holds the rest back instead of letting them pile up.
+ */
+final class FlattenedPdfWriter {
+
+    private static final float POINTS_PER_INCH = 72f;
+    // Pages rendered ahead of the writer, per worker: enough that a worker never waits for
+    // the writer to drain the queue, few enough that encoded pages don't accumulate.
+    private static final int WINDOW_PER_WORKER = 2;
+
+    private FlattenedPdfWriter() {
+    }
+
+    /**
+     * Writes the flattened copy of {@code pdfPath} to {@code destination}, with pages rendered
+     * at the profile's resolution and encoded its way.
+     */
+    static void write(Context context, String pdfPath, File destination, ExportProfile profile,
+                      ExportJob.Progress progress) throws IOException {
+        try (RendererRegistry.Handle handle = RendererRegistry.shared(context).acquire(pdfPath)) {
+            PdfBoxRenderer renderer = handle.getRenderer();
+            int pageCount = renderer.getPageCount();
+            int workers = renderer.getMaxParallelism();
+            int window = workers * WINDOW_PER_WORKER;
+            AtomicInteger threadCount = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "flatten-" + threadCount.incrementAndGet());
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            });
+            ArrayDeque<Future<PDDocument>> inFlight = new ArrayDeque<>();
+            AtomicBoolean abandoned = new AtomicBoolean();
+            try (PdfMergeWriter writer = new PdfMergeWriter(destination)) {
+                int submitted = 0;
+                for (int index = 0; index < pageCount; index++) {
+                    progress.update(index, pageCount);
+                    while (submitted < pageCount && submitted < index + window) {
+                        int page = submitted++;
+                        inFlight.add(pool.submit(
+                                () -> abandoned.get() ? null : renderPage(renderer, page, profile)));
+                    }
+                    try (PDDocument page = await(inFlight.poll())) {
+                        writer.append(page);
+                    }
+                }
+                writer.finish();
+            } finally {
+                // After a failure or cancellation: pages not started yet are skipped, pages
+                // being rendered are let finish, and whatever was rendered ahead is released.
+                abandoned.set(true);
+                pool.shutdown();
+                for (Future<PDDocument> pending : inFlight) {
+                    closeFinished(pending);
+                }
+            }
+            progress.update(pageCount, pageCount);
+        }
+    }
+
+    /** One page, rendered and encoded as a one-page document; runs on a worker. */
+    private static PDDocument renderPage(PdfBoxRenderer renderer, int index, ExportProfile profile)
+            throws IOException {
+        float width = renderer.getPageWidthPoints(index);
+        float height = renderer.getPageHeightPoints(index);
+        Bitmap bitmap = renderer.renderPage(index, profile.renderDpi() / POINTS_PER_INCH);
+        PDDocument document = new PDDocument();
+        try {
+            PDPage page = new PDPage(new PDRectangle(width, height));
+            document.addPage(page);
+            // Rendered onto white, so opaque: without this the encoders add a soft mask too.
+            bitmap.setHasAlpha(false);
+            PDImageXObject image = profile.encode(document, bitmap);
+            try (PDPageContentStream cs = new PDPageContentStream(document, page)) {
+                cs.drawImage(image, 0, 0, width, height);
+            }
+            return document;
+        } catch (IOException | RuntimeException e) {
+            document.close();
+            throw e;
+        } finally {
+            bitmap.setHasAlpha(true);
+            BitmapPool.shared().put(bitmap);
+        }
+    }
+
+    private static PDDocument await(Future<PDDocument> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Flattening interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static void closeFinished(Future<PDDocument> future) {
+        try {
+            // Waits at most for a render that was already running; the rest return at once.
+            PDDocument document = future.get();
+            if (document != null) document.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | IOException e) {
+            // A failed page has nothing to release.
+        }
+    }
+}
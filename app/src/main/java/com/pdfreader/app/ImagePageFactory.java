@@ -0,0 +1,312 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSInteger;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDPageContentStream;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceCMYK;
+import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import com.tom_roush.pdfbox.util.Matrix;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Builds one-page documents showing an image, for appending to a PdfMergeWriter.
+ *
+ * A JPEG -- every camera photo and scan -- that the export profile keeps at its resolution is
+ * embedded as it is, as a DCTDecode image: nothing is decoded or re-encoded, so a page costs the
+ * file's own size in memory instead of 4 bytes per pixel, the output is no larger than the
+ * input, and there's no generation loss. Its colour space comes from its own frame header
+ * (grey, RGB or CMYK), as JPEGFactory tags every JPEG as RGB. Anything else is decoded,
+ * subsampled down to the profile's resolution where it's well above it, and encoded the
+ * profile's way. Either way the
+ * EXIF orientation is applied by the matrix the page draws the image with, not by rotating
+ * pixels.
+ *
+ * Every export lays image pages out the same way, so a photo or scan comes out at a real paper
+ * size whichever screen it's exported from: as if the (oriented) image were fitted within A4 at
+ * 150 dpi. That only sizes the page; how many pixels end up on it is the profile's call.
+ */
+final class ImagePageFactory {
+
+    // A4 at 150 dpi; smaller images aren't enlarged.
+    private static final int PAGE_MAX_WIDTH = 1240;
+    private static final int PAGE_MAX_HEIGHT = 1754;
+    private static final float POINTS_PER_INCH = 72f;
+    private static final float POINTS_PER_PIXEL = POINTS_PER_INCH / 150f;
+
+    /** An image's header: enough to lay out its page and estimate its export. */
+    static final class Source {
+        final int width;
+        final int height;
+        /** An ExifInterface.ORIENTATION_* constant. */
+        final int orientation;
+        final boolean jpeg;
+        /** Size of the file, or -1 if unknown. */
+        final long bytes;
+
+        Source(int width, int height, int orientation, boolean jpeg, long bytes) {
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+            this.jpeg = jpeg;
+            this.bytes = bytes;
+        }
+
+        boolean isSideways() {
+            return orientation == ExifInterface.ORIENTATION_ROTATE_90
+                    || orientation == ExifInterface.ORIENTATION_ROTATE_270
+                    || orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                    || orientation == ExifInterface.ORIENTATION_TRANSVERSE;
+        }
+
+        int shownWidth() {
+            return isSideways() ? height : width;
+        }
+
+        int shownHeight() {
+            return isSideways() ? width : height;
+        }
+    }
+
+    private ImagePageFactory() {
+    }
+
+    /**
+     * Reads just the header of the image at {@code uri}, without decoding it. Returns null if
+     * it isn't an image Android can decode.
+     */
+    static Source probe(Context context, Uri uri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        long bytes;
+        try (AssetFileDescriptor afd = context.getContentResolver().openAssetFileDescriptor(uri, "r")) {
+            if (afd == null) throw new FileNotFoundException(uri.toString());
+            bytes = afd.getLength();
+            try (InputStream in = afd.createInputStream()) {
+                BitmapFactory.decodeStream(in, null, options);
+            }
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        boolean jpeg = "image/jpeg".equals(options.outMimeType);
+        int orientation = ExifInterface.ORIENTATION_NORMAL;
+        if (jpeg) {
+            try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                if (in != null) orientation = readOrientation(in);
+            }
+        }
+        // getLength() is UNKNOWN_LENGTH, i.e. -1, for streams of unknown size.
+        return new Source(options.outWidth, options.outHeight, orientation, jpeg, bytes);
+    }
+
+    /** Points per image pixel on the page create() lays {@code source} out on. */
+    static float pointsPerPixel(Source source) {
+        float fit = Math.min(1f, Math.min((float) PAGE_MAX_WIDTH / source.shownWidth(),
+                (float) PAGE_MAX_HEIGHT / source.shownHeight()));
+        return fit * POINTS_PER_PIXEL;
+    }
+
+    /** The resolution {@code source} is shown at on its page. */
+    static float sourceDpi(float pointsPerPixel) {
+        return POINTS_PER_INCH / pointsPerPixel;
+    }
+
+    /**
+     * Reads the image from {@code in}; the caller closes both the stream and the result. Returns
+     * null if the data isn't an image Android can decode.
+     */
+    static PDDocument create(InputStream in, ExportProfile profile) throws IOException {
+        byte[] data = readAll(in);
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null;
+        boolean jpeg = isJpeg(data);
+        int orientation = jpeg
+                ? readOrientation(new ByteArrayInputStream(data))
+                : ExifInterface.ORIENTATION_NORMAL;
+        Source source = new Source(bounds.outWidth, bounds.outHeight, orientation, jpeg, data.length);
+
+        float scale = pointsPerPixel(source);
+        float w = source.shownWidth() * scale;
+        float h = source.shownHeight() * scale;
+        float sourceDpi = sourceDpi(scale);
+
+        PDDocument document = new PDDocument();
+        try {
+            PDImageXObject image = jpeg && profile.keepsResolution(sourceDpi)
+                    ? embedJpeg(document, data) : null;
+            if (image == null) {
+                Bitmap bitmap = decode(data, source, profile.downsampleFactor(sourceDpi));
+                if (bitmap == null) {
+                    document.close();
+                    return null;
+                }
+                try {
+                    image = profile.encode(document, bitmap);
+                } finally {
+                    bitmap.recycle();
+                }
+            }
+            PDPage page = new PDPage(new PDRectangle(w, h));
+            document.addPage(page);
+            try (PDPageContentStream cs = new PDPageContentStream(document, page)) {
+                cs.drawImage(image, orientationMatrix(orientation, w, h));
+            }
+            return document;
+        } catch (IOException | RuntimeException e) {
+            document.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Embeds the JPEG {@code data} as it is, with the colour space its components call for, or
+     * returns null if it has a component count a PDF JPEG can't carry as is.
+     */
+    private static PDImageXObject embedJpeg(PDDocument document, byte[] data) throws IOException {
+        int[] header = readJpegHeader(data);
+        int components = header[0];
+        boolean adobe = header[1] != 0;
+        if (components != 1 && components != 3 && components != 4) return null;
+        PDImageXObject image = JPEGFactory.createFromByteArray(document, data);
+        if (components == 1) {
+            image.setColorSpace(PDDeviceGray.INSTANCE);
+        } else if (components == 4) {
+            image.setColorSpace(PDDeviceCMYK.INSTANCE);
+            if (adobe) {
+                // Adobe's CMYK JPEGs store inverted values; the decode array undoes it.
+                COSArray decode = new COSArray();
+                for (int i = 0; i < 4; i++) {
+                    decode.add(COSInteger.ONE);
+                    decode.add(COSInteger.ZERO);
+                }
+                image.setDecode(decode);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Reads a JPEG's markers up to its scan: returns {component count, 1 if it has an Adobe
+     * APP14 marker else 0}. The count is 0 if no frame header was found.
+     */
+    private static int[] readJpegHeader(byte[] data) {
+        int components = 0;
+        boolean adobe = false;
+        int pos = 2;
+        while (pos + 3 < data.length) {
+            if ((data[pos] & 0xFF) != 0xFF) break;
+            int marker = data[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte.
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                // No length follows.
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) break;
+            int length = ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+            int segment = pos + 4;
+            if (marker == 0xEE && length >= 7 && segment + 5 <= data.length
+                    && data[segment] == 'A' && data[segment + 1] == 'd' && data[segment + 2] == 'o'
+                    && data[segment + 3] == 'b' && data[segment + 4] == 'e') {
+                adobe = true;
+            } else if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8
+                    && marker != 0xCC && segment + 5 < data.length) {
+                // SOFn: precision, height, width, then the component count.
+                components = data[segment + 5] & 0xFF;
+            }
+            pos += 2 + length;
+        }
+        return new int[] {components, adobe ? 1 : 0};
+    }
+
+    /** Decodes {@code data} scaled by {@code factor} (at most 1), or returns null. */
+    private static Bitmap decode(byte[] data, Source source, float factor) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // The largest power-of-two reduction that still leaves at least the target size is
+        // done by the decoder itself, cheaply; only the remainder is an actual resample.
+        options.inSampleSize = 1;
+        while (factor * options.inSampleSize * 2 <= 1f) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null) return null;
+        int targetWidth = Math.max(1, Math.round(source.width * factor));
+        int targetHeight = Math.max(1, Math.round(source.height * factor));
+        if (bitmap.getWidth() > targetWidth) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+            if (scaled != bitmap) bitmap.recycle();
+            bitmap = scaled;
+        }
+        return bitmap;
+    }
+
+    // Maps the image's unit square onto the w x h page the way a viewer honoring the EXIF tag
+    // would display it; the image's own top edge is at v = 1.
+    private static Matrix orientationMatrix(int orientation, float w, float h) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                return new Matrix(-w, 0, 0, h, w, 0);
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return new Matrix(-w, 0, 0, -h, w, h);
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                return new Matrix(w, 0, 0, -h, 0, h);
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                return new Matrix(0, -h, -w, 0, w, h);
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return new Matrix(0, -h, w, 0, 0, h);
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                return new Matrix(0, h, w, 0, 0, 0);
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return new Matrix(0, h, -w, 0, w, 0);
+            default:
+                return new Matrix(w, 0, 0, h, 0, 0);
+        }
+    }
+
+    private static int readOrientation(InputStream in) {
+        try {
+            return new ExifInterface(in).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            // Unreadable EXIF: show the image as stored, like ImageOrientationUtils does.
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private static boolean isJpeg(byte[] data) {
+        return data.length > 2 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        if (in == null) throw new IOException("Image not readable");
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 * 1024);
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
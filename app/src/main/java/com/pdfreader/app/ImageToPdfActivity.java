@@ -1,11 +1,10 @@
 package com.pdfreader.app;
 
 import android.content.ClipData;
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.pdf.PdfDocument;
 import android.net.Uri;
 import android.os.Bundle;
 import android.view.View;
@@ -19,19 +18,29 @@ import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
 
 public class ImageToPdfActivity extends AppCompatActivity {
 
+    private static final String STATE_EXPORT_JOB = "export_job";
+
     private LinearLayout imagesContainer;
     private Button btnSelectImages;
     private Button btnCreatePdf;
@@ -39,6 +48,8 @@ public class ImageToPdfActivity extends AppCompatActivity {
     private TextView statusText;
     private List<Uri> selectedImages;
     private ActivityResultLauncher<Intent> imagePickerLauncher;
+    // The conversion running in ExportQueue, if any.
+    private String exportJobId;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -77,6 +88,18 @@ public class ImageToPdfActivity extends AppCompatActivity {
         btnCreatePdf.setOnClickListener(v -> createPdf());
 
         btnCreatePdf.setEnabled(false);
+
+        if (savedInstanceState != null) {
+            exportJobId = savedInstanceState.getString(STATE_EXPORT_JOB);
+            if (exportJobId != null) {
+                showCreating();
+                if (!ExportQueue.shared(this).observe(exportJobId, exportListener)) {
+                    // Finished and reported while nobody was watching.
+                    exportJobId = null;
+                    progressBar.setVisibility(View.GONE);
+                }
+            }
+        }
     }
 
     private void openImagePicker() {
@@ -95,11 +118,13 @@ public class ImageToPdfActivity extends AppCompatActivity {
             ClipData clipData = data.getClipData();
             for (int i = 0; i < clipData.getItemCount(); i++) {
                 Uri uri = clipData.getItemAt(i).getUri();
+                keepReadPermission(uri);
                 selectedImages.add(uri);
                 addImagePreview(uri);
             }
         } else if (data.getData() != null) {
             Uri uri = data.getData();
+            keepReadPermission(uri);
             selectedImages.add(uri);
             addImagePreview(uri);
         }
@@ -109,6 +134,13 @@ public class ImageToPdfActivity extends AppCompatActivity {
         btnCreatePdf.setEnabled(!selectedImages.isEmpty());
     }
 
+    // Kept past this process, so a conversion interrupted by process death can restart.
+    private void keepReadPermission(Uri uri) {
+        try {
+            getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException ignored) {}
+    }
+
     private void addImagePreview(Uri uri) {
         try {
             InputStream inputStream = getContentResolver().openInputStream(uri);
@@ -145,75 +177,121 @@ public class ImageToPdfActivity extends AppCompatActivity {
             return;
         }
 
+        List<Uri> images = new ArrayList<>(selectedImages);
+        ExportProfileDialog.show(this, "Export quality", "Create PDF", () -> {
+            ExportEstimate estimate = new ExportEstimate();
+            for (Uri uri : images) {
+                estimate.addImage(this, uri);
+            }
+            return estimate;
+        }, profile -> startConversion(images, profile));
+    }
+
+    private void startConversion(List<Uri> images, ExportProfile profile) {
+        // Save PDF using FileManager – routes to Converted/ category folder
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        String fileName = "images_" + timestamp + ".pdf";
+
+        List<String> uris = new ArrayList<>();
+        for (Uri uri : images) uris.add(uri.toString());
+        ImagesJob job = new ImagesJob("Converting " + uris.size() + " images", fileName, uris);
+        job.profile = profile;
+        // Runs in ExportQueue, so it carries on if this screen is rotated or left.
+        exportJobId = ExportQueue.shared(this).enqueue(job);
+        ExportQueue.shared(this).observe(exportJobId, exportListener);
+        showCreating();
+    }
+
+    private void showCreating() {
         progressBar.setVisibility(View.VISIBLE);
         btnCreatePdf.setEnabled(false);
         statusText.setText("Creating PDF...");
+    }
 
-        new Thread(() -> {
-            try {
-                PdfDocument document = new PdfDocument();
-
-                for (int i = 0; i < selectedImages.size(); i++) {
-                    Uri uri = selectedImages.get(i);
-                    InputStream inputStream = getContentResolver().openInputStream(uri);
-                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                    inputStream.close();
-
-                    if (bitmap != null) {
-                        // Create page with image dimensions
-                        PdfDocument.PageInfo pageInfo = new PdfDocument.PageInfo.Builder(
-                                bitmap.getWidth(), bitmap.getHeight(), i + 1).create();
-                        PdfDocument.Page page = document.startPage(pageInfo);
-                        Canvas canvas = page.getCanvas();
-                        canvas.drawBitmap(bitmap, 0, 0, null);
-                        document.finishPage(page);
-                        bitmap.recycle();
-                    }
-                }
+    private final ExportQueue.Listener exportListener = new ExportQueue.Listener() {
+        @Override
+        public void onProgress(int done, int total) {
+            statusText.setText("Creating PDF... page " + done + " of " + total);
+        }
 
-                // Save PDF using FileManager – routes to Converted/ category folder
-                String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-                String fileName = "images_" + timestamp + ".pdf";
+        @Override
+        public void onFinished(String path) {
+            exportJobId = null;
+            progressBar.setVisibility(View.GONE);
+            btnCreatePdf.setEnabled(true);
+            statusText.setText("PDF created successfully!");
+            Toast.makeText(ImageToPdfActivity.this, "PDF saved successfully", Toast.LENGTH_SHORT).show();
+        }
 
-                FileManager fileManager = new FileManager(this);
-                File outputFile = fileManager.getPdfFile(fileName, FileManager.CATEGORY_CONVERTED);
+        @Override
+        public void onFailed(Exception e) {
+            exportJobId = null;
+            progressBar.setVisibility(View.GONE);
+            btnCreatePdf.setEnabled(!selectedImages.isEmpty());
+            if (e instanceof CancellationException) {
+                statusText.setText("Cancelled");
+            } else {
+                statusText.setText("Error creating PDF");
+                Toast.makeText(ImageToPdfActivity.this, R.string.error_occurred, Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
 
-                FileOutputStream fos = new FileOutputStream(outputFile);
-                document.writeTo(fos);
-                document.close();
-                fos.close();
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_EXPORT_JOB, exportJobId);
+    }
 
-                // Read the saved file as bytes for MediaStore saving
-                byte[] pdfBytes = new byte[(int) outputFile.length()];
-                try (java.io.FileInputStream fis = new java.io.FileInputStream(outputFile)) {
-                    fis.read(pdfBytes);
-                }
+    @Override
+    protected void onDestroy() {
+        ExportQueue.shared(this).removeListener(exportListener);
+        super.onDestroy();
+    }
 
-                // Save using MediaStore for proper system integration
-                String savedPath = fileManager.savePdf(pdfBytes, fileName, FileManager.CATEGORY_CONVERTED);
+    /**
+     * Writes one page per image, each the size of its image. Its inputs are URIs, so it's
+     * restarted if the process dies part way.
+     */
+    static final class ImagesJob extends ExportJob {
+        static final String KIND = "images";
 
-                // Delete temporary file if MediaStore save succeeded
-                if (savedPath != null && outputFile.exists()) {
-                    outputFile.delete();
-                }
+        private final List<String> uris;
 
-                final String finalPath = savedPath != null ? savedPath : outputFile.getAbsolutePath();
-                runOnUiThread(() -> {
-                    progressBar.setVisibility(View.GONE);
-                    btnCreatePdf.setEnabled(true);
-                    statusText.setText("PDF created successfully!");
-                    Toast.makeText(this, "PDF saved successfully", Toast.LENGTH_SHORT).show();
-                });
+        ImagesJob(String title, String fileName, List<String> uris) {
+            super(title, fileName, FileManager.CATEGORY_CONVERTED);
+            this.uris = uris;
+        }
 
-            } catch (Exception e) {
-                runOnUiThread(() -> {
-                    progressBar.setVisibility(View.GONE);
-                    btnCreatePdf.setEnabled(true);
-                    statusText.setText("Error creating PDF");
-                    Toast.makeText(this, R.string.error_occurred, Toast.LENGTH_SHORT).show();
-                });
-                e.printStackTrace();
+        static ImagesJob fromSpec(String title, String fileName, JSONObject spec) throws JSONException {
+            JSONArray array = spec.getJSONArray("uris");
+            List<String> uris = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) uris.add(array.getString(i));
+            return new ImagesJob(title, fileName, uris);
+        }
+
+        @Override
+        String kind() {
+            return KIND;
+        }
+
+        @Override
+        void writeSpec(JSONObject spec) throws JSONException {
+            spec.put("uris", new JSONArray(uris));
+        }
+
+        @Override
+        void write(Context context, File destination, Progress progress) throws IOException {
+            try (PdfMergeWriter writer = new PdfMergeWriter(destination)) {
+                for (int i = 0; i < uris.size(); i++) {
+                    try (InputStream in = context.getContentResolver().openInputStream(Uri.parse(uris.get(i)));
+                         PDDocument page = ImagePageFactory.create(in, profile)) {
+                        if (page != null) writer.append(page);
+                    }
+                    progress.update(i + 1, uris.size());
+                }
+                writer.finish();
             }
-        }).start();
+        }
     }
 }
@@ -0,0 +1,183 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSBase;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSObject;
+import com.tom_roush.pdfbox.io.RandomAccessRead;
+import com.tom_roush.pdfbox.pdfwriter.COSWriter;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Saves edits to a PDF as an incremental update: the original bytes are left as they are and
+ * only the changed objects, a new xref section and a trailer pointing back at the previous one
+ * are appended. Signing a 150 MB document appends a few kilobytes instead of rewriting it, and
+ * the same file can take any number of successive updates -- each one simply appends again.
+ *
+ * Edits mark what they changed with {@link #markPageUpdated}; PdfBox's incremental writer only
+ * writes objects flagged as updated (plus new ones), reached from the trailer through flagged
+ * objects, so an unflagged change would silently be dropped.
+ *
+ * Encrypted documents (typically restricted ones, opened with the empty user password) are
+ * updated the same way: the incremental writer keeps the original /Encrypt dictionary and
+ * encrypts the appended objects with the security handler the document was opened with, so the
+ * restrictions stay as they were.
+ */
+final class IncrementalPdfWriter {
+
+    private static final String TAG = "IncrementalPdfWriter";
+
+    /** Changes a document in memory; runs before the update is written. */
+    interface Edit {
+        void apply(PDDocument document) throws IOException;
+    }
+
+    private IncrementalPdfWriter() {}
+
+    /**
+     * Copies the document at {@code sourcePath} (file path or URI) to {@code destination} and
+     * appends {@code edit} to the copy as an incremental update. The copy is made with a
+     * channel transfer, straight from source to destination, without passing through the heap.
+     */
+    static void copyAndUpdate(Context context, String sourcePath, File destination, Edit edit)
+            throws IOException {
+        DocumentSource.Opened opened = DocumentSource.open(context, sourcePath);
+        try (FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(opened.pfd);
+             RandomAccessFile out = new RandomAccessFile(destination, "rw")) {
+            FileChannel source = in.getChannel();
+            FileChannel target = out.getChannel();
+            target.truncate(0);
+            long size = source.size();
+            long copied = 0;
+            while (copied < size) {
+                copied += source.transferTo(copied, size - copied, target);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!destination.delete()) {
+                Log.w(TAG, "Could not delete partial copy " + destination);
+            }
+            throw e;
+        }
+        try {
+            update(context, destination, edit);
+        } catch (IOException | RuntimeException e) {
+            if (!destination.delete()) {
+                Log.w(TAG, "Could not delete " + destination);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Appends {@code edit} to {@code file} in place as an incremental update. If writing fails
+     * the file is truncated back to its previous length, so it's never left half-updated.
+     */
+    static void update(Context context, File file, Edit edit) throws IOException {
+        long originalLength = file.length();
+        ByteArrayOutputStream increment = new ByteArrayOutputStream();
+        ParcelFileDescriptor pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        try (PDDocument document = PdfBoxRenderer.openDocument(context, pfd)) {
+            edit.apply(document);
+            // The writer copies its "original" input ahead of the update; it's handed a source
+            // that only reports the length (for xref offsets), so just the update is produced.
+            try (COSWriter writer = new COSWriter(increment, new LengthOnlyRead(originalLength))) {
+                writer.write(document);
+            }
+        }
+
+        // Written only once the document is closed, so PdfBox never reads from a file that is
+        // growing underneath it.
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = out.getChannel();
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(increment.toByteArray());
+                long position = originalLength;
+                while (bytes.hasRemaining()) {
+                    position += channel.write(bytes, position);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                channel.truncate(originalLength);
+                throw e;
+            }
+        }
+        Log.d(TAG, "Appended " + increment.size() + " bytes to " + file.getName()
+                + " (" + originalLength + " bytes unchanged)");
+    }
+
+    /**
+     * Flags {@code page} and everything on the way to it from the catalog -- the page tree
+     * nodes above it, its content array and its resource dictionaries -- so the incremental
+     * writer includes them.
+     * Call for every page an edit changed, after changing it.
+     */
+    static void markPageUpdated(PDDocument document, PDPage page) {
+        document.getDocumentCatalog().getCOSObject().setNeedToBeUpdated(true);
+        COSDictionary node = page.getCOSObject();
+        while (node != null) {
+            node.setNeedToBeUpdated(true);
+            node = dictionary(node.getDictionaryObject(COSName.PARENT));
+        }
+        // Appending to a page whose /Contents is already an array adds to that array.
+        COSBase contents = page.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+        if (contents instanceof COSArray) {
+            ((COSArray) contents).setNeedToBeUpdated(true);
+        }
+        if (page.getResources() != null) {
+            COSDictionary resources = page.getResources().getCOSObject();
+            resources.setNeedToBeUpdated(true);
+            for (COSName key : resources.keySet()) {
+                COSDictionary category = dictionary(resources.getDictionaryObject(key));
+                if (category != null) {
+                    category.setNeedToBeUpdated(true);
+                }
+            }
+        }
+    }
+
+    private static COSDictionary dictionary(COSBase base) {
+        if (base instanceof COSObject) {
+            base = ((COSObject) base).getObject();
+        }
+        return base instanceof COSDictionary ? (COSDictionary) base : null;
+    }
+
+    /** A RandomAccessRead with a length and no content, see update(). */
+    private static final class LengthOnlyRead implements RandomAccessRead {
+        private final long length;
+
+        LengthOnlyRead(long length) {
+            this.length = length;
+        }
+
+        @Override public int read() { return -1; }
+        @Override public int read(byte[] b) { return -1; }
+        @Override public int read(byte[] b, int offset, int length) { return -1; }
+        @Override public long getPosition() { return length; }
+        @Override public void seek(long position) {}
+        @Override public long length() { return length; }
+        @Override public boolean isClosed() { return false; }
+        @Override public int peek() { return -1; }
+        @Override public void rewind(int bytes) {}
+        @Override public byte[] readFully(int length) throws IOException {
+            throw new IOException("No content");
+        }
+        @Override public boolean isEOF() { return true; }
+        @Override public int available() { return 0; }
+        @Override public void close() {}
+    }
+}
@@ -0,0 +1,227 @@
+package com.pdfreader.app;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idle-time maintenance: walks the reading history and the app's category folders and fills
+ * DocumentMetadataStore and the Glide cover cache ahead of time, so cold library and home
+ * screens bind from caches instead of parsing documents while the user scrolls.
+ *
+ * Two periodic jobs share this service, one requiring the charger and one requiring device
+ * idle -- JobScheduler ANDs constraints, so "charging or idle" takes two jobs. Both also need
+ * the battery not to be low. Documents are indexed one at a time on a background-priority
+ * thread, and a run yields as soon as the system stops the job or a screen opens a document.
+ *
+ * Progress is checkpointed as the set of path|size|mtime keys already indexed, so a large
+ * library is covered across several runs and a changed file is picked up again.
+ */
+public class LibraryIndexJobService extends JobService {
+
+    private static final String TAG = "LibraryIndexJob";
+    private static final String PREFS_NAME = "library_index";
+    private static final String KEY_INDEXED = "indexed";
+
+    private static final int JOB_ID_CHARGING = 0x1d0c01;
+    private static final int JOB_ID_IDLE = 0x1d0c02;
+    private static final long PERIOD_MS = TimeUnit.HOURS.toMillis(12);
+    // Checkpoint every few documents, so a run stopped without warning loses little work.
+    private static final int CHECKPOINT_EVERY = 10;
+
+    private static final String[] CATEGORIES = {
+            FileManager.CATEGORY_SIGNED,
+            FileManager.CATEGORY_MERGED,
+            FileManager.CATEGORY_CONVERTED,
+            FileManager.CATEGORY_SCANNED,
+    };
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "library-index");
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    // The run in progress, if any; both jobs share it rather than indexing twice.
+    private volatile IndexRun currentRun;
+
+    /** Schedules both jobs unless they're already pending. Cheap; call on app start. */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler == null) return;
+        ComponentName service = new ComponentName(context, LibraryIndexJobService.class);
+        if (scheduler.getPendingJob(JOB_ID_CHARGING) == null) {
+            scheduler.schedule(new JobInfo.Builder(JOB_ID_CHARGING, service)
+                    .setRequiresCharging(true)
+                    .setRequiresBatteryNotLow(true)
+                    .setPeriodic(PERIOD_MS)
+                    .setPersisted(true)
+                    .build());
+        }
+        if (scheduler.getPendingJob(JOB_ID_IDLE) == null) {
+            scheduler.schedule(new JobInfo.Builder(JOB_ID_IDLE, service)
+                    .setRequiresDeviceIdle(true)
+                    .setRequiresBatteryNotLow(true)
+                    .setPeriodic(PERIOD_MS)
+                    .setPersisted(true)
+                    .build());
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        IndexRun run = currentRun;
+        if (run != null && !run.stopped) {
+            // The other job is already indexing; nothing for this one to do this period.
+            return false;
+        }
+        run = new IndexRun(params);
+        currentRun = run;
+        executor.execute(run);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        IndexRun run = currentRun;
+        if (run != null && run.params.getJobId() == params.getJobId()) {
+            run.stopped = true;
+        }
+        // Retry with backoff; the checkpoint means the next run resumes where this one stopped.
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        IndexRun run = currentRun;
+        if (run != null) {
+            run.stopped = true;
+        }
+        executor.shutdown();
+        super.onDestroy();
+    }
+
+    private final class IndexRun implements Runnable {
+        final JobParameters params;
+        volatile boolean stopped;
+
+        IndexRun(JobParameters params) {
+            this.params = params;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE);
+            boolean finished = false;
+            try {
+                finished = indexLibrary();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Indexing failed", e);
+            } finally {
+                if (currentRun == this) {
+                    currentRun = null;
+                }
+                // A run that yielded to the reader asks to be rescheduled; one the system stopped
+                // has already been told so by onStopJob(), and must not call jobFinished().
+                if (!stopped) {
+                    jobFinished(params, !finished);
+                }
+            }
+        }
+
+        /** Returns true once every document is indexed, false if the run yielded first. */
+        private boolean indexLibrary() {
+            Context context = getApplicationContext();
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+            Set<String> done = new HashSet<>(prefs.getStringSet(KEY_INDEXED, new HashSet<>()));
+            Set<String> current = new HashSet<>();
+            DocumentMetadataStore metadataStore = DocumentMetadataStore.shared(context);
+            int sinceCheckpoint = 0;
+            int indexed = 0;
+
+            for (String path : collectPaths(context)) {
+                if (shouldYield()) {
+                    saveCheckpoint(prefs, done, null);
+                    Log.d(TAG, "Yielding after " + indexed + " documents");
+                    return false;
+                }
+                DocumentSource.Stamp stamp = DocumentSource.stamp(context, path);
+                String key = path + "|" + stamp.size + "|" + stamp.lastModified;
+                current.add(key);
+                if (done.contains(key)) continue;
+
+                metadataStore.get(path);
+                try {
+                    DocumentCover.preload(context, path, DocumentCover.CARD_WIDTH, DocumentCover.CARD_HEIGHT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    saveCheckpoint(prefs, done, null);
+                    return false;
+                }
+                done.add(key);
+                indexed++;
+                if (++sinceCheckpoint >= CHECKPOINT_EVERY) {
+                    saveCheckpoint(prefs, done, null);
+                    sinceCheckpoint = 0;
+                }
+            }
+            // A full pass: drop keys for files that were removed or have changed since.
+            saveCheckpoint(prefs, done, current);
+            Log.d(TAG, "Library indexed, " + indexed + " new documents");
+            return true;
+        }
+
+        private boolean shouldYield() {
+            if (stopped || Thread.currentThread().isInterrupted()) return true;
+            // A document on screen means the reader is rendering; don't compete with it.
+            RendererRegistry renderers = RendererRegistry.peekShared();
+            return renderers != null && renderers.isInUse();
+        }
+    }
+
+    /** History first, since those are the cards the home and library screens show first. */
+    private static List<String> collectPaths(Context context) {
+        Set<String> paths = new LinkedHashSet<>();
+        for (PdfBook book : new HistoryManager(context).getHistory()) {
+            if (book.getFilePath() != null) {
+                paths.add(book.getFilePath());
+            }
+        }
+        FileManager fileManager = new FileManager(context);
+        for (String category : CATEGORIES) {
+            String folderPath = fileManager.getCategoryFolderPath(category);
+            File[] files = folderPath != null ? new File(folderPath).listFiles() : null;
+            if (files == null) continue;
+            for (File file : files) {
+                String name = file.getName().toLowerCase();
+                if (file.isFile() && (name.endsWith(".pdf") || name.endsWith(".epub"))) {
+                    paths.add(file.getAbsolutePath());
+                }
+            }
+        }
+        return new ArrayList<>(paths);
+    }
+
+    private static void saveCheckpoint(SharedPreferences prefs, Set<String> done, Set<String> keep) {
+        Set<String> toSave = new HashSet<>(done);
+        if (keep != null) {
+            toSave.retainAll(keep);
+        }
+        prefs.edit().putStringSet(KEY_INDEXED, toSave).apply();
+    }
+}
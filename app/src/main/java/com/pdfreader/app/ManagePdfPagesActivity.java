@@ -2,13 +2,12 @@ package com.pdfreader.app;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.Paint;
-import android.graphics.pdf.PdfDocument;
+import android.graphics.Color;
+import android.graphics.Matrix;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.ParcelFileDescriptor;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -17,6 +16,8 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
@@ -27,15 +28,16 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.button.MaterialButton;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -43,6 +45,7 @@ public class ManagePdfPagesActivity extends AppCompatActivity {
 
     public static final String EXTRA_PDF_PATH = "pdf_path";
     public static final String EXTRA_PDF_TITLE = "pdf_title";
+    private static final String STATE_EXPORT_JOB = "export_job";
 
     private RecyclerView pagesRecycler;
     private ProgressBar loadingIndicator;
@@ -51,14 +54,18 @@ public class ManagePdfPagesActivity extends AppCompatActivity {
     private MaterialButton btnSave;
 
     private PdfBoxRenderer pdfRenderer;
-    private ParcelFileDescriptor parcelFileDescriptor;
+    private RendererRegistry.Handle rendererHandle;
     private String pdfPath;
     private String pdfTitle;
     private boolean modified = false;
     private int originalPageCount = 0;
 
     private PageAdapter adapter;
-    private final List<Integer> pageOrder = new ArrayList<>();
+    private final List<PageTreeWriter.Slot> pageOrder = new ArrayList<>();
+    // Renderers of the PDFs pages were imported from, by path, for their thumbnails.
+    private final Map<String, RendererRegistry.Handle> importedRenderers = new ConcurrentHashMap<>();
+    private ActivityResultLauncher<Intent> importPicker;
+    private int importAfterPosition = -1;
 
     private final ExecutorService executor = Executors.newFixedThreadPool(2);
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
@@ -83,6 +90,14 @@ public class ManagePdfPagesActivity extends AppCompatActivity {
         findViewById(R.id.btn_back).setOnClickListener(v -> finish());
         btnSave.setOnClickListener(v -> savePdf());
 
+        importPicker = registerForActivityResult(
+                new ActivityResultContracts.StartActivityForResult(), result -> {
+                    if (result.getResultCode() == RESULT_OK && result.getData() != null
+                            && result.getData().getData() != null) {
+                        importPages(result.getData().getData().toString(), importAfterPosition);
+                    }
+                });
+
         pdfPath = getIntent().getStringExtra(EXTRA_PDF_PATH);
         pdfTitle = getIntent().getStringExtra(EXTRA_PDF_TITLE);
         if (pdfPath == null) {
@@ -93,30 +108,30 @@ public class ManagePdfPagesActivity extends AppCompatActivity {
         updateSubtitle(0);
         updateChangesHint();
         loadPdf();
+
+        if (savedInstanceState != null) {
+            exportJobId = savedInstanceState.getString(STATE_EXPORT_JOB);
+            if (exportJobId != null) {
+                showSaving();
+                if (!ExportQueue.shared(this).observe(exportJobId, exportListener)) {
+                    // Finished and reported while nobody was watching.
+                    exportJobId = null;
+                    resetSaveButton();
+                }
+            }
+        }
     }
 
     private void loadPdf() {
         executor.execute(() -> {
             try {
-                File file = new File(pdfPath);
-                if (!file.exists() && pdfPath.startsWith("content://")) {
-                    // Copy content URI into cache for PdfBoxRenderer
-                    File cache = new File(getCacheDir(), "manage_temp.pdf");
-                    try (java.io.InputStream in = getContentResolver().openInputStream(Uri.parse(pdfPath));
-                         FileOutputStream out = new FileOutputStream(cache)) {
-                        if (in == null) throw new IllegalStateException("Cannot open document");
-                        byte[] buf = new byte[8192];
-                        int len;
-                        while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
-                    }
-                    file = cache;
-                }
-                parcelFileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
-                pdfRenderer = new PdfBoxRenderer(this, parcelFileDescriptor);
+                // Usually already open in the reader that launched us, so this is shared
+                rendererHandle = RendererRegistry.shared(this).acquire(pdfPath);
+                pdfRenderer = rendererHandle.getRenderer();
                 int count = pdfRenderer.getPageCount();
                 originalPageCount = count;
                 pageOrder.clear();
-                for (int i = 0; i < count; i++) pageOrder.add(i);
+                for (int i = 0; i < count; i++) pageOrder.add(PageTreeWriter.Slot.original(i));
 
                 mainHandler.post(() -> {
                     updateSubtitle(count);
@@ -198,6 +213,94 @@ public class ManagePdfPagesActivity extends AppCompatActivity {
                 .show();
     }
 
+    void showPageActions(int adapterPosition) {
+        String[] actions = {"Rotate right", "Insert blank page after", "Insert pages from a PDF after"};
+        new AlertDialog.Builder(this)
+                .setTitle("Page " + (adapterPosition + 1))
+                .setItems(actions, (d, which) -> {
+                    if (which == 0) {
+                        rotatePage(adapterPosition);
+                    } else if (which == 1) {
+                        insertBlankPage(adapterPosition);
+                    } else {
+                        importAfterPosition = adapterPosition;
+                        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                        intent.setType("application/pdf");
+                        intent.addCategory(Intent.CATEGORY_OPENABLE);
+                        importPicker.launch(intent);
+                    }
+                })
+                .show();
+    }
+
+    private void rotatePage(int adapterPosition) {
+        PageTreeWriter.Slot slot = pageOrder.get(adapterPosition);
+        slot.rotation = (slot.rotation + 90) % 360;
+        adapter.notifyItemChanged(adapterPosition);
+        markModified();
+    }
+
+    private void insertBlankPage(int adapterPosition) {
+        // Sized like the page it follows, as that page currently appears
+        PageTreeWriter.Slot neighbour = pageOrder.get(adapterPosition);
+        float[] size = pageSize(neighbour);
+        boolean sideways = neighbour.rotation % 180 != 0;
+        pageOrder.add(adapterPosition + 1, PageTreeWriter.Slot.blank(
+                sideways ? size[1] : size[0], sideways ? size[0] : size[1]));
+        adapter.notifyItemInserted(adapterPosition + 1);
+        adapter.notifyItemRangeChanged(adapterPosition + 1, pageOrder.size() - adapterPosition - 1);
+        updateSubtitle(pageOrder.size());
+        markModified();
+    }
+
+    private void importPages(String path, int afterPosition) {
+        executor.execute(() -> {
+            try {
+                RendererRegistry.Handle handle = importedRenderers.get(path);
+                if (handle == null) {
+                    handle = RendererRegistry.shared(this).acquire(path);
+                    importedRenderers.put(path, handle);
+                }
+                int count = handle.getRenderer().getPageCount();
+                mainHandler.post(() -> {
+                    int insertAt = Math.min(afterPosition + 1, pageOrder.size());
+                    List<PageTreeWriter.Slot> imported = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        imported.add(PageTreeWriter.Slot.imported(path, i));
+                    }
+                    pageOrder.addAll(insertAt, imported);
+                    adapter.notifyItemRangeInserted(insertAt, count);
+                    adapter.notifyItemRangeChanged(insertAt, pageOrder.size() - insertAt);
+                    updateSubtitle(pageOrder.size());
+                    markModified();
+                });
+            } catch (Exception e) {
+                mainHandler.post(() ->
+                        Toast.makeText(this, "Could not open PDF", Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    /** Page size in points as rendered (before the slot's own rotation). */
+    private float[] pageSize(PageTreeWriter.Slot slot) {
+        if (slot.isBlank()) {
+            return new float[] {slot.blankWidth, slot.blankHeight};
+        }
+        PdfBoxRenderer renderer = rendererFor(slot);
+        if (renderer == null) {
+            return new float[] {612, 792};
+        }
+        return new float[] {
+                renderer.getPageWidthPoints(slot.sourceIndex),
+                renderer.getPageHeightPoints(slot.sourceIndex)};
+    }
+
+    private PdfBoxRenderer rendererFor(PageTreeWriter.Slot slot) {
+        if (slot.sourcePath == null) return pdfRenderer;
+        RendererRegistry.Handle handle = importedRenderers.get(slot.sourcePath);
+        return handle != null ? handle.getRenderer() : null;
+    }
+
     private void markModified() {
         modified = true;
         btnSave.setEnabled(true);
@@ -216,84 +319,79 @@ public class ManagePdfPagesActivity extends AppCompatActivity {
     private void updateChangesHint() {
         if (changesHint == null) return;
         if (!modified) {
-            changesHint.setText("No changes yet");
+            changesHint.setText("No changes yet · Tap a page for more options");
             return;
         }
         int removed = Math.max(0, originalPageCount - pageOrder.size());
+        int added = Math.max(0, pageOrder.size() - originalPageCount);
         if (removed > 0) {
             changesHint.setText(removed + (removed == 1 ? " page removed" : " pages removed")
                     + " · Ready to save");
+        } else if (added > 0) {
+            changesHint.setText(added + (added == 1 ? " page added" : " pages added")
+                    + " · Ready to save");
         } else {
-            changesHint.setText("Pages reordered · Ready to save");
+            changesHint.setText("Pages rearranged · Ready to save");
         }
     }
 
     private void savePdf() {
         if (pdfRenderer == null) return;
+
+        // Snapshot: the list may change on screen while the save runs.
+        List<PageTreeWriter.Slot> slots = new ArrayList<>(pageOrder.size());
+        for (PageTreeWriter.Slot slot : pageOrder) slots.add(slot.copy());
+        String fileName = "pages_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".pdf";
+        String source = pdfPath;
+        // Rearranges the page tree; page content is carried over as it is, not rendered. Runs
+        // in ExportQueue, so it carries on if this screen is rotated or left.
+        exportJobId = ExportQueue.shared(this).enqueue(ExportJob.of("Saving " + fileName, fileName,
+                FileManager.CATEGORY_SIGNED,
+                (context, destination, progress) -> PageTreeWriter.write(context, source, slots,
+                        destination, progress)));
+        ExportQueue.shared(this).observe(exportJobId, exportListener);
+        showSaving();
+    }
+
+    private void showSaving() {
         btnSave.setEnabled(false);
         btnSave.setText("Saving…");
         btnSave.setIconResource(0);
+    }
 
-        executor.execute(() -> {
-            try {
-                int screenWidth = getResources().getDisplayMetrics().widthPixels - 64;
-                PdfDocument doc = new PdfDocument();
-
-                for (int docPageNum = 0; docPageNum < pageOrder.size(); docPageNum++) {
-                    int originalIndex = pageOrder.get(docPageNum);
-                    float pageWidthPts = pdfRenderer.getPageWidthPoints(originalIndex);
-                    float pageHeightPts = pdfRenderer.getPageHeightPoints(originalIndex);
-                    float scale = screenWidth / pageWidthPts;
-                    int w = screenWidth;
-                    int h = Math.round(pageHeightPts * scale);
-                    Bitmap bmp = pdfRenderer.renderPage(originalIndex, scale);
-
-                    PdfDocument.PageInfo info = new PdfDocument.PageInfo.Builder(w, h, docPageNum + 1).create();
-                    PdfDocument.Page docPage = doc.startPage(info);
-                    docPage.getCanvas().drawBitmap(bmp, 0, 0, new Paint());
-                    doc.finishPage(docPage);
-                    bmp.recycle();
-                }
+    private void resetSaveButton() {
+        btnSave.setEnabled(true);
+        btnSave.setText("Save Pages");
+        btnSave.setIconResource(R.drawable.ic_save);
+    }
 
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                doc.writeTo(baos);
-                doc.close();
-                byte[] bytes = baos.toByteArray();
-
-                String fileName = "pages_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".pdf";
-                FileManager fm = new FileManager(this);
-                String savedPath = fm.savePdf(bytes, fileName, FileManager.CATEGORY_SIGNED);
-                if (savedPath == null) {
-                    File fallback = new File(getFilesDir(), fileName);
-                    try (FileOutputStream fos = new FileOutputStream(fallback)) {
-                        fos.write(bytes);
-                    }
-                    savedPath = fallback.getAbsolutePath();
-                }
-                final String finalPath = savedPath;
+    private final ExportQueue.Listener exportListener = new ExportQueue.Listener() {
+        @Override
+        public void onProgress(int done, int total) {
+            btnSave.setText("Saving… " + done + "/" + total);
+        }
 
-                mainHandler.post(() -> {
-                    btnSave.setEnabled(true);
-                    btnSave.setText("Save Pages");
-                    btnSave.setIconResource(R.drawable.ic_save);
-                    new AlertDialog.Builder(this)
-                            .setTitle("Pages saved")
-                            .setMessage("PDF saved with " + pageOrder.size()
-                                    + (pageOrder.size() == 1 ? " page" : " pages") + ". Share it?")
-                            .setPositiveButton("Share", (d, w) -> sharePdf(finalPath))
-                            .setNegativeButton("Done", null)
-                            .show();
-                });
-            } catch (Exception e) {
-                mainHandler.post(() -> {
-                    btnSave.setEnabled(true);
-                    btnSave.setText("Save Pages");
-                    btnSave.setIconResource(R.drawable.ic_save);
-                    Toast.makeText(this, "Save failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                });
+        @Override
+        public void onFinished(String path) {
+            exportJobId = null;
+            resetSaveButton();
+            new AlertDialog.Builder(ManagePdfPagesActivity.this)
+                    .setTitle("Pages saved")
+                    .setMessage("PDF saved. Share it?")
+                    .setPositiveButton("Share", (d, w) -> sharePdf(path))
+                    .setNegativeButton("Done", null)
+                    .show();
+        }
+
+        @Override
+        public void onFailed(Exception e) {
+            exportJobId = null;
+            resetSaveButton();
+            if (!(e instanceof CancellationException)) {
+                Toast.makeText(ManagePdfPagesActivity.this, "Save failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
             }
-        });
-    }
+        }
+    };
 
     private void sharePdf(String path) {
         try {
@@ -308,23 +406,32 @@ public class ManagePdfPagesActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_EXPORT_JOB, exportJobId);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // The save itself carries on; a recreated screen picks it up again.
+        ExportQueue.shared(this).removeListener(exportListener);
         executor.shutdown();
-        try {
-            if (pdfRenderer != null) pdfRenderer.close();
-            if (parcelFileDescriptor != null) parcelFileDescriptor.close();
-        } catch (Exception ignored) {}
+        if (rendererHandle != null) rendererHandle.close();
+        for (RendererRegistry.Handle handle : importedRenderers.values()) {
+            handle.close();
+        }
+        importedRenderers.clear();
     }
 
     // ── Adapter ───────────────────────────────────────────────────────────────
 
     class PageAdapter extends RecyclerView.Adapter<PageAdapter.VH> {
 
-        private final List<Integer> order;
+        private final List<PageTreeWriter.Slot> order;
 
-        PageAdapter(List<Integer> order) {
+        PageAdapter(List<PageTreeWriter.Slot> order) {
             this.order = order;
         }
 
@@ -362,15 +469,19 @@ public class ManagePdfPagesActivity extends AppCompatActivity {
                     int pos = getBindingAdapterPosition();
                     if (pos != RecyclerView.NO_POSITION) deletePage(pos);
                 });
+                v.setOnClickListener(vv -> {
+                    int pos = getBindingAdapterPosition();
+                    if (pos != RecyclerView.NO_POSITION) showPageActions(pos);
+                });
             }
 
-            void bind(int originalIndex, int displayPosition) {
+            void bind(PageTreeWriter.Slot slot, int displayPosition) {
                 pageNum.setText(String.format(Locale.US, "PAGE %d", displayPosition + 1));
                 progress.setVisibility(View.VISIBLE);
                 thumbnail.setImageBitmap(null);
 
                 executor.execute(() -> {
-                    Bitmap bmp = renderThumbnail(originalIndex);
+                    Bitmap bmp = renderThumbnail(slot);
                     mainHandler.post(() -> {
                         if (getBindingAdapterPosition() == displayPosition) {
                             thumbnail.setImageBitmap(bmp);
@@ -382,12 +493,28 @@ public class ManagePdfPagesActivity extends AppCompatActivity {
                 });
             }
 
-            private Bitmap renderThumbnail(int index) {
-                if (pdfRenderer == null) return null;
+            private Bitmap renderThumbnail(PageTreeWriter.Slot slot) {
                 try {
                     int thumbW = 400;
-                    float scale = thumbW / pdfRenderer.getPageWidthPoints(index);
-                    return pdfRenderer.renderPage(index, scale);
+                    Bitmap bmp;
+                    if (slot.isBlank()) {
+                        int thumbH = Math.max(1, Math.round(thumbW * slot.blankHeight / slot.blankWidth));
+                        bmp = Bitmap.createBitmap(thumbW, thumbH, Bitmap.Config.ARGB_8888);
+                        bmp.eraseColor(Color.WHITE);
+                    } else {
+                        PdfBoxRenderer renderer = rendererFor(slot);
+                        if (renderer == null) return null;
+                        float scale = thumbW / renderer.getPageWidthPoints(slot.sourceIndex);
+                        bmp = renderer.renderPage(slot.sourceIndex, scale);
+                    }
+                    if (slot.rotation != 0) {
+                        Matrix matrix = new Matrix();
+                        matrix.postRotate(slot.rotation);
+                        Bitmap rotated = Bitmap.createBitmap(bmp, 0, 0, bmp.getWidth(), bmp.getHeight(), matrix, true);
+                        if (rotated != bmp) bmp.recycle();
+                        bmp = rotated;
+                    }
+                    return bmp;
                 } catch (Exception e) {
                     return null;
                 }
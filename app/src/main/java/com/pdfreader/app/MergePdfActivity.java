@@ -1,15 +1,10 @@
 package com.pdfreader.app;
 
 import android.content.ClipData;
+import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.pdf.PdfDocument;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.ParcelFileDescriptor;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -26,9 +21,13 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.button.MaterialButton;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
@@ -36,9 +35,12 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
 
 public class MergePdfActivity extends AppCompatActivity {
 
+    private static final String STATE_EXPORT_JOB = "export_job";
+
     private RecyclerView recyclerView;
     private MaterialButton btnSelectFiles;
     private MaterialButton btnMerge;
@@ -52,6 +54,8 @@ public class MergePdfActivity extends AppCompatActivity {
     private FileListAdapter adapter;
 
     private ActivityResultLauncher<Intent> filePickerLauncher;
+    // The merge running in ExportQueue, if any.
+    private String exportJobId;
 
     static class FileEntry {
         Uri uri;
@@ -108,6 +112,19 @@ public class MergePdfActivity extends AppCompatActivity {
         });
 
         btnMerge.setOnClickListener(v -> mergeFiles());
+
+        if (savedInstanceState != null) {
+            exportJobId = savedInstanceState.getString(STATE_EXPORT_JOB);
+            if (exportJobId != null) {
+                showMerging();
+                if (!ExportQueue.shared(this).observe(exportJobId, exportListener)) {
+                    // Finished and reported while nobody was watching.
+                    exportJobId = null;
+                    progressBar.setVisibility(View.GONE);
+                    updateListVisibility();
+                }
+            }
+        }
     }
 
     private void addFiles(Intent data) {
@@ -120,6 +137,10 @@ public class MergePdfActivity extends AppCompatActivity {
         }
 
         for (Uri uri : uris) {
+            try {
+                // Kept past this process, so a merge interrupted by process death can restart.
+                getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            } catch (SecurityException ignored) {}
             String name = getDisplayName(uri);
             String mime = getContentResolver().getType(uri);
             boolean isPdf = "application/pdf".equals(mime);
@@ -183,134 +204,181 @@ public class MergePdfActivity extends AppCompatActivity {
                     String entered = input.getText().toString().trim();
                     String ts = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
                     String baseName = entered.isEmpty() ? "merged_" + ts : entered;
-                    startMerge(baseName);
+                    chooseProfile(baseName);
                 })
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
-    private void startMerge(String baseName) {
+    private void chooseProfile(String baseName) {
+        List<FileEntry> inputs = new ArrayList<>(selectedFiles);
+        ExportProfileDialog.show(this, "Export quality", "Merge", () -> {
+            ExportEstimate estimate = new ExportEstimate();
+            for (FileEntry entry : inputs) {
+                if (entry.isPdf) {
+                    estimate.addCopied(this, entry.uri);
+                } else {
+                    estimate.addImage(this, entry.uri);
+                }
+            }
+            return estimate;
+        }, profile -> startMerge(baseName, inputs, profile));
+    }
+
+    private void startMerge(String baseName, List<FileEntry> inputs, ExportProfile profile) {
+        String fileName = baseName.endsWith(".pdf") ? baseName : baseName + ".pdf";
+        MergeJob job = new MergeJob("Merging " + inputs.size() + " files", fileName, inputs);
+        job.profile = profile;
+        // Register in the library so it appears on the home/library screen
+        job.historyName = baseName;
+        // Runs in ExportQueue, so it carries on if this screen is rotated or left.
+        exportJobId = ExportQueue.shared(this).enqueue(job);
+        ExportQueue.shared(this).observe(exportJobId, exportListener);
+        showMerging();
+    }
+
+    private void showMerging() {
         progressBar.setVisibility(View.VISIBLE);
         btnMerge.setEnabled(false);
         statusText.setText("Merging…");
+    }
 
-        new Thread(() -> {
-            try {
-                PdfDocument merged = new PdfDocument();
-                int pageNum = 1;
+    private final ExportQueue.Listener exportListener = new ExportQueue.Listener() {
+        @Override
+        public void onProgress(int done, int total) {
+            statusText.setText("Merging file " + Math.min(done + 1, total) + " of " + total + "…");
+        }
 
-                for (FileEntry entry : selectedFiles) {
-                    if (entry.isPdf) {
-                        pageNum = appendPdf(merged, entry.uri, pageNum);
-                    } else {
-                        pageNum = appendImage(merged, entry.uri, pageNum);
-                    }
-                }
+        @Override
+        public void onFinished(String path) {
+            exportJobId = null;
+            progressBar.setVisibility(View.GONE);
+            selectedFiles.clear();
+            adapter.notifyDataSetChanged();
+            updateListVisibility();
+
+            // Offer to share the result immediately
+            new androidx.appcompat.app.AlertDialog.Builder(MergePdfActivity.this)
+                    .setTitle("Merge Complete")
+                    .setMessage("Saved to your device. Share it now?")
+                    .setPositiveButton("Share", (d, w) -> sharePdf(path))
+                    .setNegativeButton("Done", null)
+                    .show();
+        }
 
-                String fileName = baseName.endsWith(".pdf") ? baseName : baseName + ".pdf";
+        @Override
+        public void onFailed(Exception e) {
+            exportJobId = null;
+            progressBar.setVisibility(View.GONE);
+            updateListVisibility();
+            if (!(e instanceof CancellationException)) {
+                statusText.setText("Merge failed: " + e.getMessage());
+            }
+        }
+    };
+
+    private void sharePdf(String path) {
+        try {
+            File f = new File(path);
+            android.net.Uri uri = androidx.core.content.FileProvider.getUriForFile(
+                    this, getPackageName() + ".provider", f);
+            Intent share = new Intent(Intent.ACTION_SEND);
+            share.setType("application/pdf");
+            share.putExtra(Intent.EXTRA_STREAM, uri);
+            share.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            startActivity(Intent.createChooser(share, "Share merged PDF"));
+        } catch (Exception ex) {
+            Toast.makeText(this, "Share failed", Toast.LENGTH_SHORT).show();
+        }
+    }
 
-                java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-                merged.writeTo(baos);
-                merged.close();
-                byte[] bytes = baos.toByteArray();
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_EXPORT_JOB, exportJobId);
+    }
 
-                FileManager fm = new FileManager(this);
-                String saved = fm.savePdf(bytes, fileName, FileManager.CATEGORY_MERGED);
-                if (saved == null) throw new IOException("Failed to save merged PDF");
+    @Override
+    protected void onDestroy() {
+        // The merge itself carries on; a recreated screen picks it up again.
+        ExportQueue.shared(this).removeListener(exportListener);
+        super.onDestroy();
+    }
 
-                // Register in the library so it appears on the home/library screen
-                new HistoryManager(this).addToHistory(baseName, saved);
+    /**
+     * Merges the selected files into one PDF. Pages are copied as PDF objects and written to
+     * the output as each input is read, so the merge is lossless and memory doesn't grow with
+     * the inputs. Its inputs are URIs, so it's restarted if the process dies mid-merge.
+     */
+    static final class MergeJob extends ExportJob {
+        static final String KIND = "merge";
 
-                final String finalSaved = saved;
-                runOnUiThread(() -> {
-                    progressBar.setVisibility(View.GONE);
-                    selectedFiles.clear();
-                    adapter.notifyDataSetChanged();
-                    updateListVisibility();
+        private final List<FileEntry> inputs;
 
-                    // Offer to share the result immediately
-                    new androidx.appcompat.app.AlertDialog.Builder(this)
-                            .setTitle("Merge Complete")
-                            .setMessage("Saved to your device. Share it now?")
-                            .setPositiveButton("Share", (d, w) -> {
-                                try {
-                                    File f = new File(finalSaved);
-                                    android.net.Uri uri = androidx.core.content.FileProvider.getUriForFile(
-                                            this, getPackageName() + ".provider", f);
-                                    Intent share = new Intent(Intent.ACTION_SEND);
-                                    share.setType("application/pdf");
-                                    share.putExtra(Intent.EXTRA_STREAM, uri);
-                                    share.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                                    startActivity(Intent.createChooser(share, "Share merged PDF"));
-                                } catch (Exception ex) {
-                                    Toast.makeText(this, "Share failed", Toast.LENGTH_SHORT).show();
-                                }
-                            })
-                            .setNegativeButton("Done", null)
-                            .show();
-                });
+        MergeJob(String title, String fileName, List<FileEntry> inputs) {
+            super(title, fileName, FileManager.CATEGORY_MERGED);
+            this.inputs = inputs;
+        }
 
-            } catch (Exception e) {
-                runOnUiThread(() -> {
-                    progressBar.setVisibility(View.GONE);
-                    btnMerge.setEnabled(selectedFiles.size() >= 2);
-                    statusText.setText("Merge failed: " + e.getMessage());
-                });
-                e.printStackTrace();
+        static MergeJob fromSpec(String title, String fileName, JSONObject spec) throws JSONException {
+            JSONArray array = spec.getJSONArray("inputs");
+            List<FileEntry> inputs = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject input = array.getJSONObject(i);
+                inputs.add(new FileEntry(Uri.parse(input.getString("uri")),
+                        input.optString("name"), input.getBoolean("pdf")));
             }
-        }).start();
-    }
+            return new MergeJob(title, fileName, inputs);
+        }
 
-    private int appendPdf(PdfDocument merged, Uri uri, int pageNum) throws Exception {
-        File cache = new File(getCacheDir(), "merge_pdf_" + pageNum + ".pdf");
-        try (InputStream in = getContentResolver().openInputStream(uri);
-             FileOutputStream out = new FileOutputStream(cache)) {
-            byte[] buf = new byte[8192]; int len;
-            while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
+        @Override
+        String kind() {
+            return KIND;
         }
-        try (ParcelFileDescriptor pfd = ParcelFileDescriptor.open(cache, ParcelFileDescriptor.MODE_READ_ONLY);
-             PdfBoxRenderer renderer = new PdfBoxRenderer(this, pfd)) {
-            for (int i = 0; i < renderer.getPageCount(); i++) {
-                // scale 1.0 renders at native point resolution, matching prior behavior
-                Bitmap bmp = renderer.renderPage(i, 1f);
-
-                PdfDocument.PageInfo info = new PdfDocument.PageInfo.Builder(bmp.getWidth(), bmp.getHeight(), pageNum++).create();
-                PdfDocument.Page p = merged.startPage(info);
-                p.getCanvas().drawBitmap(bmp, 0, 0, null);
-                merged.finishPage(p);
-                bmp.recycle();
+
+        @Override
+        void writeSpec(JSONObject spec) throws JSONException {
+            JSONArray array = new JSONArray();
+            for (FileEntry entry : inputs) {
+                array.put(new JSONObject()
+                        .put("uri", entry.uri.toString())
+                        .put("name", entry.displayName)
+                        .put("pdf", entry.isPdf));
             }
+            spec.put("inputs", array);
+        }
+
+        @Override
+        void write(Context context, File destination, Progress progress) throws IOException {
+            try (PdfMergeWriter writer = new PdfMergeWriter(destination)) {
+                for (int i = 0; i < inputs.size(); i++) {
+                    progress.update(i, inputs.size());
+                    FileEntry entry = inputs.get(i);
+                    if (entry.isPdf) {
+                        appendPdf(context, writer, entry.uri);
+                    } else {
+                        appendImage(context, writer, entry.uri, profile);
+                    }
+                }
+                writer.finish();
+            }
+            progress.update(inputs.size(), inputs.size());
         }
-        cache.delete();
-        return pageNum;
-    }
 
-    private int appendImage(PdfDocument merged, Uri uri, int pageNum) throws Exception {
-        Bitmap src;
-        try (InputStream in = getContentResolver().openInputStream(uri)) {
-            src = BitmapFactory.decodeStream(in);
+        private static void appendPdf(Context context, PdfMergeWriter writer, Uri uri) throws IOException {
+            DocumentSource.Opened opened = DocumentSource.open(context, uri.toString());
+            try (PDDocument document = PdfBoxRenderer.openDocument(context, opened.pfd)) {
+                writer.append(document);
+            }
         }
-        if (src == null) return pageNum;
-
-        // Scale to A4 at ~150 dpi: 1240 x 1754
-        Bitmap bmp = scaleBitmap(src, 1240, 1754);
-        if (bmp != src) src.recycle();
-
-        PdfDocument.PageInfo info = new PdfDocument.PageInfo.Builder(bmp.getWidth(), bmp.getHeight(), pageNum++).create();
-        PdfDocument.Page p = merged.startPage(info);
-        Canvas c = p.getCanvas();
-        c.drawColor(Color.WHITE);
-        c.drawBitmap(bmp, 0, 0, null);
-        merged.finishPage(p);
-        bmp.recycle();
-        return pageNum;
-    }
 
-    private Bitmap scaleBitmap(Bitmap src, int maxW, int maxH) {
-        int w = src.getWidth(), h = src.getHeight();
-        if (w <= maxW && h <= maxH) return src;
-        float scale = Math.min((float) maxW / w, (float) maxH / h);
-        return Bitmap.createScaledBitmap(src, (int)(w * scale), (int)(h * scale), true);
+        private static void appendImage(Context context, PdfMergeWriter writer, Uri uri,
+                                        ExportProfile profile) throws IOException {
+            try (InputStream in = context.getContentResolver().openInputStream(uri);
+                 PDDocument page = ImagePageFactory.create(in, profile)) {
+                if (page != null) writer.append(page);
+            }
+        }
     }
 
     // ── Simple file list adapter ───────────────────────────────────────────────
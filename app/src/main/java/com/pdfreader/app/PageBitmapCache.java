@@ -0,0 +1,190 @@
+package com.pdfreader.app;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * App-wide cache of rendered page bitmaps, budgeted in bytes rather than entry count.
+ *
+ * A fixed "five pages" cap means very different amounts of memory for thumbnails and for
+ * 4K-wide pages, so the budget here is a fraction of the app's memory class instead, and it
+ * shrinks further when the system signals memory pressure (see trimMemory).
+ *
+ * Eviction is by distance from each document's current viewport: pages of documents that are
+ * no longer in front go first, then the pages farthest from what's on screen. Pages within
+ * PIN_MARGIN of a viewport are never evicted, since RecyclerView may still show them (or
+ * reattach their views without rebinding). Evicted bitmaps go back to BitmapPool.
+ *
+ * Thread-safe, so render workers can insert pages as soon as they finish.
+ */
+public final class PageBitmapCache {
+
+    private static final String TAG = "PageBitmapCache";
+
+    private static final float BUDGET_FRACTION_OF_MEMORY_CLASS = 0.25f;
+    private static final int PIN_MARGIN = 2;
+    // Added to the distance of pages belonging to any document other than the focused one.
+    private static final int UNFOCUSED_PENALTY = 1 << 20;
+
+    private static PageBitmapCache shared;
+
+    private final long maxBytes;
+    private final Map<Key, Bitmap> entries = new HashMap<>();
+    private final Map<String, int[]> viewports = new HashMap<>();
+    private String focusedDocument;
+    private long bytes;
+
+    public static synchronized PageBitmapCache shared(Context context) {
+        if (shared == null) {
+            ActivityManager am = (ActivityManager) context.getApplicationContext()
+                    .getSystemService(Context.ACTIVITY_SERVICE);
+            int memoryClassMb = am != null ? am.getMemoryClass() : 64;
+            shared = new PageBitmapCache(
+                    (long) (memoryClassMb * 1024L * 1024L * BUDGET_FRACTION_OF_MEMORY_CLASS));
+        }
+        return shared;
+    }
+
+    /** The shared instance if it has been created, without creating it. */
+    static synchronized PageBitmapCache peekShared() {
+        return shared;
+    }
+
+    public PageBitmapCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized Bitmap get(String document, int page, int width) {
+        Bitmap bitmap = entries.get(new Key(document, page, width));
+        return bitmap != null && !bitmap.isRecycled() ? bitmap : null;
+    }
+
+    public synchronized boolean contains(Bitmap bitmap) {
+        return entries.containsValue(bitmap);
+    }
+
+    public synchronized void put(String document, int page, int width, Bitmap bitmap) {
+        Bitmap previous = entries.put(new Key(document, page, width), bitmap);
+        if (previous != null) {
+            // Might still be on screen, so it's left for the GC rather than pooled.
+            bytes -= previous.getAllocationByteCount();
+        }
+        bytes += bitmap.getAllocationByteCount();
+        trimToSize(maxBytes);
+    }
+
+    /** Records which pages of {@code document} are on screen and makes it the focused document. */
+    public synchronized void setViewport(String document, int firstVisible, int lastVisible) {
+        viewports.put(document, new int[] { firstVisible, lastVisible });
+        focusedDocument = document;
+    }
+
+    /** Drops every page of {@code document}; call once nothing displays them any more. */
+    public synchronized void removeDocument(String document) {
+        Iterator<Map.Entry<Key, Bitmap>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Bitmap> entry = it.next();
+            if (entry.getKey().document.equals(document)) {
+                bytes -= entry.getValue().getAllocationByteCount();
+                BitmapPool.shared().put(entry.getValue());
+                it.remove();
+            }
+        }
+        viewports.remove(document);
+        if (document.equals(focusedDocument)) {
+            focusedDocument = null;
+        }
+    }
+
+    /** Applies an onTrimMemory() level: shrinks the cache the harder the system is squeezed. */
+    public void trimMemory(int level) {
+        long target;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            target = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            target = maxBytes / 4;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            target = maxBytes / 2;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            target = maxBytes * 3 / 4;
+        } else {
+            return;
+        }
+        synchronized (this) {
+            trimToSize(target);
+            Log.d(TAG, "trimMemory(" + level + "): " + bytes + "/" + maxBytes + " bytes held");
+        }
+    }
+
+    public synchronized long getBytesHeld() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private void trimToSize(long target) {
+        while (bytes > target) {
+            Key victim = null;
+            int victimScore = -1;
+            for (Key key : entries.keySet()) {
+                int[] viewport = viewports.get(key.document);
+                int distance = viewport == null ? UNFOCUSED_PENALTY : distance(key.page, viewport);
+                if (viewport != null && distance <= PIN_MARGIN) {
+                    continue;
+                }
+                int score = key.document.equals(focusedDocument) ? distance : distance + UNFOCUSED_PENALTY;
+                if (score > victimScore) {
+                    victimScore = score;
+                    victim = key;
+                }
+            }
+            if (victim == null) {
+                return; // everything left is pinned
+            }
+            Bitmap evicted = entries.remove(victim);
+            bytes -= evicted.getAllocationByteCount();
+            BitmapPool.shared().put(evicted);
+        }
+    }
+
+    private static int distance(int page, int[] viewport) {
+        if (page < viewport[0]) return viewport[0] - page;
+        if (page > viewport[1]) return page - viewport[1];
+        return 0;
+    }
+
+    private static final class Key {
+        final String document;
+        final int page;
+        final int width;
+
+        Key(String document, int page, int width) {
+            this.document = document;
+            this.page = page;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return page == other.page && width == other.width && document.equals(other.document);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(document, page, width);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.pdfreader.app;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Prioritized, cancellable page render queue with scroll-direction-aware prefetch.
+ *
+ * A plain executor runs page renders strictly in submission order and can't drop any of them,
+ * so a fast fling through a long document queues up renders for pages that are long gone while
+ * the page the user stopped on waits behind them. Here:
+ *  - a request for a page some view is waiting on ("visible") always beats prefetch work, and
+ *    prefetch never occupies every worker, so one is always free for visible pages (with a
+ *    single worker there is no prefetch at all: it would hold the only renderer while the user
+ *    waits);
+ *  - among equals, pages closest to the current viewport go first;
+ *  - pending work for pages that have left the window is dropped on every scroll update;
+ *  - the next K pages in the direction of travel are prefetched, K growing with scroll speed;
+ *  - visible pages render in two stages: a cheap preview for every visible page first, then
+ *    the full-quality renders, so each page shows something almost immediately.
+ *
+ * Renders that have already started always run to completion (their result goes to the page
+ * cache either way). Callbacks are invoked on the worker thread.
+ */
+public class PageRenderScheduler {
+
+    private static final String TAG = "PageRenderScheduler";
+
+    private static final int MIN_PREFETCH = 2;
+    private static final int MAX_PREFETCH = 8;
+    // Prefetch roughly this far ahead in time at the current scroll speed.
+    private static final float PREFETCH_HORIZON_SECONDS = 0.5f;
+    // Pending pages this far behind the viewport are kept (the user may scroll back a little).
+    private static final int KEEP_BEHIND = 2;
+    private static final int FULL_RENDER_SCORE_OFFSET = 1_000;
+    private static final int PREFETCH_SCORE_OFFSET = 10_000;
+
+    /** Renders a page and stores it wherever the caller keeps pages (runs on a worker). */
+    public interface PageRenderer {
+        Bitmap render(int page) throws Exception;
+
+        /** Quick low-resolution stand-in for a visible page, or null to skip the preview stage. */
+        default Bitmap renderPreview(int page) throws Exception {
+            return null;
+        }
+    }
+
+    public interface Callback {
+        /** A preview is ready; the full render for the page follows. */
+        default void onPagePreview(int page, Bitmap preview) {
+        }
+
+        void onPageRendered(int page, Bitmap bitmap);
+
+        void onPageFailed(int page, Exception error);
+    }
+
+    private static final class Task {
+        final int page;
+        final List<Callback> callbacks = new ArrayList<>();
+        boolean runningAsPrefetch;
+        boolean previewDone;
+
+        Task(int page) {
+            this.page = page;
+        }
+    }
+
+    private final PageRenderer renderer;
+    private final IntPredicate isCached;
+    private final int pageCount;
+    private final int maxRunningPrefetch;
+    private final Thread[] workers;
+
+    // All fields below are guarded by `this`.
+    private final Map<Integer, Task> pending = new HashMap<>();
+    private final Map<Integer, Task> inFlight = new HashMap<>();
+    private int runningPrefetch;
+    private boolean shutdown;
+    private int firstVisible;
+    private int lastVisible;
+    private int direction = 1;
+    private float pagesPerSecond;
+    private long lastScrollTime;
+    private int lastScrollFirst = -1;
+
+    public PageRenderScheduler(int workerCount, int pageCount, PageRenderer renderer, IntPredicate isCached) {
+        this.renderer = renderer;
+        this.isCached = isCached;
+        this.pageCount = pageCount;
+        int count = Math.max(1, workerCount);
+        // No floor of 1: the workers share the renderer's engines, so an extra thread kept for
+        // visible pages would only wait on an engine a prefetch render is holding.
+        this.maxRunningPrefetch = count - 1;
+        this.workers = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            workers[i] = new Thread(this::workerLoop, "PageRender-" + i);
+            workers[i].setPriority(Thread.NORM_PRIORITY - 1);
+            workers[i].start();
+        }
+    }
+
+    /** Requests a page a view is waiting on; {@code callback} fires once it's rendered. */
+    public synchronized void requestVisible(int page, Callback callback) {
+        if (shutdown) return;
+        Task task = inFlight.get(page);
+        if (task == null) {
+            task = pending.get(page);
+        }
+        if (task == null) {
+            task = new Task(page);
+            pending.put(page, task);
+        }
+        task.callbacks.add(callback);
+        notifyAll();
+    }
+
+    /** The view waiting on {@code page} went away; its callback won't be invoked. */
+    public synchronized void cancel(int page, Callback callback) {
+        Task task = pending.get(page);
+        if (task == null) {
+            task = inFlight.get(page);
+        }
+        if (task != null) {
+            task.callbacks.remove(callback);
+        }
+    }
+
+    /**
+     * Reports the visible range after a scroll by {@code dy} pixels (positive = towards the end),
+     * dropping pending work that left the window and queueing prefetch in the direction of travel.
+     */
+    public synchronized void onScroll(int first, int last, int dy) {
+        if (shutdown || first < 0) return;
+        long now = SystemClock.uptimeMillis();
+        if (lastScrollFirst >= 0 && now > lastScrollTime) {
+            float instantaneous = Math.abs(first - lastScrollFirst) * 1000f / (now - lastScrollTime);
+            // Light smoothing, so one long frame doesn't collapse the prefetch window.
+            pagesPerSecond = pagesPerSecond * 0.6f + instantaneous * 0.4f;
+        }
+        lastScrollTime = now;
+        lastScrollFirst = first;
+        if (dy != 0) {
+            direction = dy > 0 ? 1 : -1;
+        }
+        firstVisible = first;
+        lastVisible = Math.max(first, last);
+
+        int ahead = prefetchDistance();
+        int keepFrom = direction > 0 ? firstVisible - KEEP_BEHIND : firstVisible - ahead;
+        int keepTo = direction > 0 ? lastVisible + ahead : lastVisible + KEEP_BEHIND;
+
+        Iterator<Task> it = pending.values().iterator();
+        while (it.hasNext()) {
+            Task task = it.next();
+            boolean inWindow = task.page >= keepFrom && task.page <= keepTo;
+            if (!inWindow && task.callbacks.isEmpty()) {
+                it.remove();
+            }
+        }
+
+        for (int i = 1; i <= ahead; i++) {
+            int page = direction > 0 ? lastVisible + i : firstVisible - i;
+            if (page < 0 || page >= pageCount) break;
+            if (pending.containsKey(page) || inFlight.containsKey(page) || isCached.test(page)) {
+                continue;
+            }
+            pending.put(page, new Task(page));
+        }
+        notifyAll();
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+        pending.clear();
+        notifyAll();
+    }
+
+    private int prefetchDistance() {
+        int k = MIN_PREFETCH + Math.round(pagesPerSecond * PREFETCH_HORIZON_SECONDS);
+        return Math.min(MAX_PREFETCH, Math.max(MIN_PREFETCH, k));
+    }
+
+    private int score(Task task) {
+        int distance;
+        if (task.page < firstVisible) {
+            distance = firstVisible - task.page;
+        } else if (task.page > lastVisible) {
+            distance = task.page - lastVisible;
+        } else {
+            distance = 0;
+        }
+        if (task.callbacks.isEmpty()) {
+            return PREFETCH_SCORE_OFFSET + distance;
+        }
+        return task.previewDone ? FULL_RENDER_SCORE_OFFSET + distance : distance;
+    }
+
+    private synchronized Task take() throws InterruptedException {
+        while (true) {
+            if (shutdown) return null;
+            Task best = null;
+            int bestScore = Integer.MAX_VALUE;
+            for (Task task : pending.values()) {
+                boolean prefetch = task.callbacks.isEmpty();
+                if (prefetch && runningPrefetch >= maxRunningPrefetch) continue;
+                int score = score(task);
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = task;
+                }
+            }
+            if (best != null) {
+                pending.remove(best.page);
+                inFlight.put(best.page, best);
+                best.runningAsPrefetch = best.callbacks.isEmpty();
+                if (best.runningAsPrefetch) {
+                    runningPrefetch++;
+                }
+                return best;
+            }
+            wait();
+        }
+    }
+
+    private void workerLoop() {
+        while (true) {
+            Task task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) return;
+
+            if (!task.runningAsPrefetch && !task.previewDone && runPreviewStage(task)) {
+                continue;
+            }
+
+            Bitmap bitmap = null;
+            Exception error = null;
+            try {
+                bitmap = renderer.render(task.page);
+            } catch (Exception e) {
+                error = e;
+                Log.e(TAG, "Error rendering page " + task.page, e);
+            }
+
+            List<Callback> callbacks;
+            synchronized (this) {
+                inFlight.remove(task.page);
+                if (task.runningAsPrefetch) {
+                    runningPrefetch--;
+                }
+                callbacks = new ArrayList<>(task.callbacks);
+                notifyAll();
+            }
+            for (Callback callback : callbacks) {
+                if (error != null) {
+                    callback.onPageFailed(task.page, error);
+                } else {
+                    callback.onPageRendered(task.page, bitmap);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the preview for a visible task and puts the task back in the queue for its full
+     * render, so other visible pages get their previews before any full render starts.
+     * Returns false if there is no preview, in which case the worker renders in full right away.
+     */
+    private boolean runPreviewStage(Task task) {
+        Bitmap preview = null;
+        try {
+            preview = renderer.renderPreview(task.page);
+        } catch (Exception e) {
+            Log.w(TAG, "Preview failed for page " + task.page, e);
+        }
+
+        List<Callback> callbacks;
+        synchronized (this) {
+            task.previewDone = true;
+            if (preview == null) {
+                return false;
+            }
+            inFlight.remove(task.page);
+            if (!shutdown) {
+                pending.put(task.page, task);
+            }
+            callbacks = new ArrayList<>(task.callbacks);
+            notifyAll();
+        }
+        for (Callback callback : callbacks) {
+            callback.onPagePreview(task.page, preview);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,186 @@
+package com.pdfreader.app;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Tiles for zoomed-in page views, keyed by (document, page, zoom level, column, row).
+ *
+ * Rendering a whole page at 4x zoom would need a bitmap 16x the size of the normal page, so
+ * zoomed views instead render only the fixed-size tiles that intersect the viewport, via
+ * PdfBoxRenderer.renderTile(). Zoom factors are snapped to half-octave levels so that small
+ * pinch adjustments and panning reuse tiles instead of re-rendering them.
+ *
+ * Memory stays bounded regardless of zoom: tiles are TILE_SIZE square at most and the cache is
+ * an LRU under a byte budget. Evicted tiles are left to the GC rather than pooled, since a view
+ * may still be drawing them. Thread-safe.
+ */
+public final class PageTileCache {
+
+    public static final int TILE_SIZE = 512;
+    private static final float BUDGET_FRACTION_OF_MEMORY_CLASS = 0.125f;
+
+    /** One tile of a zoomed page: its bounds in zoomed-page pixels and its bitmap. */
+    public static final class Tile {
+        public final int column;
+        public final int row;
+        public final Rect bounds;
+        public final Bitmap bitmap;
+
+        Tile(int column, int row, Rect bounds, Bitmap bitmap) {
+            this.column = column;
+            this.row = row;
+            this.bounds = bounds;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private static PageTileCache shared;
+
+    private final long maxBytes;
+    // Access-ordered, so iteration starts at the least recently used tile.
+    private final LinkedHashMap<Key, Bitmap> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    public static synchronized PageTileCache shared(Context context) {
+        if (shared == null) {
+            ActivityManager am = (ActivityManager) context.getApplicationContext()
+                    .getSystemService(Context.ACTIVITY_SERVICE);
+            int memoryClassMb = am != null ? am.getMemoryClass() : 64;
+            shared = new PageTileCache(
+                    (long) (memoryClassMb * 1024L * 1024L * BUDGET_FRACTION_OF_MEMORY_CLASS));
+        }
+        return shared;
+    }
+
+    /** The shared instance if it has been created, without creating it. */
+    static synchronized PageTileCache peekShared() {
+        return shared;
+    }
+
+    public PageTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Snaps a zoom factor to its half-octave level (1x = 0, ~1.41x = 1, 2x = 2, ...). */
+    public static int zoomLevel(float zoom) {
+        return Math.round((float) (Math.log(Math.max(zoom, 1f)) / Math.log(2)) * 2);
+    }
+
+    /** The zoom factor tiles are actually rendered at for a given level. */
+    public static float zoomForLevel(int level) {
+        return (float) Math.pow(2, level / 2.0);
+    }
+
+    /**
+     * Returns the tiles of {@code page} that intersect {@code viewport}, rendering the ones not
+     * already cached. {@code baseScale} is the page's unzoomed render scale (points to pixels);
+     * {@code viewport} is in pixels of the page rendered at {@code zoomForLevel(zoomLevel)}
+     * times that. Blocking -- call from a worker thread.
+     */
+    public List<Tile> getVisibleTiles(PdfBoxRenderer renderer, String document, int page,
+                                      float baseScale, int zoomLevel, RectF viewport) throws IOException {
+        float scale = baseScale * zoomForLevel(zoomLevel);
+        int pageWidthPx = (int) Math.max(Math.floor(renderer.getPageWidthPoints(page) * scale), 1);
+        int pageHeightPx = (int) Math.max(Math.floor(renderer.getPageHeightPoints(page) * scale), 1);
+
+        int firstColumn = Math.max(0, (int) Math.floor(viewport.left / TILE_SIZE));
+        int lastColumn = Math.min((pageWidthPx - 1) / TILE_SIZE, (int) Math.floor(viewport.right / TILE_SIZE));
+        int firstRow = Math.max(0, (int) Math.floor(viewport.top / TILE_SIZE));
+        int lastRow = Math.min((pageHeightPx - 1) / TILE_SIZE, (int) Math.floor(viewport.bottom / TILE_SIZE));
+
+        List<Tile> result = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Rect bounds = new Rect(column * TILE_SIZE, row * TILE_SIZE,
+                        Math.min((column + 1) * TILE_SIZE, pageWidthPx),
+                        Math.min((row + 1) * TILE_SIZE, pageHeightPx));
+                Key key = new Key(document, page, zoomLevel, column, row);
+                Bitmap bitmap = get(key);
+                if (bitmap == null) {
+                    bitmap = renderer.renderTile(page, scale, bounds);
+                    put(key, bitmap);
+                }
+                result.add(new Tile(column, row, bounds, bitmap));
+            }
+        }
+        return result;
+    }
+
+    /** Drops every tile of {@code document}. */
+    public synchronized void removeDocument(String document) {
+        Iterator<Map.Entry<Key, Bitmap>> it = tiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Bitmap> entry = it.next();
+            if (entry.getKey().document.equals(document)) {
+                bytes -= entry.getValue().getAllocationByteCount();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    private synchronized Bitmap get(Key key) {
+        return tiles.get(key);
+    }
+
+    private synchronized void put(Key key, Bitmap bitmap) {
+        Bitmap previous = tiles.put(key, bitmap);
+        if (previous != null) {
+            bytes -= previous.getAllocationByteCount();
+        }
+        bytes += bitmap.getAllocationByteCount();
+        Iterator<Map.Entry<Key, Bitmap>> it = tiles.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<Key, Bitmap> eldest = it.next();
+            if (eldest.getKey().equals(key)) continue;
+            bytes -= eldest.getValue().getAllocationByteCount();
+            it.remove();
+        }
+    }
+
+    private static final class Key {
+        final String document;
+        final int page;
+        final int zoomLevel;
+        final int column;
+        final int row;
+
+        Key(String document, int page, int zoomLevel, int column, int row) {
+            this.document = document;
+            this.page = page;
+            this.zoomLevel = zoomLevel;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return page == other.page && zoomLevel == other.zoomLevel && column == other.column
+                    && row == other.row && document.equals(other.document);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(document, page, zoomLevel, column, row);
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSBase;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSObject;
+import com.tom_roush.pdfbox.cos.COSString;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDResources;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a reordered, trimmed, rotated or extended version of a PDF by rearranging its page
+ * tree with PdfBox: pages keep their own content streams, resources and annotations, and
+ * nothing is rendered. Rotation is a /Rotate change, blank pages are empty page dictionaries,
+ * and pages imported from another PDF are moved over as objects. The saved file contains only
+ * what the kept pages reference, so it's about the size of the pages it holds. A source
+ * restricted by an owner password is saved without its encryption.
+ */
+final class PageTreeWriter {
+
+    private static final String TAG = "PageTreeWriter";
+
+    // Attributes a page may inherit from its ancestors in the page tree (PDF 32000, 7.7.3.4).
+    private static final COSName[] INHERITABLE = {
+            COSName.RESOURCES, COSName.MEDIA_BOX, COSName.CROP_BOX, COSName.ROTATE,
+    };
+    private static final COSName GO_TO = COSName.getPDFName("GoTo");
+    private static final COSName LINK = COSName.getPDFName("Link");
+    private static final COSName POPUP = COSName.getPDFName("Popup");
+
+    /** One page of the output, in output order. */
+    static final class Slot {
+        /** PDF the page comes from, or null for the document being edited. */
+        final String sourcePath;
+        /** Page index in the source, or -1 for a blank page. */
+        final int sourceIndex;
+        /** Size of a blank page in points. */
+        final float blankWidth, blankHeight;
+        /** Clockwise rotation added to the page, a multiple of 90. */
+        int rotation;
+
+        private Slot(String sourcePath, int sourceIndex, float blankWidth, float blankHeight) {
+            this.sourcePath = sourcePath;
+            this.sourceIndex = sourceIndex;
+            this.blankWidth = blankWidth;
+            this.blankHeight = blankHeight;
+        }
+
+        static Slot original(int index) {
+            return new Slot(null, index, 0, 0);
+        }
+
+        static Slot imported(String sourcePath, int index) {
+            return new Slot(sourcePath, index, 0, 0);
+        }
+
+        static Slot blank(float width, float height) {
+            return new Slot(null, -1, width, height);
+        }
+
+        boolean isBlank() {
+            return sourceIndex < 0;
+        }
+
+        Slot copy() {
+            Slot copy = new Slot(sourcePath, sourceIndex, blankWidth, blankHeight);
+            copy.rotation = rotation;
+            return copy;
+        }
+    }
+
+    private PageTreeWriter() {}
+
+    /**
+     * Writes the document at {@code pdfPath}, rearranged as {@code slots}, to {@code destination}.
+     * {@code progress} is told after each page is placed.
+     */
+    static void write(Context context, String pdfPath, List<Slot> slots, File destination,
+                      ExportJob.Progress progress) throws IOException {
+        Map<String, PDDocument> imports = new HashMap<>();
+        try (PDDocument document = open(context, pdfPath)) {
+            List<PDPage> originals = pagesOf(document);
+            COSDictionary root = new COSDictionary();
+            root.setItem(COSName.TYPE, COSName.PAGES);
+            COSArray kids = new COSArray();
+            Set<COSDictionary> placed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+            for (Slot slot : slots) {
+                PDPage page;
+                if (slot.isBlank()) {
+                    page = new PDPage(new PDRectangle(slot.blankWidth, slot.blankHeight));
+                    page.setResources(new PDResources());
+                } else if (slot.sourcePath == null) {
+                    page = originals.get(slot.sourceIndex);
+                } else {
+                    PDDocument source = imports.get(slot.sourcePath);
+                    if (source == null) {
+                        source = open(context, slot.sourcePath);
+                        imports.put(slot.sourcePath, source);
+                    }
+                    page = source.getPage(slot.sourceIndex);
+                    pinInheritedAttributes(page);
+                }
+                if (!placed.add(page.getCOSObject())) {
+                    // The same page placed again (a duplicate, or a PDF imported twice): one
+                    // dictionary can't sit in the tree twice with a single /Parent, and
+                    // rotating one copy would rotate the other.
+                    page = copyOf(page);
+                    placed.add(page.getCOSObject());
+                }
+                if (slot.rotation != 0) {
+                    page.setRotation(((page.getRotation() + slot.rotation) % 360 + 360) % 360);
+                }
+                page.getCOSObject().setItem(COSName.PARENT, root);
+                kids.add(page.getCOSObject());
+                progress.update(kids.size(), slots.size());
+            }
+
+            // A single flat page tree node: rebuilding it is linear in the page count, where
+            // removing and re-adding pages in a deep tree would walk it for every page.
+            root.setItem(COSName.KIDS, kids);
+            root.setInt(COSName.COUNT, kids.size());
+            document.getDocumentCatalog().getCOSObject().setItem(COSName.PAGES, root);
+
+            // Bookmarks, named destinations and links that lead to removed pages would
+            // otherwise keep them -- and through their /Parent, the old page tree -- in the file.
+            Map<String, COSDictionary> named = namedDestinations(document);
+            pruneLinks(kids, placed, named);
+            pruneOutlines(document, placed, named);
+            pruneNamedDestinations(document, placed);
+            for (PDPage original : originals) {
+                if (!placed.contains(original.getCOSObject())) {
+                    original.getCOSObject().removeItem(COSName.PARENT);
+                }
+            }
+
+            if (document.isEncrypted()) {
+                // Only documents that open without a password get here, i.e. ones restricted
+                // by an owner password. A full save can't keep the original encryption, and
+                // re-protecting it would need that owner password, which we don't have; the
+                // saved copy is written unencrypted, without the restrictions.
+                Log.i(TAG, "Removing encryption from the rearranged copy of " + pdfPath);
+                document.setAllSecurityToBeRemoved(true);
+            }
+
+            // Content streams are copied as they are, still encoded. A removed page is still
+            // written if a form field or the tagged structure refers to it, but nothing else of
+            // the old tree comes with it.
+            document.save(destination);
+        } catch (IOException | RuntimeException e) {
+            destination.delete();
+            throw e;
+        } finally {
+            for (PDDocument source : imports.values()) {
+                source.close();
+            }
+        }
+    }
+
+    private static PDDocument open(Context context, String path) throws IOException {
+        DocumentSource.Opened opened = DocumentSource.open(context, path);
+        return PdfBoxRenderer.openDocument(context, opened.pfd);
+    }
+
+    /** The document's pages, each detached from what it inherited from the old tree. */
+    private static List<PDPage> pagesOf(PDDocument document) {
+        List<PDPage> pages = new ArrayList<>(document.getNumberOfPages());
+        for (PDPage page : document.getPages()) {
+            pinInheritedAttributes(page);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    /**
+     * A shallow copy of {@code page}: content and resources are shared, but it has its own
+     * /Parent and /Rotate, and its own copies of the page's annotations, since an annotation
+     * belongs to one page.
+     */
+    private static PDPage copyOf(PDPage page) {
+        COSDictionary copy = new COSDictionary(page.getCOSObject());
+        COSBase annots = copy.getDictionaryObject(COSName.ANNOTS);
+        if (annots instanceof COSArray) {
+            COSArray original = (COSArray) annots;
+            Map<COSDictionary, COSDictionary> copies = new IdentityHashMap<>();
+            COSArray copied = new COSArray();
+            for (int i = 0; i < original.size(); i++) {
+                COSBase annot = original.getObject(i);
+                if (annot instanceof COSDictionary) {
+                    COSDictionary annotCopy = new COSDictionary((COSDictionary) annot);
+                    annotCopy.setItem(COSName.P, copy);
+                    copies.put((COSDictionary) annot, annotCopy);
+                    copied.add(annotCopy);
+                }
+            }
+            // A markup annotation and its popup point at each other; keep the copies paired.
+            for (COSDictionary annotCopy : copies.values()) {
+                for (COSName key : new COSName[] {POPUP, COSName.PARENT}) {
+                    COSDictionary partner = copies.get(annotCopy.getDictionaryObject(key));
+                    if (partner != null) {
+                        annotCopy.setItem(key, partner);
+                    }
+                }
+            }
+            copy.setItem(COSName.ANNOTS, copied);
+        }
+        return new PDPage(copy);
+    }
+
+    /** Name -> page of every named destination in the document, from /Dests and /Names. */
+    private static Map<String, COSDictionary> namedDestinations(PDDocument document) {
+        Map<String, COSDictionary> named = new HashMap<>();
+        COSDictionary catalog = document.getDocumentCatalog().getCOSObject();
+        COSBase dests = catalog.getDictionaryObject(COSName.DESTS);
+        if (dests instanceof COSDictionary) {
+            for (Map.Entry<COSName, COSBase> entry : ((COSDictionary) dests).entrySet()) {
+                COSDictionary page = pageOf(resolve(entry.getValue()));
+                if (page != null) {
+                    named.put(entry.getKey().getName(), page);
+                }
+            }
+        }
+        COSDictionary tree = nameTree(catalog);
+        if (tree != null) {
+            collectNames(tree, named);
+        }
+        return named;
+    }
+
+    private static void collectNames(COSDictionary node, Map<String, COSDictionary> named) {
+        COSBase names = node.getDictionaryObject(COSName.NAMES);
+        if (names instanceof COSArray) {
+            COSArray pairs = (COSArray) names;
+            for (int i = 0; i + 1 < pairs.size(); i += 2) {
+                COSBase key = pairs.getObject(i);
+                COSDictionary page = pageOf(pairs.getObject(i + 1));
+                if (key instanceof COSString && page != null) {
+                    named.put(((COSString) key).getString(), page);
+                }
+            }
+        }
+        COSBase kids = node.getDictionaryObject(COSName.KIDS);
+        if (kids instanceof COSArray) {
+            for (int i = 0; i < ((COSArray) kids).size(); i++) {
+                COSBase kid = ((COSArray) kids).getObject(i);
+                if (kid instanceof COSDictionary) {
+                    collectNames((COSDictionary) kid, named);
+                }
+            }
+        }
+    }
+
+    /** Drops link annotations on the kept pages that lead to a removed page. */
+    private static void pruneLinks(COSArray kids, Set<COSDictionary> placed,
+                                   Map<String, COSDictionary> named) {
+        for (int i = 0; i < kids.size(); i++) {
+            COSDictionary page = (COSDictionary) kids.getObject(i);
+            COSBase annots = page.getDictionaryObject(COSName.ANNOTS);
+            if (!(annots instanceof COSArray)) continue;
+            COSArray array = (COSArray) annots;
+            COSArray kept = new COSArray();
+            for (int j = 0; j < array.size(); j++) {
+                COSBase annot = array.getObject(j);
+                if (annot instanceof COSDictionary
+                        && LINK.equals(((COSDictionary) annot).getCOSName(COSName.SUBTYPE))
+                        && isRemoved(target((COSDictionary) annot, named), placed)) {
+                    continue;
+                }
+                kept.add(array.get(j));
+            }
+            if (kept.size() != array.size()) {
+                page.setItem(COSName.ANNOTS, kept);
+            }
+        }
+    }
+
+    /**
+     * Drops bookmarks that lead to a removed page. One that still has bookmarks under it stays,
+     * without a destination.
+     */
+    private static void pruneOutlines(PDDocument document, Set<COSDictionary> placed,
+                                      Map<String, COSDictionary> named) {
+        COSDictionary catalog = document.getDocumentCatalog().getCOSObject();
+        COSBase outlines = catalog.getDictionaryObject(COSName.OUTLINES);
+        if (!(outlines instanceof COSDictionary)) return;
+        COSDictionary root = (COSDictionary) outlines;
+        Set<COSDictionary> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (pruneOutlineChildren(root, placed, named, seen) == 0) {
+            catalog.removeItem(COSName.OUTLINES);
+        } else {
+            // The outline root is always open.
+            root.setInt(COSName.COUNT, Math.abs(root.getInt(COSName.COUNT)));
+        }
+    }
+
+    /**
+     * Unlinks the children of {@code item} that lead to removed pages and relinks the rest.
+     * Returns how many of its descendants are shown when it's open, and sets its /Count to
+     * match.
+     */
+    private static int pruneOutlineChildren(COSDictionary item, Set<COSDictionary> placed,
+                                            Map<String, COSDictionary> named, Set<COSDictionary> seen) {
+        List<COSDictionary> kept = new ArrayList<>();
+        int shown = 0;
+        COSBase child = item.getDictionaryObject(COSName.FIRST);
+        // Seen items guard against a /Next chain that loops back on itself.
+        while (child instanceof COSDictionary && seen.add((COSDictionary) child)) {
+            COSDictionary current = (COSDictionary) child;
+            boolean open = current.getInt(COSName.COUNT, 0) > 0;
+            int below = pruneOutlineChildren(current, placed, named, seen);
+            boolean hasChildren = current.containsKey(COSName.FIRST);
+            if (isRemoved(target(current, named), placed)) {
+                current.removeItem(COSName.DEST);
+                current.removeItem(COSName.A);
+                if (!hasChildren) {
+                    child = current.getDictionaryObject(COSName.NEXT);
+                    continue;
+                }
+            }
+            kept.add(current);
+            shown += 1 + (open ? below : 0);
+            child = current.getDictionaryObject(COSName.NEXT);
+        }
+        item.removeItem(COSName.FIRST);
+        item.removeItem(COSName.LAST);
+        for (int i = 0; i < kept.size(); i++) {
+            COSDictionary current = kept.get(i);
+            current.setItem(COSName.PARENT, item);
+            current.removeItem(COSName.PREV);
+            current.removeItem(COSName.NEXT);
+            if (i > 0) current.setItem(COSName.PREV, kept.get(i - 1));
+            if (i + 1 < kept.size()) current.setItem(COSName.NEXT, kept.get(i + 1));
+        }
+        if (kept.isEmpty()) {
+            item.removeItem(COSName.COUNT);
+        } else {
+            item.setItem(COSName.FIRST, kept.get(0));
+            item.setItem(COSName.LAST, kept.get(kept.size() - 1));
+            boolean open = item.getInt(COSName.COUNT, 0) > 0;
+            item.setInt(COSName.COUNT, open ? shown : -shown);
+        }
+        return shown;
+    }
+
+    /** Drops named destinations that lead to a removed page. */
+    private static void pruneNamedDestinations(PDDocument document, Set<COSDictionary> placed) {
+        COSDictionary catalog = document.getDocumentCatalog().getCOSObject();
+        COSBase dests = catalog.getDictionaryObject(COSName.DESTS);
+        if (dests instanceof COSDictionary) {
+            COSDictionary dict = (COSDictionary) dests;
+            for (COSName name : new ArrayList<>(dict.keySet())) {
+                if (isRemoved(pageOf(resolve(dict.getItem(name))), placed)) {
+                    dict.removeItem(name);
+                }
+            }
+        }
+        COSDictionary tree = nameTree(catalog);
+        if (tree != null) {
+            pruneNameTree(tree, placed);
+        }
+    }
+
+    /** Prunes one node of the /Dests name tree; returns whether anything is left under it. */
+    private static boolean pruneNameTree(COSDictionary node, Set<COSDictionary> placed) {
+        COSString low = null;
+        COSString high = null;
+        COSBase names = node.getDictionaryObject(COSName.NAMES);
+        if (names instanceof COSArray) {
+            COSArray pairs = (COSArray) names;
+            COSArray kept = new COSArray();
+            for (int i = 0; i + 1 < pairs.size(); i += 2) {
+                if (isRemoved(pageOf(pairs.getObject(i + 1)), placed)) continue;
+                kept.add(pairs.get(i));
+                kept.add(pairs.get(i + 1));
+                COSBase key = pairs.getObject(i);
+                if (key instanceof COSString) {
+                    if (low == null) low = (COSString) key;
+                    high = (COSString) key;
+                }
+            }
+            node.setItem(COSName.NAMES, kept);
+        }
+        COSBase kids = node.getDictionaryObject(COSName.KIDS);
+        if (kids instanceof COSArray) {
+            COSArray array = (COSArray) kids;
+            COSArray kept = new COSArray();
+            for (int i = 0; i < array.size(); i++) {
+                COSBase kid = array.getObject(i);
+                if (!(kid instanceof COSDictionary) || !pruneNameTree((COSDictionary) kid, placed)) continue;
+                kept.add(array.get(i));
+                COSBase limits = ((COSDictionary) kid).getDictionaryObject(COSName.LIMITS);
+                if (limits instanceof COSArray && ((COSArray) limits).size() == 2
+                        && ((COSArray) limits).getObject(0) instanceof COSString
+                        && ((COSArray) limits).getObject(1) instanceof COSString) {
+                    if (low == null) low = (COSString) ((COSArray) limits).getObject(0);
+                    high = (COSString) ((COSArray) limits).getObject(1);
+                }
+            }
+            node.setItem(COSName.KIDS, kept);
+        }
+        // The root has no /Limits; every other node's must match what's left under it.
+        if (node.containsKey(COSName.LIMITS) && low != null) {
+            COSArray limits = new COSArray();
+            limits.add(low);
+            limits.add(high);
+            node.setItem(COSName.LIMITS, limits);
+        }
+        return low != null;
+    }
+
+    private static COSDictionary nameTree(COSDictionary catalog) {
+        COSBase names = catalog.getDictionaryObject(COSName.NAMES);
+        if (!(names instanceof COSDictionary)) return null;
+        COSBase tree = ((COSDictionary) names).getDictionaryObject(COSName.DESTS);
+        return tree instanceof COSDictionary ? (COSDictionary) tree : null;
+    }
+
+    /** The page a bookmark or link leads to, through /Dest or a GoTo action; null if none. */
+    private static COSDictionary target(COSDictionary item, Map<String, COSDictionary> named) {
+        COSBase dest = item.getDictionaryObject(COSName.DEST);
+        if (dest == null) {
+            COSBase action = item.getDictionaryObject(COSName.A);
+            if (action instanceof COSDictionary
+                    && GO_TO.equals(((COSDictionary) action).getCOSName(COSName.S))) {
+                dest = ((COSDictionary) action).getDictionaryObject(COSName.D);
+            }
+        }
+        if (dest instanceof COSName) return named.get(((COSName) dest).getName());
+        if (dest instanceof COSString) return named.get(((COSString) dest).getString());
+        return pageOf(dest);
+    }
+
+    // An explicit destination is an array starting with the page, possibly wrapped in a
+    // dictionary's /D; a page number (a destination in another file) isn't a page here.
+    private static COSDictionary pageOf(COSBase dest) {
+        if (dest instanceof COSDictionary) {
+            dest = ((COSDictionary) dest).getDictionaryObject(COSName.D);
+        }
+        if (dest instanceof COSArray && ((COSArray) dest).size() > 0) {
+            COSBase page = ((COSArray) dest).getObject(0);
+            if (page instanceof COSDictionary) return (COSDictionary) page;
+        }
+        return null;
+    }
+
+    private static COSBase resolve(COSBase value) {
+        return value instanceof COSObject ? ((COSObject) value).getObject() : value;
+    }
+
+    private static boolean isRemoved(COSDictionary page, Set<COSDictionary> placed) {
+        return page != null && !placed.contains(page);
+    }
+
+    /**
+     * Copies inherited attributes onto the page itself, so it keeps its resources, size and
+     * rotation once it hangs off a different node of the page tree (or another document's).
+     */
+    static void pinInheritedAttributes(PDPage page) {
+        COSDictionary dict = page.getCOSObject();
+        for (COSName key : INHERITABLE) {
+            if (!dict.containsKey(key)) {
+                COSBase value = inheritedItem(dict, key);
+                if (value != null) {
+                    dict.setItem(key, value);
+                }
+            }
+        }
+    }
+
+    // Like PDPageTree.getInheritableAttribute, but returns the item as stored -- an indirect
+    // reference stays a reference, so resources shared by many pages are still written once.
+    private static COSBase inheritedItem(COSDictionary node, COSName key) {
+        COSBase parent = node.getDictionaryObject(COSName.PARENT);
+        while (parent instanceof COSDictionary) {
+            COSDictionary ancestor = (COSDictionary) parent;
+            COSBase item = ancestor.getItem(key);
+            if (item != null) {
+                return item;
+            }
+            parent = ancestor.getDictionaryObject(COSName.PARENT);
+        }
+        return null;
+    }
+}
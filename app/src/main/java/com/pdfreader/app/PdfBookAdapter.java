@@ -2,7 +2,6 @@ package com.pdfreader.app;
 
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -13,23 +12,15 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import android.os.Handler;
-import android.os.Looper;
 
 public class PdfBookAdapter extends RecyclerView.Adapter<PdfBookAdapter.ViewHolder> {
 
     private Context context;
     private List<PdfBook> pdfBooks;
-    private ExecutorService executorService;
-    private Handler mainHandler;
 
     public PdfBookAdapter(Context context, List<PdfBook> pdfBooks) {
         this.context = context;
         this.pdfBooks = pdfBooks;
-        this.executorService = Executors.newFixedThreadPool(3);
-        this.mainHandler = new Handler(Looper.getMainLooper());
     }
 
     @NonNull
@@ -45,28 +36,8 @@ public class PdfBookAdapter extends RecyclerView.Adapter<PdfBookAdapter.ViewHold
         holder.titleTextView.setText(book.getTitle());
         holder.sizeTextView.setText(book.getFileSize());
 
-        // Reset thumbnail to default
-        holder.thumbnailImageView.setImageResource(R.drawable.placeholder_book);
-        holder.thumbnailImageView.setTag(position);
-
-        // Load thumbnail in background
-        executorService.execute(() -> {
-            Bitmap thumbnail = PdfThumbnailGenerator.generateThumbnail(
-                context, 
-                book.getFilePath(), 
-                200, 
-                300
-            );
-            
-            mainHandler.post(() -> {
-                // Check if this view is still showing the same position
-                if (holder.thumbnailImageView.getTag() != null && 
-                    (int) holder.thumbnailImageView.getTag() == position && 
-                    thumbnail != null) {
-                    holder.thumbnailImageView.setImageBitmap(thumbnail);
-                }
-            });
-        });
+        // Cached by Glide across binds and restarts; rebinding the view cancels the old request
+        DocumentCover.load(holder.thumbnailImageView, book.getFilePath(), 200, 300);
 
         holder.itemView.setOnClickListener(v -> {
             if (context instanceof MainActivity) {
@@ -100,10 +71,4 @@ public class PdfBookAdapter extends RecyclerView.Adapter<PdfBookAdapter.ViewHold
             thumbnailImageView = itemView.findViewById(R.id.thumbnailImageView);
         }
     }
-
-    public void cleanup() {
-        if (executorService != null && !executorService.isShutdown()) {
-            executorService.shutdown();
-        }
-    }
 }
@@ -1,29 +1,46 @@
 package com.pdfreader.app;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSBase;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSObject;
+import com.tom_roush.pdfbox.io.MemoryUsageSetting;
+import com.tom_roush.pdfbox.io.ScratchFile;
+import com.tom_roush.pdfbox.pdfparser.PDFParser;
 import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDDocumentInformation;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
 import com.tom_roush.pdfbox.pdmodel.encryption.InvalidPasswordException;
 import com.tom_roush.pdfbox.pdmodel.interactive.annotation.AnnotationFilter;
 import com.tom_roush.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
 import com.tom_roush.pdfbox.pdmodel.interactive.annotation.PDAnnotationTextMarkup;
-import com.tom_roush.pdfbox.rendering.ImageType;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Renders PDF pages as a composite of two engines:
@@ -58,123 +75,550 @@ public class PdfBoxRenderer implements Closeable {
             return !PDAnnotationTextMarkup.SUB_TYPE_HIGHLIGHT.equals(annotation.getSubtype());
         }
     };
+    // Per-page annotation census bits (see scanPages).
+    private static final byte HAS_HIGHLIGHTS = 1;
+    private static final byte HAS_OTHER_ANNOTATIONS = 2;
+
     private static final Paint MULTIPLY_PAINT = new Paint();
+    // Overwrites the (reused, so dirty) scratch bitmap outright instead of blending onto it.
+    private static final Paint COPY_PAINT = new Paint();
     static {
         MULTIPLY_PAINT.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.MULTIPLY));
+        COPY_PAINT.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
     }
 
-    private final PDDocument document;
-    private final AnnotationOnlyPDFRenderer annotationRenderer;
-    private final android.graphics.pdf.PdfRenderer contentRenderer;
-    private final ParcelFileDescriptor contentPfd;
-    private final File contentTempFile;
+    // Decoded-stream scratch memory per document before PdfBox spills to a file in cacheDir.
+    private static final long SCRATCH_MAIN_MEMORY_BYTES = 8L * 1024 * 1024;
+    // Rough heap cost of one engine (parsed PDDocument, PdfBox font/resource caches, scratch
+    // memory), used to keep the pool from outgrowing the app's heap on low-memory devices.
+    private static final int ENGINE_BUDGET_MB = 32;
+    private static final int FINGERPRINT_SAMPLE_BYTES = 64 * 1024;
+
+    private final Context appContext;
+    // Our own dup of the caller's descriptor, kept only to open further engines on demand.
+    private final ParcelFileDescriptor sourcePfd;
+    private final int pageCount;
+    private final int maxEngines;
+    private final byte[] annotationCensus;
+    // Rotated page sizes in points, indexed by page (see scanPages).
+    private final float[] pageWidths;
+    private final float[] pageHeights;
+    private final String fingerprint;
+    // From the document information dictionary; null when absent.
+    private final String title;
+    private final String author;
+
+    // PdfBox documents and stock renderers are single-threaded, so instead of serializing all
+    // rendering behind one lock, each worker borrows its own independent Engine. Engines are
+    // opened lazily, up to maxEngines, so a renderer that's only ever used from one thread
+    // (thumbnails, save loops) still only pays for a single open. Guarded by `this`.
+    private final ArrayDeque<Engine> idleEngines = new ArrayDeque<>();
+    private int engineCount;
+    private boolean closed;
 
     public PdfBoxRenderer(Context context, ParcelFileDescriptor pfd) throws IOException {
-        // Read the source once, up front, so the stock renderer and PdfBox-Android each get
-        // their own independent file handle -- sharing one ParcelFileDescriptor between two
-        // decoders would race on its single underlying read position.
-        byte[] bytes = readAllBytes(pfd);
+        appContext = context.getApplicationContext();
+        sourcePfd = pfd.dup();
+        Engine first = null;
+        try {
+            first = new Engine(appContext, sourcePfd);
+            pageCount = first.document.getNumberOfPages();
+            annotationCensus = new byte[pageCount];
+            pageWidths = new float[pageCount];
+            pageHeights = new float[pageCount];
+            scanPages(first.document, annotationCensus, pageWidths, pageHeights);
+            fingerprint = computeFingerprint(sourcePfd);
+            PDDocumentInformation info = first.document.getDocumentInformation();
+            title = emptyToNull(info.getTitle());
+            author = emptyToNull(info.getAuthor());
+        } catch (IOException | RuntimeException e) {
+            if (first != null) {
+                first.close();
+            }
+            closeQuietly(sourcePfd);
+            throw e;
+        }
+        idleEngines.add(first);
+        engineCount = 1;
+        maxEngines = computeMaxEngines(appContext);
+    }
+
+    private static int computeMaxEngines(Context context) {
+        int byCores = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am == null) {
+            return Math.min(byCores, 2);
+        }
+        if (am.isLowRamDevice()) {
+            return 1;
+        }
+        int byMemory = Math.max(1, am.getMemoryClass() / ENGINE_BUDGET_MB);
+        return Math.min(byCores, byMemory);
+    }
+
+    // One walk over the page tree at open fills in everything we need per page, since
+    // document.getPage(index) walks the tree from the root on every call:
+    //  - the page size, using CropBox + /Rotate exactly like PDFRenderer.renderImage()'s own
+    //    sizing (it swaps width/height for 90/270deg pages), so the content bitmap we create and
+    //    the annotation overlay PdfBox-Android produces always end up pixel-aligned;
+    //  - which annotation classes the page has. Most pages in typical documents carry no /Annots
+    //    at all, and an annotation pass costs a full-page ARGB overlay (plus a full copy of the
+    //    content for the highlight multiply) even when there's nothing to draw, so renderPage
+    //    runs only the passes a page needs. This reads the raw /Annots dictionaries rather than
+    //    building PDAnnotation objects, to keep open cheap.
+    private static void scanPages(PDDocument document, byte[] census, float[] widths, float[] heights) {
+        int index = 0;
+        for (PDPage page : document.getPages()) {
+            if (index >= census.length) break;
+            PDRectangle box = page.getCropBox();
+            int rotation = page.getRotation();
+            boolean sideways = rotation == 90 || rotation == 270;
+            widths[index] = sideways ? box.getHeight() : box.getWidth();
+            heights[index] = sideways ? box.getWidth() : box.getHeight();
+
+            census[index] = annotationFlags(page);
+            index++;
+        }
+    }
+
+    private static byte annotationFlags(PDPage page) {
+        COSBase annots = page.getCOSObject().getDictionaryObject(COSName.ANNOTS);
+        if (!(annots instanceof COSArray)) {
+            return 0;
+        }
+        byte flags = 0;
+        for (COSBase entry : (COSArray) annots) {
+            COSBase annotation = entry instanceof COSObject ? ((COSObject) entry).getObject() : entry;
+            if (!(annotation instanceof COSDictionary)) continue;
+            String subtype = ((COSDictionary) annotation).getNameAsString(COSName.SUBTYPE);
+            flags |= PDAnnotationTextMarkup.SUB_TYPE_HIGHLIGHT.equals(subtype)
+                    ? HAS_HIGHLIGHTS : HAS_OTHER_ANNOTATIONS;
+        }
+        return flags;
+    }
+
+    /**
+     * Renders just the first page, scaled to fit within maxWidth x maxHeight, without building a
+     * PdfBoxRenderer: no engine pool, no whole-document page scan and no fingerprint. The page
+     * content comes from the stock renderer reading {@code pfd} in place; PdfBox only parses the
+     * xref and page 0's dictionary, and its annotation passes run only if page 0 has /Annots.
+     * For library covers. Returns null for an empty document; bitmap comes from BitmapPool.
+     */
+    public static Bitmap renderFirstPage(Context context, ParcelFileDescriptor pfd,
+                                         int maxWidth, int maxHeight) throws IOException {
+        PDDocument document = openDocument(context.getApplicationContext(), pfd.dup());
+        try {
+            if (document.getNumberOfPages() == 0) {
+                return null;
+            }
+            PDPage page = document.getPage(0);
+            PDRectangle box = page.getCropBox();
+            int rotation = page.getRotation();
+            boolean sideways = rotation == 90 || rotation == 270;
+            float widthPoints = sideways ? box.getHeight() : box.getWidth();
+            float heightPoints = sideways ? box.getWidth() : box.getHeight();
+            float scale = Math.min(maxWidth / widthPoints, maxHeight / heightPoints);
+            int widthPx = (int) Math.max(Math.floor(widthPoints * scale), 1);
+            int heightPx = (int) Math.max(Math.floor(heightPoints * scale), 1);
+
+            Bitmap content = BitmapPool.shared().get(widthPx, heightPx);
+            content.eraseColor(Color.WHITE);
+            ParcelFileDescriptor contentPfd = pfd.dup();
+            try {
+                try (android.graphics.pdf.PdfRenderer stock = new android.graphics.pdf.PdfRenderer(contentPfd);
+                     android.graphics.pdf.PdfRenderer.Page stockPage = stock.openPage(0)) {
+                    stockPage.render(content, null, null, android.graphics.pdf.PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+                }
 
+                byte annotations = annotationFlags(page);
+                if (annotations != 0) {
+                    compositeAnnotations(new AnnotationOnlyPDFRenderer(document), 0, scale,
+                            content, 0, 0, annotations);
+                }
+            } catch (IOException | RuntimeException e) {
+                BitmapPool.shared().put(content);
+                throw e;
+            } finally {
+                closeQuietly(contentPfd);
+            }
+            return content;
+        } finally {
+            closeQuietly(document);
+        }
+    }
+
+    // Identifies the document's bytes, not its location: the same file reached through a
+    // different path or URI gets the same fingerprint. Hashes the size plus the head and tail
+    // of the file (where the header, xref and trailer /ID live), so it costs two small reads
+    // even for huge files. That detects appends -- every incremental update -- and any change
+    // to the size, head or tail; an edit in the middle that keeps the size exactly isn't seen.
+    private static String computeFingerprint(ParcelFileDescriptor pfd) throws IOException {
         try {
-            document = PDDocument.load(new ByteArrayInputStream(bytes));
+            long size = Os.fstat(pfd.getFileDescriptor()).st_size;
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(Long.toString(size).getBytes(StandardCharsets.US_ASCII));
+            byte[] buffer = new byte[(int) Math.min(FINGERPRINT_SAMPLE_BYTES, size)];
+            digest.update(buffer, 0, preadFully(pfd, buffer, 0));
+            digest.update(buffer, 0, preadFully(pfd, buffer, Math.max(0, size - buffer.length)));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (ErrnoException e) {
+            throw new IOException("Could not fingerprint document", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int preadFully(ParcelFileDescriptor pfd, byte[] buffer, long offset)
+            throws ErrnoException, InterruptedIOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = Os.pread(pfd.getFileDescriptor(), buffer, total, buffer.length - total, offset + total);
+            if (n <= 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    /** Content-based identity of the document, stable across paths and app restarts. */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /** The document's /Title, or null if it has none. */
+    public String getTitle() {
+        return title;
+    }
+
+    /** The document's /Author, or null if it has none. */
+    public String getAuthor() {
+        return author;
+    }
+
+    /** True if any page has annotations. */
+    public boolean hasAnyAnnotations() {
+        for (byte flags : annotationCensus) {
+            if (flags != 0) return true;
+        }
+        return false;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    /** Whether the page has any annotations or form widgets, per the census taken at open. */
+    public boolean hasAnnotations(int index) {
+        return annotationCensus[index] != 0;
+    }
+
+    /** How many pages this renderer can rasterize concurrently; size worker pools to this. */
+    public int getMaxParallelism() {
+        return maxEngines;
+    }
+
+    // Mirrors PDDocument.load(File)'s own parse path, just fed from a descriptor-backed source
+    // instead of a File, with scratch data bounded in memory and spilled to cacheDir beyond that.
+    // Takes ownership of pfd. Also used by the writers that edit a document with PdfBox.
+    static PDDocument openDocument(Context context, ParcelFileDescriptor pfd) throws IOException {
+        FileChannelRandomAccessRead source = new FileChannelRandomAccessRead(pfd);
+        ScratchFile scratchFile = null;
+        try {
+            scratchFile = new ScratchFile(MemoryUsageSetting.setupMixed(SCRATCH_MAIN_MEMORY_BYTES)
+                    .setTempDir(context.getCacheDir()));
+            PDFParser parser = new PDFParser(source, scratchFile);
+            parser.parse();
+            return parser.getPDDocument();
         } catch (InvalidPasswordException e) {
+            closeQuietly(scratchFile);
+            closeQuietly(source);
             // Preserve existing catch(SecurityException) call sites unchanged.
             throw new SecurityException(e.getMessage(), e);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(scratchFile);
+            closeQuietly(source);
+            throw e;
         }
-        annotationRenderer = new AnnotationOnlyPDFRenderer(document);
-
-        contentTempFile = File.createTempFile("pdfbox_content_", ".pdf", context.getCacheDir());
-        try (FileOutputStream fos = new FileOutputStream(contentTempFile)) {
-            fos.write(bytes);
-        }
-        contentPfd = ParcelFileDescriptor.open(contentTempFile, ParcelFileDescriptor.MODE_READ_ONLY);
-        contentRenderer = new android.graphics.pdf.PdfRenderer(contentPfd);
     }
 
-    private static byte[] readAllBytes(ParcelFileDescriptor pfd) throws IOException {
-        try (FileInputStream fis = new FileInputStream(pfd.getFileDescriptor())) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[8192];
-            int len;
-            while ((len = fis.read(buffer)) > 0) {
-                baos.write(buffer, 0, len);
-            }
-            return baos.toByteArray();
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing " + closeable, e);
         }
     }
 
     public int getPageCount() {
-        return document.getNumberOfPages();
+        return pageCount;
     }
 
-    // Uses CropBox + accounts for /Rotate, matching PDFRenderer.renderImage()'s own internal
-    // sizing exactly (it swaps width/height for 90/270deg pages) so the content bitmap we
-    // create and the annotation overlay PdfBox-Android produces always end up pixel-aligned.
     public float getPageWidthPoints(int index) {
-        com.tom_roush.pdfbox.pdmodel.PDPage page = document.getPage(index);
-        com.tom_roush.pdfbox.pdmodel.common.PDRectangle box = page.getCropBox();
-        int rotation = page.getRotation();
-        return (rotation == 90 || rotation == 270) ? box.getHeight() : box.getWidth();
+        return pageWidths[index];
     }
 
     public float getPageHeightPoints(int index) {
-        com.tom_roush.pdfbox.pdmodel.PDPage page = document.getPage(index);
-        com.tom_roush.pdfbox.pdmodel.common.PDRectangle box = page.getCropBox();
-        int rotation = page.getRotation();
-        return (rotation == 90 || rotation == 270) ? box.getWidth() : box.getHeight();
+        return pageHeights[index];
     }
 
-    public synchronized Bitmap renderPage(int index, float scale) throws IOException {
-        // Matches PDFRenderer's own internal width/height rounding exactly, so the
-        // annotation overlay always comes out pixel-aligned with the content bitmap.
-        int widthPx = (int) Math.max(Math.floor(getPageWidthPoints(index) * scale), 1);
-        int heightPx = (int) Math.max(Math.floor(getPageHeightPoints(index) * scale), 1);
+    /**
+     * Rotated widths of every page in points, as in getPageWidthPoints(). A copy, so callers
+     * can lay out the whole document (e.g. size list items) before any page is rendered.
+     */
+    public float[] getPageWidthsPoints() {
+        return pageWidths.clone();
+    }
 
-        Bitmap content = Bitmap.createBitmap(widthPx, heightPx, Bitmap.Config.ARGB_8888);
-        content.eraseColor(Color.WHITE);
-        android.graphics.pdf.PdfRenderer.Page page = contentRenderer.openPage(index);
-        page.render(content, null, null, android.graphics.pdf.PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
-        page.close();
+    /** Rotated heights of every page in points; see getPageWidthsPoints(). */
+    public float[] getPageHeightsPoints() {
+        return pageHeights.clone();
+    }
 
-        Canvas canvas = new Canvas(content);
+    /**
+     * Renders one page. The bitmap comes from BitmapPool.shared(); callers that are done with
+     * it may hand it back there instead of recycling it.
+     */
+    public Bitmap renderPage(int index, float scale) throws IOException {
+        Engine engine = acquireEngine();
+        try {
+            return engine.renderPage(index, pixelWidth(index, scale), pixelHeight(index, scale),
+                    scale, annotationCensus[index]);
+        } finally {
+            releaseEngine(engine);
+        }
+    }
 
-        annotationRenderer.setAnnotationsFilter(HIGHLIGHT_FILTER);
-        Bitmap highlights = annotationRenderer.renderImage(index, scale, ImageType.ARGB);
-        // PorterDuff.Mode.MULTIPLY multiplies the ALPHA channels too (resultAlpha = Sa * Da),
-        // unlike the standard CSS/PDF "Multiply" blend mode -- compositing it directly onto
-        // `content` would zero out content's alpha (and colors) everywhere the highlight
-        // overlay is transparent, wiping out the rest of the page. So the multiply is done on
-        // a scratch copy first; that copy's resulting alpha exactly matches the highlight's own
-        // alpha (since `content` is fully opaque going in), so compositing the scratch copy back
-        // with normal SRC_OVER only affects the highlighted region and leaves everything else untouched.
-        Bitmap multiplied = content.copy(Bitmap.Config.ARGB_8888, true);
-        new Canvas(multiplied).drawBitmap(highlights, 0, 0, MULTIPLY_PAINT);
-        highlights.recycle();
-        canvas.drawBitmap(multiplied, 0, 0, null);
-        multiplied.recycle();
-
-        annotationRenderer.setAnnotationsFilter(NON_HIGHLIGHT_FILTER);
-        Bitmap otherAnnotations = annotationRenderer.renderImage(index, scale, ImageType.ARGB);
-        canvas.drawBitmap(otherAnnotations, 0, 0, null);
-        otherAnnotations.recycle();
-
-        return content;
-    }
-
-    public synchronized void close() {
+    /**
+     * Fast preview of a page: page content only via the stock renderer, with no annotation
+     * passes, meant to be rendered at a small scale and shown upscaled until the full
+     * renderPage() result arrives. Bitmap comes from BitmapPool.shared(), like renderPage().
+     */
+    public Bitmap renderPreview(int index, float scale) throws IOException {
+        Engine engine = acquireEngine();
         try {
-            document.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Error closing PDDocument", e);
+            return engine.renderContent(index, pixelWidth(index, scale), pixelHeight(index, scale));
+        } finally {
+            releaseEngine(engine);
         }
-        contentRenderer.close();
+    }
+
+    /**
+     * Renders only {@code region} of the page as it would appear in renderPage(index, scale),
+     * where {@code region} is in that full render's pixel coordinates. Used for zoomed-in views:
+     * memory is bounded by the tile size, not the zoom factor. Bitmap comes from BitmapPool.
+     */
+    public Bitmap renderTile(int index, float scale, Rect region) throws IOException {
+        Engine engine = acquireEngine();
         try {
-            contentPfd.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Error closing content ParcelFileDescriptor", e);
+            return engine.renderTile(index, scale, region, annotationCensus[index]);
+        } finally {
+            releaseEngine(engine);
+        }
+    }
+
+    private Engine acquireEngine() throws IOException {
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new IOException("PdfBoxRenderer is closed");
+                }
+                Engine idle = idleEngines.pollFirst();
+                if (idle != null) {
+                    return idle;
+                }
+                if (engineCount < maxEngines) {
+                    engineCount++;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for a render engine");
+                }
+            }
+        }
+        // Opened outside the lock: parsing takes a while, and other workers may hand their
+        // engines back (and waiters pick them up) in the meantime.
+        try {
+            Engine engine = new Engine(appContext, sourcePfd);
+            Log.d(TAG, "Opened additional render engine (max " + maxEngines + ")");
+            return engine;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                engineCount--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    // Matches PDFRenderer's own internal width/height rounding exactly, so the annotation
+    // overlay always comes out pixel-aligned with the content bitmap.
+    private int pixelWidth(int index, float scale) {
+        return (int) Math.max(Math.floor(pageWidths[index] * scale), 1);
+    }
+
+    private int pixelHeight(int index, float scale) {
+        return (int) Math.max(Math.floor(pageHeights[index] * scale), 1);
+    }
+
+    private void releaseEngine(Engine engine) {
+        synchronized (this) {
+            if (!closed) {
+                // LIFO, so a lightly loaded renderer keeps reusing its warmest engine.
+                idleEngines.addFirst(engine);
+                notifyAll();
+                return;
+            }
+            engineCount--;
+        }
+        engine.close();
+    }
+
+    public void close() {
+        List<Engine> toClose;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            toClose = new ArrayList<>(idleEngines);
+            engineCount -= idleEngines.size();
+            idleEngines.clear();
+            notifyAll();
         }
-        if (contentTempFile != null) {
-            contentTempFile.delete();
+        // Engines still rendering are closed by releaseEngine() once they finish.
+        for (Engine engine : toClose) {
+            engine.close();
+        }
+        closeQuietly(sourcePfd);
+    }
+
+    // Draws the page's annotation passes onto `content`, which holds the page content rendered
+    // at `scale` with `offsetX`/`offsetY` as its top-left corner in full-page pixels.
+    private static void compositeAnnotations(AnnotationOnlyPDFRenderer annotationRenderer, int index,
+                                             float scale, Bitmap content, int offsetX, int offsetY,
+                                             byte annotations) throws IOException {
+        if (annotations == 0) {
+            return;
+        }
+        int widthPx = content.getWidth();
+        int heightPx = content.getHeight();
+        BitmapPool pool = BitmapPool.shared();
+
+        Canvas canvas = new Canvas(content);
+        // Both overlays and the multiply scratch are drawn into pooled bitmaps and handed
+        // straight back, so steady-state rendering allocates no new full-page bitmaps.
+        Bitmap overlay = pool.get(widthPx, heightPx);
+        try {
+            if ((annotations & HAS_HIGHLIGHTS) != 0) {
+                annotationRenderer.setAnnotationsFilter(HIGHLIGHT_FILTER);
+                annotationRenderer.renderInto(index, scale, overlay, offsetX, offsetY);
+                // PorterDuff.Mode.MULTIPLY multiplies the ALPHA channels too (resultAlpha = Sa * Da),
+                // unlike the standard CSS/PDF "Multiply" blend mode -- compositing it directly onto
+                // `content` would zero out content's alpha (and colors) everywhere the highlight
+                // overlay is transparent, wiping out the rest of the page. So the multiply is done on
+                // a scratch copy first; that copy's resulting alpha exactly matches the highlight's own
+                // alpha (since `content` is fully opaque going in), so compositing the scratch copy back
+                // with normal SRC_OVER only affects the highlighted region and leaves everything else untouched.
+                Bitmap multiplied = pool.get(widthPx, heightPx);
+                Canvas scratch = new Canvas(multiplied);
+                scratch.drawBitmap(content, 0, 0, COPY_PAINT);
+                scratch.drawBitmap(overlay, 0, 0, MULTIPLY_PAINT);
+                canvas.drawBitmap(multiplied, 0, 0, null);
+                pool.put(multiplied);
+            }
+
+            if ((annotations & HAS_OTHER_ANNOTATIONS) != 0) {
+                annotationRenderer.setAnnotationsFilter(NON_HIGHLIGHT_FILTER);
+                annotationRenderer.renderInto(index, scale, overlay, offsetX, offsetY);
+                canvas.drawBitmap(overlay, 0, 0, null);
+            }
+        } finally {
+            pool.put(overlay);
+        }
+    }
+
+    /**
+     * One independent rendering pipeline: its own parsed PDDocument and annotation renderer,
+     * and its own stock PdfRenderer, each on its own dup() of the source descriptor.
+     * Only ever used by one thread at a time.
+     */
+    private static final class Engine {
+        final PDDocument document;
+        final AnnotationOnlyPDFRenderer annotationRenderer;
+        final android.graphics.pdf.PdfRenderer contentRenderer;
+        final ParcelFileDescriptor contentPfd;
+
+        Engine(Context context, ParcelFileDescriptor pfd) throws IOException {
+            // Each side reads the file in place from its own dup() of the descriptor, so opening
+            // costs neither a heap copy nor a temp-file copy of the document. dup()'d descriptors
+            // share one file offset, which is why the PdfBox side only ever uses positional reads
+            // (see FileChannelRandomAccessRead).
+            document = openDocument(context, pfd.dup());
+            annotationRenderer = new AnnotationOnlyPDFRenderer(document);
+
+            ParcelFileDescriptor dupPfd = null;
+            try {
+                dupPfd = pfd.dup();
+                contentRenderer = new android.graphics.pdf.PdfRenderer(dupPfd);
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(dupPfd);
+                closeQuietly(document);
+                throw e;
+            }
+            contentPfd = dupPfd;
+        }
+
+        Bitmap renderContent(int index, int widthPx, int heightPx) {
+            Bitmap content = BitmapPool.shared().get(widthPx, heightPx);
+            content.eraseColor(Color.WHITE);
+            android.graphics.pdf.PdfRenderer.Page page = contentRenderer.openPage(index);
+            page.render(content, null, null, android.graphics.pdf.PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+            page.close();
+            return content;
+        }
+
+        Bitmap renderPage(int index, int widthPx, int heightPx, float scale, byte annotations)
+                throws IOException {
+            Bitmap content = renderContent(index, widthPx, heightPx);
+            compositeAnnotations(annotationRenderer, index, scale, content, 0, 0, annotations);
+            return content;
+        }
+
+        // Renders just `region` (in pixels of the page rendered at `scale`) into a bitmap of the
+        // region's size: the stock renderer via a translate+scale transform Matrix, and the
+        // annotation passes via the matching canvas offset, so the result lines up exactly with
+        // the same area of a full renderPage(index, scale).
+        Bitmap renderTile(int index, float scale, Rect region, byte annotations) throws IOException {
+            Bitmap tile = BitmapPool.shared().get(region.width(), region.height());
+            tile.eraseColor(Color.WHITE);
+            Matrix transform = new Matrix();
+            transform.setScale(scale, scale);
+            transform.postTranslate(-region.left, -region.top);
+            android.graphics.pdf.PdfRenderer.Page page = contentRenderer.openPage(index);
+            page.render(tile, null, transform, android.graphics.pdf.PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+            page.close();
+
+            compositeAnnotations(annotationRenderer, index, scale, tile, region.left, region.top, annotations);
+            return tile;
+        }
+
+        void close() {
+            try {
+                document.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing PDDocument", e);
+            }
+            contentRenderer.close();
+            try {
+                contentPfd.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing content ParcelFileDescriptor", e);
+            }
         }
     }
 }
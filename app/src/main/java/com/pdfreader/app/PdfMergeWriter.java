@@ -0,0 +1,365 @@
+package com.pdfreader.app;
+
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSBase;
+import com.tom_roush.pdfbox.cos.COSBoolean;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSFloat;
+import com.tom_roush.pdfbox.cos.COSInteger;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSObject;
+import com.tom_roush.pdfbox.cos.COSStream;
+import com.tom_roush.pdfbox.cos.COSString;
+import com.tom_roush.pdfbox.pdfwriter.COSWriter;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges PDFs by copying their pages object for object into one output file, written as it
+ * goes. Each input is appended and closed before the next one is opened, so memory holds one
+ * input's object graph at a time no matter how many files are merged; stream data is copied
+ * still encoded, straight from the input to the output.
+ *
+ * Font programs, images and other self-contained streams that are byte-identical across (or
+ * within) inputs are written once and shared, so merging documents from the same source
+ * doesn't repeat their fonts.
+ *
+ * Only pages and what they reference are copied -- not outlines, forms or the inputs' other
+ * document-level structures.
+ */
+final class PdfMergeWriter implements Closeable {
+
+    private static final int CATALOG = 1;
+    private static final int PAGES = 2;
+
+    private final CountingOutputStream out;
+    // Byte offset of each object, by object number (index 0 unused).
+    private long[] offsets = new long[1024];
+    private int nextNumber = PAGES + 1;
+    // Output numbers of the pages written so far, in order.
+    private int[] pageNumbers = new int[256];
+    private int pageCount;
+    // Digest of a self-contained stream -> its object number, across all inputs.
+    private final Map<String, Integer> sharedStreams = new HashMap<>();
+
+    // Per input: input object -> output number, and objects numbered but not yet written.
+    private final Map<COSBase, Integer> numbers = new IdentityHashMap<>();
+    private final ArrayDeque<COSBase> pending = new ArrayDeque<>();
+    private Set<COSBase> inputPages;
+    private COSBase inputCatalog;
+
+    PdfMergeWriter(File destination) throws IOException {
+        out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(destination), 64 * 1024));
+        write("%PDF-1.7\n");
+        // Binary marker, so transfer tools treat the file as binary.
+        out.write(new byte[] {'%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, '\n'});
+    }
+
+    /** Appends every page of {@code document}. The caller closes the document afterwards. */
+    void append(PDDocument document) throws IOException {
+        numbers.clear();
+        pending.clear();
+        inputPages = Collections.newSetFromMap(new IdentityHashMap<>());
+        inputCatalog = document.getDocumentCatalog().getCOSObject();
+
+        // Numbered up front, so a link annotation pointing at a later page shares its number
+        // instead of dragging that page -- and its old page tree -- in through the reference.
+        for (PDPage page : document.getPages()) {
+            PageTreeWriter.pinInheritedAttributes(page);
+            COSDictionary dict = page.getCOSObject();
+            inputPages.add(dict);
+            addPage(number(dict));
+        }
+        while (!pending.isEmpty()) {
+            COSBase object = pending.poll();
+            writeObject(numbers.get(object), object);
+        }
+        numbers.clear();
+        inputPages = null;
+        inputCatalog = null;
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    /** Writes the page tree, catalog, cross-reference table and trailer. */
+    void finish() throws IOException {
+        startObject(PAGES);
+        write("<< /Type /Pages /Count " + pageCount + " /Kids [");
+        for (int i = 0; i < pageCount; i++) {
+            write((i == 0 ? "" : " ") + pageNumbers[i] + " 0 R");
+        }
+        write("] >>\nendobj\n");
+
+        startObject(CATALOG);
+        write("<< /Type /Catalog /Pages " + PAGES + " 0 R >>\nendobj\n");
+
+        long xref = out.count;
+        StringBuilder table = new StringBuilder();
+        table.append("xref\n0 ").append(nextNumber).append('\n');
+        table.append("0000000000 65535 f \n");
+        for (int i = 1; i < nextNumber; i++) {
+            table.append(String.format(Locale.US, "%010d 00000 n \n", offsets[i]));
+            if (table.length() > 64 * 1024) {
+                write(table.toString());
+                table.setLength(0);
+            }
+        }
+        table.append("trailer\n<< /Size ").append(nextNumber)
+                .append(" /Root ").append(CATALOG).append(" 0 R >>\n")
+                .append("startxref\n").append(xref).append("\n%%EOF\n");
+        write(table.toString());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void addPage(int number) {
+        if (pageCount == pageNumbers.length) {
+            pageNumbers = Arrays.copyOf(pageNumbers, pageCount * 2);
+        }
+        pageNumbers[pageCount++] = number;
+    }
+
+    /** Output number of an input object, numbering and queueing it on first sight. */
+    private int number(COSBase object) throws IOException {
+        Integer number = numbers.get(object);
+        if (number != null) return number;
+
+        String digest = object instanceof COSStream ? sharedStreamDigest((COSStream) object) : null;
+        if (digest != null) {
+            Integer shared = sharedStreams.get(digest);
+            if (shared != null) {
+                numbers.put(object, shared);
+                return shared;
+            }
+        }
+        number = nextNumber++;
+        numbers.put(object, number);
+        pending.add(object);
+        if (digest != null) {
+            sharedStreams.put(digest, number);
+        }
+        return number;
+    }
+
+    private void writeObject(int number, COSBase object) throws IOException {
+        startObject(number);
+        if (object instanceof COSStream) {
+            COSStream stream = (COSStream) object;
+            int lengthNumber = nextNumber++;
+            writeDictionary(stream, lengthNumber, out);
+            write(" stream\n");
+            long start = out.count;
+            try (InputStream data = stream.createRawInputStream()) {
+                copy(data, out);
+            }
+            long length = out.count - start;
+            write("\nendstream\nendobj\n");
+            startObject(lengthNumber);
+            write(length + "\nendobj\n");
+        } else {
+            writeValue(object, out);
+            write("\nendobj\n");
+        }
+    }
+
+    /** Writes {@code dict}; a stream's dictionary gets {@code lengthNumber} as its /Length. */
+    private void writeDictionary(COSDictionary dict, int lengthNumber, OutputStream target)
+            throws IOException {
+        boolean isStream = lengthNumber > 0;
+        boolean isPage = inputPages != null && inputPages.contains(dict);
+        target.write("<<".getBytes(StandardCharsets.US_ASCII));
+        for (Map.Entry<COSName, COSBase> entry : dict.entrySet()) {
+            COSName key = entry.getKey();
+            if (isStream && key.equals(COSName.LENGTH)) continue;
+            target.write(' ');
+            key.writePDF(target);
+            target.write(' ');
+            if (isPage && key.equals(COSName.PARENT)) {
+                target.write((PAGES + " 0 R").getBytes(StandardCharsets.US_ASCII));
+            } else {
+                writeValue(entry.getValue(), target);
+            }
+        }
+        if (isStream) {
+            // Written after the data, once it's been counted.
+            target.write((" /Length " + lengthNumber + " 0 R").getBytes(StandardCharsets.US_ASCII));
+        }
+        target.write(" >>".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void writeValue(COSBase value, OutputStream target) throws IOException {
+        if (value instanceof COSObject) {
+            COSBase resolved = ((COSObject) value).getObject();
+            writeReference(resolved, target);
+        } else if (value instanceof COSStream) {
+            // PdfBox-created streams can sit directly in a dictionary; streams are always
+            // indirect in a file.
+            writeReference(value, target);
+        } else if (value instanceof COSDictionary) {
+            writeDictionary((COSDictionary) value, 0, target);
+        } else if (value instanceof COSArray) {
+            target.write('[');
+            COSArray array = (COSArray) value;
+            for (int i = 0; i < array.size(); i++) {
+                if (i > 0) target.write(' ');
+                writeValue(array.get(i), target);
+            }
+            target.write(']');
+        } else if (value instanceof COSName) {
+            ((COSName) value).writePDF(target);
+        } else if (value instanceof COSString) {
+            COSWriter.writeString((COSString) value, target);
+        } else if (value instanceof COSInteger) {
+            ((COSInteger) value).writePDF(target);
+        } else if (value instanceof COSFloat) {
+            ((COSFloat) value).writePDF(target);
+        } else if (value instanceof COSBoolean) {
+            ((COSBoolean) value).writePDF(target);
+        } else {
+            target.write("null".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private void writeReference(COSBase resolved, OutputStream target) throws IOException {
+        // A reference up to the input's catalog or its page tree would copy the whole input;
+        // those are the only structures that lead there, and they're replaced on output.
+        if (resolved == null || resolved == inputCatalog || isPageTreeNode(resolved)) {
+            target.write("null".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        target.write((number(resolved) + " 0 R").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static boolean isPageTreeNode(COSBase object) {
+        return object instanceof COSDictionary
+                && COSName.PAGES.equals(((COSDictionary) object).getCOSName(COSName.TYPE));
+    }
+
+    /**
+     * Digest identifying a stream whose dictionary refers to nothing else -- font programs,
+     * most images, ICC profiles -- so identical copies can share one object. Null for other
+     * streams, which aren't shared.
+     */
+    private String sharedStreamDigest(COSStream stream) throws IOException {
+        if (!isSelfContained(stream)) return null;
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        ByteArrayOutputStream dict = new ByteArrayOutputStream();
+        for (Map.Entry<COSName, COSBase> entry : stream.entrySet()) {
+            if (entry.getKey().equals(COSName.LENGTH)) continue;
+            entry.getKey().writePDF(dict);
+            dict.write(' ');
+            writeValue(entry.getValue(), dict);
+            dict.write(' ');
+        }
+        md.update(dict.toByteArray());
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream data = stream.createRawInputStream()) {
+            int n;
+            while ((n = data.read(buffer)) != -1) {
+                md.update(buffer, 0, n);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format(Locale.US, "%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static boolean isSelfContained(COSBase value) {
+        if (value instanceof COSObject) return false;
+        if (value instanceof COSDictionary) {
+            for (COSBase item : ((COSDictionary) value).getValues()) {
+                if (item instanceof COSStream || !isSelfContained(item)) return false;
+            }
+        } else if (value instanceof COSArray) {
+            for (COSBase item : (COSArray) value) {
+                if (!isSelfContained(item)) return false;
+            }
+        }
+        return true;
+    }
+
+    private void startObject(int number) throws IOException {
+        if (number >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, number + 1));
+        }
+        offsets[number] = out.count;
+        write(number + " 0 obj\n");
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+    }
+
+    /** Tracks the byte offset for the cross-reference table. */
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -15,11 +15,7 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Memory-efficient PDF page adapter that only renders visible pages
@@ -27,15 +23,31 @@ import java.util.concurrent.Executors;
 public class PdfPageAdapter extends RecyclerView.Adapter<PdfPageAdapter.PageViewHolder> {
 
     private static final String TAG = "PdfPageAdapter";
+    // Previews render at 1/PREVIEW_DOWNSCALE of full width (1/16 of the pixels), content only.
+    private static final int PREVIEW_DOWNSCALE = 4;
+    // Part of the on-disk page key. Annotations stored in the PDF change its fingerprint, and the
+    // reader's own highlights are drawn live by HighlightOverlayView rather than baked into page
+    // bitmaps, so this only needs bumping when the compositing itself changes.
+    private static final int ANNOTATION_REVISION = 1;
     
     private final Context context;
     private final PdfBoxRenderer pdfRenderer;
     private final int pageCount;
+    // Rotated page sizes in points for every page, so items get their final height at bind
+    // time instead of jumping when the render arrives
+    private final float[] pageWidths;
+    private final float[] pageHeights;
     private final int screenWidth;
-    private final Map<Integer, Bitmap> bitmapCache;
-    private final ExecutorService executor;
+    // Width the page images are laid out at, known once the RecyclerView has been measured
+    private int itemWidth;
+    private final int previewWidth;
+    private final PageBitmapCache bitmapCache;
+    private final DiskPageCache diskCache;
+    // Identifies this document's pages in the shared cache. The content fingerprint, so every
+    // screen and reader instance showing the same document shares its rendered pages.
+    private final String cacheKey;
+    private final PageRenderScheduler scheduler;
     private final Handler mainHandler;
-    private static final int MAX_CACHE_SIZE = 5; // Only cache 5 pages
     private String pdfPath;
     private com.pdfreader.app.views.HighlightOverlayView.OnHighlightListener highlightListener;
 
@@ -43,9 +55,27 @@ public class PdfPageAdapter extends RecyclerView.Adapter<PdfPageAdapter.PageView
         this.context = context;
         this.pdfRenderer = pdfRenderer;
         this.pageCount = pdfRenderer.getPageCount();
+        this.pageWidths = pdfRenderer.getPageWidthsPoints();
+        this.pageHeights = pdfRenderer.getPageHeightsPoints();
         this.screenWidth = screenWidth - 32;
-        this.bitmapCache = new HashMap<>();
-        this.executor = Executors.newFixedThreadPool(2);
+        this.itemWidth = this.screenWidth;
+        this.previewWidth = Math.max(1, this.screenWidth / PREVIEW_DOWNSCALE);
+        this.bitmapCache = PageBitmapCache.shared(context);
+        this.diskCache = DiskPageCache.shared(context);
+        this.cacheKey = pdfRenderer.getFingerprint();
+        this.scheduler = new PageRenderScheduler(pdfRenderer.getMaxParallelism(), pageCount,
+                new PageRenderScheduler.PageRenderer() {
+                    @Override
+                    public Bitmap render(int page) throws Exception {
+                        return renderAndCache(page);
+                    }
+
+                    @Override
+                    public Bitmap renderPreview(int page) throws Exception {
+                        return renderPreviewAndCache(page);
+                    }
+                },
+                page -> bitmapCache.get(cacheKey, page, this.screenWidth) != null);
         this.mainHandler = new Handler(Looper.getMainLooper());
         Log.d(TAG, "PdfPageAdapter created with " + pageCount + " pages");
     }
@@ -62,6 +92,10 @@ public class PdfPageAdapter extends RecyclerView.Adapter<PdfPageAdapter.PageView
     @Override
     public PageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         Log.d(TAG, "onCreateViewHolder called");
+        int parentWidth = parent.getWidth() - parent.getPaddingLeft() - parent.getPaddingRight();
+        if (parentWidth > 0) {
+            itemWidth = parentWidth;
+        }
         View view = LayoutInflater.from(context).inflate(R.layout.item_pdf_page, parent, false);
         return new PageViewHolder(view);
     }
@@ -84,21 +118,83 @@ public class PdfPageAdapter extends RecyclerView.Adapter<PdfPageAdapter.PageView
         holder.recycle();
     }
 
+    /**
+     * Tells the shared cache and the render scheduler which pages are on screen after a scroll
+     * by {@code dy}, so eviction keeps the nearest pages and prefetch runs ahead of the user.
+     */
+    public void onViewportChanged(int firstVisible, int lastVisible, int dy) {
+        if (firstVisible == RecyclerView.NO_POSITION) return;
+        bitmapCache.setViewport(cacheKey, firstVisible, Math.max(firstVisible, lastVisible));
+        scheduler.onScroll(firstVisible, lastVisible, dy);
+    }
+
+    /**
+     * The best rendering of {@code page} there is in memory -- the full page, else its preview --
+     * or null. Owned by the shared cache, like the bitmaps the list shows.
+     */
+    public Bitmap getCachedPage(int page) {
+        Bitmap bitmap = bitmapCache.get(cacheKey, page, screenWidth);
+        return bitmap != null ? bitmap : bitmapCache.get(cacheKey, page, previewWidth);
+    }
+
+    // Cached pages are left in place: RendererRegistry drops them when the document is finally
+    // closed, and until then they make reopening it instant.
     public void cleanup() {
-        executor.shutdown();
-        for (Bitmap bitmap : bitmapCache.values()) {
-            if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.recycle();
-            }
+        scheduler.shutdown();
+    }
+
+    // Runs on a scheduler worker. Pages go straight into the cache: even if the page has
+    // scrolled away by the time it's done, the render isn't wasted if the user comes back to it.
+    private Bitmap renderAndCache(int pageIndex) throws java.io.IOException {
+        String fingerprint = pdfRenderer.getFingerprint();
+        Bitmap fromDisk = diskCache.get(fingerprint, pageIndex, screenWidth, ANNOTATION_REVISION);
+        if (fromDisk != null) {
+            Log.d(TAG, "Page " + pageIndex + " loaded from disk cache");
+            bitmapCache.put(cacheKey, pageIndex, screenWidth, fromDisk);
+            return fromDisk;
+        }
+
+        float pageWidth = pageWidths[pageIndex];
+        float pageHeight = pageHeights[pageIndex];
+        Log.d(TAG, "Page " + pageIndex + " dimensions: " + pageWidth + "x" + pageHeight);
+
+        float scale = screenWidth / pageWidth;
+        Log.d(TAG, "Rendering page " + pageIndex + " with scale: " + scale);
+
+        Bitmap bitmap = pdfRenderer.renderPage(pageIndex, scale);
+        Log.d(TAG, "Page " + pageIndex + " rendered, bitmap size: " + bitmap.getByteCount() + " bytes");
+        // Written before the page enters the memory cache, which may evict and reuse it.
+        diskCache.put(fingerprint, pageIndex, screenWidth, ANNOTATION_REVISION, bitmap);
+        bitmapCache.put(cacheKey, pageIndex, screenWidth, bitmap);
+        return bitmap;
+    }
+
+    // Time-to-first-pixel matters more than quality here: a small, content-only render (no
+    // PdfBox annotation passes) that the ImageView upscales until the full render replaces it.
+    private Bitmap renderPreviewAndCache(int pageIndex) throws java.io.IOException {
+        Bitmap cached = bitmapCache.get(cacheKey, pageIndex, previewWidth);
+        if (cached != null) {
+            return cached;
+        }
+        // A page on disk decodes faster than a preview renders; skip straight to it.
+        if (diskCache.contains(pdfRenderer.getFingerprint(), pageIndex, screenWidth, ANNOTATION_REVISION)) {
+            return null;
         }
-        bitmapCache.clear();
+        float scale = previewWidth / pageWidths[pageIndex];
+        Bitmap preview = pdfRenderer.renderPreview(pageIndex, scale);
+        bitmapCache.put(cacheKey, pageIndex, previewWidth, preview);
+        return preview;
     }
 
-    class PageViewHolder extends RecyclerView.ViewHolder {
+    class PageViewHolder extends RecyclerView.ViewHolder implements PageRenderScheduler.Callback {
         private final ImageView pageImageView;
         private final ProgressBar progressBar;
         private final com.pdfreader.app.views.HighlightOverlayView highlightOverlay;
         private Bitmap currentBitmap;
+        // True once currentBitmap is the full-quality render rather than a preview
+        private boolean showingFullPage;
+        // Page this holder is waiting on from the scheduler, or NO_POSITION
+        private int requestedPage = RecyclerView.NO_POSITION;
         private String pdfPath;
         private NotesManager notesManager;
 
@@ -123,10 +219,14 @@ public class PdfPageAdapter extends RecyclerView.Adapter<PdfPageAdapter.PageView
         }
 
         public void bind(int position) {
+            cancelPendingRender();
+            showingFullPage = false;
+
             // Show loading
             progressBar.setVisibility(View.VISIBLE);
             pageImageView.setImageBitmap(null);
             pageImageView.setVisibility(View.VISIBLE);
+            reservePageHeight(position);
 
             // Setup highlight overlay
             if (highlightOverlay != null && pdfPath != null) {
@@ -138,89 +238,99 @@ public class PdfPageAdapter extends RecyclerView.Adapter<PdfPageAdapter.PageView
             }
 
             // Check cache first
-            if (bitmapCache.containsKey(position)) {
-                Bitmap cached = bitmapCache.get(position);
-                if (cached != null && !cached.isRecycled()) {
-                    Log.d(TAG, "Using cached bitmap for page " + position + ", size: " + cached.getWidth() + "x" + cached.getHeight());
-                    pageImageView.setImageBitmap(cached);
-                    currentBitmap = cached;
-                    progressBar.setVisibility(View.GONE);
-                    updateOverlaySize(cached);
-                    return;
-                }
+            Bitmap cached = bitmapCache.get(cacheKey, position, screenWidth);
+            if (cached != null) {
+                Log.d(TAG, "Using cached bitmap for page " + position + ", size: " + cached.getWidth() + "x" + cached.getHeight());
+                pageImageView.setImageBitmap(cached);
+                currentBitmap = cached;
+                showingFullPage = true;
+                progressBar.setVisibility(View.GONE);
+                updateOverlaySize(cached);
+                return;
             }
 
-            // Render in background
-            executor.execute(() -> {
-                try {
-                    Log.d(TAG, "Rendering page " + position);
-                    Bitmap bitmap = renderPage(position);
-                    Log.d(TAG, "Page " + position + " rendered: " + bitmap.getWidth() + "x" + bitmap.getHeight() + ", isRecycled: " + bitmap.isRecycled());
-                    mainHandler.post(() -> {
-                        int adapterPosition = getBindingAdapterPosition();
-                        Log.d(TAG, "Posting bitmap for position " + position + ", adapter position: " + adapterPosition);
-                        if (adapterPosition == position && adapterPosition != RecyclerView.NO_POSITION) {
-                            pageImageView.setImageBitmap(bitmap);
-                            pageImageView.setVisibility(View.VISIBLE);
-                            currentBitmap = bitmap;
-                            progressBar.setVisibility(View.GONE);
-                            Log.d(TAG, "Page " + position + " displayed successfully");
-                            
-                            // Update overlay size and load highlights
-                            updateOverlaySize(bitmap);
-                            loadHighlightsForPage(position);
-                            
-                            // Add to cache and manage cache size
-                            cacheBitmap(position, bitmap);
-                        } else {
-                            Log.d(TAG, "Page " + position + " scrolled away, recycling bitmap");
-                            // Page was scrolled away, recycle immediately
-                            if (!bitmap.isRecycled()) {
-                                bitmap.recycle();
-                            }
-                        }
-                    });
-                } catch (Exception e) {
-                    Log.e(TAG, "Error rendering page " + position, e);
-                    mainHandler.post(() -> progressBar.setVisibility(View.GONE));
+            Bitmap preview = bitmapCache.get(cacheKey, position, previewWidth);
+            if (preview != null) {
+                showPreview(preview);
+            }
+
+            // Render in background; visible requests always run ahead of prefetch work
+            requestedPage = position;
+            scheduler.requestVisible(position, this);
+        }
+
+        @Override
+        public void onPagePreview(int page, Bitmap preview) {
+            mainHandler.post(() -> {
+                if (getBindingAdapterPosition() == page && !showingFullPage
+                        && bitmapCache.get(cacheKey, page, previewWidth) == preview) {
+                    showPreview(preview);
                 }
             });
         }
 
-        private Bitmap renderPage(int pageIndex) throws java.io.IOException {
-            float pageWidth = pdfRenderer.getPageWidthPoints(pageIndex);
-            float pageHeight = pdfRenderer.getPageHeightPoints(pageIndex);
-            Log.d(TAG, "Page " + pageIndex + " dimensions: " + pageWidth + "x" + pageHeight);
+        private void showPreview(Bitmap preview) {
+            pageImageView.setImageBitmap(preview);
+            currentBitmap = preview;
+            progressBar.setVisibility(View.GONE);
+            updateOverlaySize(preview);
+        }
 
-            float scale = screenWidth / pageWidth;
-            Log.d(TAG, "Rendering page " + pageIndex + " with scale: " + scale);
+        @Override
+        public void onPageRendered(int page, Bitmap bitmap) {
+            Log.d(TAG, "Page " + page + " rendered: " + bitmap.getWidth() + "x" + bitmap.getHeight() + ", isRecycled: " + bitmap.isRecycled());
+            mainHandler.post(() -> {
+                int adapterPosition = getBindingAdapterPosition();
+                Log.d(TAG, "Posting bitmap for position " + page + ", adapter position: " + adapterPosition);
+                // The cache may already have evicted (and pooled) the bitmap if the page
+                // scrolled far away, so only display it while the cache still owns it.
+                if (adapterPosition == page && adapterPosition != RecyclerView.NO_POSITION
+                        && bitmapCache.get(cacheKey, page, screenWidth) == bitmap) {
+                    requestedPage = RecyclerView.NO_POSITION;
+                    pageImageView.setImageBitmap(bitmap);
+                    pageImageView.setVisibility(View.VISIBLE);
+                    currentBitmap = bitmap;
+                    showingFullPage = true;
+                    progressBar.setVisibility(View.GONE);
+                    Log.d(TAG, "Page " + page + " displayed successfully");
 
-            Bitmap bitmap = pdfRenderer.renderPage(pageIndex, scale);
-            Log.d(TAG, "Page " + pageIndex + " rendered, bitmap size: " + bitmap.getByteCount() + " bytes");
-            return bitmap;
+                    // Update overlay size and load highlights
+                    updateOverlaySize(bitmap);
+                    loadHighlightsForPage(page);
+                } else {
+                    Log.d(TAG, "Page " + page + " scrolled away, left in cache");
+                }
+            });
         }
 
-        private void cacheBitmap(int position, Bitmap bitmap) {
-            // Remove oldest entries if cache is full
-            if (bitmapCache.size() >= MAX_CACHE_SIZE) {
-                // Remove farthest page from current position
-                int farthestKey = -1;
-                int maxDistance = 0;
-                for (int key : bitmapCache.keySet()) {
-                    int distance = Math.abs(key - position);
-                    if (distance > maxDistance) {
-                        maxDistance = distance;
-                        farthestKey = key;
-                    }
-                }
-                if (farthestKey != -1) {
-                    Bitmap removed = bitmapCache.remove(farthestKey);
-                    if (removed != null && !removed.isRecycled()) {
-                        removed.recycle();
-                    }
+        @Override
+        public void onPageFailed(int page, Exception error) {
+            mainHandler.post(() -> {
+                if (getBindingAdapterPosition() == page) {
+                    requestedPage = RecyclerView.NO_POSITION;
+                    progressBar.setVisibility(View.GONE);
                 }
+            });
+        }
+
+        // Gives the image its final height from the page geometry before anything is rendered,
+        // so the list doesn't shift when a page (or its preview) arrives, or when scrolling back
+        // up through pages that were rebound.
+        private void reservePageHeight(int position) {
+            if (pageWidths[position] <= 0) return;
+            ViewGroup.LayoutParams params = pageImageView.getLayoutParams();
+            int height = Math.round(itemWidth * pageHeights[position] / pageWidths[position]);
+            if (params.height != height) {
+                params.height = height;
+                pageImageView.setLayoutParams(params);
+            }
+        }
+
+        private void cancelPendingRender() {
+            if (requestedPage != RecyclerView.NO_POSITION) {
+                scheduler.cancel(requestedPage, this);
+                requestedPage = RecyclerView.NO_POSITION;
             }
-            bitmapCache.put(position, bitmap);
         }
 
         private void updateOverlaySize(Bitmap bitmap) {
@@ -280,13 +390,11 @@ public class PdfPageAdapter extends RecyclerView.Adapter<PdfPageAdapter.PageView
         }
 
         public void recycle() {
-            if (currentBitmap != null && !currentBitmap.isRecycled()) {
-                // Don't recycle cached bitmaps, they might be reused
-                if (!bitmapCache.containsValue(currentBitmap)) {
-                    currentBitmap.recycle();
-                }
-                currentBitmap = null;
-            }
+            cancelPendingRender();
+            // Page bitmaps are owned by the shared cache, which pools them on eviction.
+            pageImageView.setImageBitmap(null);
+            currentBitmap = null;
+            showingFullPage = false;
         }
     }
 }
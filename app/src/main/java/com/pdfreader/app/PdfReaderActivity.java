@@ -1,13 +1,15 @@
 package com.pdfreader.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.ParcelFileDescriptor;
 import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.ImageButton;
@@ -18,8 +20,10 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.OnBackPressedCallback;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
 import androidx.core.content.ContextCompat;
@@ -27,23 +31,29 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.pdfreader.app.HistoryManager;
+import com.pdfreader.app.views.ZoomedPageView;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class PdfReaderActivity extends AppCompatActivity {
 
     private static final String TAG = "PdfReaderActivity";
+    private static final String STATE_EXPORT_JOB = "export_job";
 
     private RecyclerView recyclerView;
     private CoordinatorLayout coordinatorLayout;
     private String pdfPath;
     private String pdfTitle;
     private PdfBoxRenderer pdfRenderer;
-    private ParcelFileDescriptor parcelFileDescriptor;
+    private RendererRegistry.Handle rendererHandle;
     private ReadingProgressManager progressManager;
     private HistoryManager historyManager;
     private NotesManager notesManager;
@@ -55,10 +65,12 @@ public class PdfReaderActivity extends AppCompatActivity {
     private TextView toolbarSubtitle;
     private TextView pageIndicator;
     private View topToolbar;
+    private ZoomedPageView zoomedPageView;
 
 
-    // Resolved file path (content:// URIs are copied to cache)
+    // Local file backing the open document; null when a content:// URI is streamed directly
     private String resolvedFilePath;
+    private final ExecutorService openExecutor = Executors.newSingleThreadExecutor();
 
     // Page tracking
     private int pageCount = 0;
@@ -66,6 +78,8 @@ public class PdfReaderActivity extends AppCompatActivity {
     private Handler handler = new Handler(Looper.getMainLooper());
     private Runnable hideIndicatorRunnable;
     private LinearLayoutManager layoutManager;
+    // Flattened copy being prepared for sharing; kept across configuration changes.
+    private String exportJobId;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -98,6 +112,14 @@ public class PdfReaderActivity extends AppCompatActivity {
             toolbarTitle.setText(pdfTitle);
         }
 
+        if (savedInstanceState != null) {
+            exportJobId = savedInstanceState.getString(STATE_EXPORT_JOB);
+            if (exportJobId != null && !ExportQueue.shared(this).observe(exportJobId, exportListener)) {
+                // Finished and reported while nobody was watching.
+                exportJobId = null;
+            }
+        }
+
         if (pdfPath != null && !pdfPath.isEmpty()) {
             displayPdf();
         } else {
@@ -113,6 +135,7 @@ public class PdfReaderActivity extends AppCompatActivity {
         toolbarSubtitle = findViewById(R.id.toolbar_subtitle);
         pageIndicator = findViewById(R.id.page_indicator);
         topToolbar = findViewById(R.id.top_toolbar);
+        zoomedPageView = findViewById(R.id.zoomed_page);
         
         layoutManager = new LinearLayoutManager(this);
         recyclerView.setLayoutManager(layoutManager);
@@ -167,18 +190,79 @@ public class PdfReaderActivity extends AppCompatActivity {
             startActivity(intent);
         });
 
+        // Double-tapping a page zooms into it; Back or zooming out returns to the list.
+        OnBackPressedCallback closeZoom = new OnBackPressedCallback(false) {
+            @Override
+            public void handleOnBackPressed() {
+                zoomedPageView.dismiss();
+            }
+        };
+        getOnBackPressedDispatcher().addCallback(this, closeZoom);
+        zoomedPageView.setOnDismissListener(() -> closeZoom.setEnabled(false));
+        GestureDetector zoomGesture = new GestureDetector(this, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                if (openZoom(e)) {
+                    closeZoom.setEnabled(true);
+                }
+                return true;
+            }
+        });
+        recyclerView.addOnItemTouchListener(new RecyclerView.SimpleOnItemTouchListener() {
+            @Override
+            public boolean onInterceptTouchEvent(@NonNull RecyclerView rv, @NonNull MotionEvent e) {
+                // Only watches; scrolling and the highlight overlay's gestures carry on as before.
+                zoomGesture.onTouchEvent(e);
+                return false;
+            }
+        });
+
         // Scroll listener for page tracking
         recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
             public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
                 super.onScrolled(recyclerView, dx, dy);
                 updateCurrentPageFromScroll();
+                if (pdfPageAdapter != null) {
+                    pdfPageAdapter.onViewportChanged(layoutManager.findFirstVisibleItemPosition(),
+                            layoutManager.findLastVisibleItemPosition(), dy);
+                }
             }
         });
     }
 
 
-    /** Prefer the resolved local file path (after content:// copy); fall back to the original path. */
+    /**
+     * Opens the page under the double-tap {@code e} (in the list's coordinates) zoomed in, with
+     * the tapped point staying under the finger. Returns false if there's no page there.
+     */
+    private boolean openZoom(MotionEvent e) {
+        if (pdfRenderer == null || pdfPageAdapter == null) return false;
+        View item = recyclerView.findChildViewUnder(e.getX(), e.getY());
+        if (item == null) return false;
+        int position = recyclerView.getChildAdapterPosition(item);
+        View image = item.findViewById(R.id.page_image);
+        if (position == RecyclerView.NO_POSITION || image == null
+                || image.getWidth() <= 0 || image.getHeight() <= 0) {
+            return false;
+        }
+        int[] list = new int[2];
+        int[] page = new int[2];
+        int[] zoomed = new int[2];
+        recyclerView.getLocationInWindow(list);
+        image.getLocationInWindow(page);
+        zoomedPageView.getLocationInWindow(zoomed);
+        float windowX = list[0] + e.getX();
+        float windowY = list[1] + e.getY();
+        float pageX = Math.max(0f, Math.min(1f, (windowX - page[0]) / image.getWidth()));
+        float pageY = Math.max(0f, Math.min(1f, (windowY - page[1]) / image.getHeight()));
+        zoomedPageView.showPage(pdfRenderer, pdfRenderer.getFingerprint(), position,
+                pdfPageAdapter.getCachedPage(position), ZoomedPageView.INITIAL_ZOOM,
+                pageX, pageY, windowX - zoomed[0], windowY - zoomed[1]);
+        return true;
+    }
+
+    /** Prefer the resolved local file path (if any); fall back to the original path. */
     @Nullable
     private String currentDocumentPath() {
         if (resolvedFilePath != null && !resolvedFilePath.isEmpty()) {
@@ -193,14 +277,77 @@ public class PdfReaderActivity extends AppCompatActivity {
     private void shareDocument() {
         if (pdfPath == null) return;
 
+        // Many share targets draw only page content, so annotations and filled-in form fields
+        // would silently disappear there; offer a copy with them drawn into the pages.
+        String source = currentDocumentPath();
+        if (pdfRenderer != null && pdfRenderer.hasAnyAnnotations() && exportJobId == null) {
+            new AlertDialog.Builder(this)
+                    .setTitle("Share PDF")
+                    .setItems(new CharSequence[] {"Share as is", "Share flattened copy"}, (d, which) -> {
+                        if (which == 0) {
+                            sharePdf(pdfPath);
+                        } else {
+                            shareFlattened(source);
+                        }
+                    })
+                    .show();
+            return;
+        }
+        sharePdf(pdfPath);
+    }
+
+    private void shareFlattened(String source) {
+        float[] widths = pdfRenderer.getPageWidthsPoints();
+        float[] heights = pdfRenderer.getPageHeightsPoints();
+        int parallelism = pdfRenderer.getMaxParallelism();
+        ExportProfileDialog.show(this, "Export quality", "Flatten", () -> {
+            ExportEstimate estimate = new ExportEstimate();
+            estimate.addRenderedPages(widths, heights, parallelism);
+            return estimate;
+        }, profile -> startFlatten(source, profile));
+    }
+
+    private void startFlatten(String source, ExportProfile profile) {
+        String base = pdfTitle != null ? pdfTitle.replaceFirst("(?i)\\.pdf$", "") : "Document";
+        String fileName = base + "_flattened.pdf";
+        FlattenJob job = new FlattenJob("Flattening " + fileName, fileName, source);
+        job.profile = profile;
+        exportJobId = ExportQueue.shared(this).enqueue(job);
+        ExportQueue.shared(this).observe(exportJobId, exportListener);
+        Toast.makeText(this, "Preparing flattened copy…", Toast.LENGTH_SHORT).show();
+    }
+
+    private final ExportQueue.Listener exportListener = new ExportQueue.Listener() {
+        @Override
+        public void onProgress(int done, int total) {
+            // Shown in the export notification.
+        }
+
+        @Override
+        public void onFinished(String path) {
+            exportJobId = null;
+            sharePdf(path);
+        }
+
+        @Override
+        public void onFailed(Exception e) {
+            exportJobId = null;
+            if (!(e instanceof CancellationException)) {
+                Toast.makeText(PdfReaderActivity.this,
+                        "Couldn't flatten document: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            }
+        }
+    };
+
+    private void sharePdf(String path) {
         try {
             Intent shareIntent = new Intent(Intent.ACTION_SEND);
             shareIntent.setType("application/pdf");
 
-            if (pdfPath.startsWith("content://")) {
-                shareIntent.putExtra(Intent.EXTRA_STREAM, Uri.parse(pdfPath));
+            if (path.startsWith("content://")) {
+                shareIntent.putExtra(Intent.EXTRA_STREAM, Uri.parse(path));
             } else {
-                File file = new File(pdfPath);
+                File file = new File(path);
                 Uri uri = androidx.core.content.FileProvider.getUriForFile(
                         this,
                         getPackageName() + ".provider",
@@ -217,87 +364,81 @@ public class PdfReaderActivity extends AppCompatActivity {
     }
 
     private void displayPdf() {
-        try {
-            File file;
-            if (pdfPath.startsWith("content://")) {
-                Uri uri = Uri.parse(pdfPath);
-                file = new File(getCacheDir(), "temp.pdf");
-                InputStream inputStream = getContentResolver().openInputStream(uri);
-                if (inputStream == null) {
-                    Toast.makeText(this, "Cannot open PDF file", Toast.LENGTH_SHORT).show();
-                    finish();
-                    return;
-                }
-                FileOutputStream outputStream = new FileOutputStream(file);
-                byte[] buffer = new byte[4096];
-                int length;
-                while ((length = inputStream.read(buffer)) > 0) {
-                    outputStream.write(buffer, 0, length);
-                }
-                outputStream.close();
-                inputStream.close();
-            } else {
-                file = new File(pdfPath);
-            }
-            resolvedFilePath = file.getAbsolutePath();
-
-            if (!file.exists()) {
-                Toast.makeText(this, "PDF file not found", Toast.LENGTH_SHORT).show();
-                finish();
-                return;
-            }
-
-            parcelFileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        toolbarSubtitle.setText(R.string.opening_document);
+        // Resolving the source and parsing the document both do blocking I/O, so keep them off
+        // the UI thread; large provider-backed files would otherwise freeze the screen.
+        openExecutor.execute(() -> {
+            RendererRegistry.Handle handle;
             try {
-                pdfRenderer = new PdfBoxRenderer(this, parcelFileDescriptor);
+                handle = RendererRegistry.shared(this).acquire(pdfPath);
             } catch (SecurityException se) {
-                parcelFileDescriptor.close();
-                Toast.makeText(this,
-                        "This PDF is password-protected and cannot be opened.",
-                        Toast.LENGTH_LONG).show();
-                finish();
+                handler.post(() -> failOpen("This PDF is password-protected and cannot be opened.", Toast.LENGTH_LONG));
+                return;
+            } catch (java.io.FileNotFoundException e) {
+                Log.e(TAG, "PDF not found", e);
+                handler.post(() -> failOpen("PDF file not found", Toast.LENGTH_SHORT));
+                return;
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading PDF", e);
+                handler.post(() -> failOpen("Error loading PDF: " + e.getMessage(), Toast.LENGTH_SHORT));
                 return;
             }
+            // The document is parsed already; keep the library's page count and facts current.
+            DocumentMetadataStore.shared(this).record(pdfPath, handle.getRenderer());
 
-            pageCount = pdfRenderer.getPageCount();
-            progressManager.savePageCount(pdfPath, pageCount);
-
-            // Update UI
-            toolbarSubtitle.setText(pageCount + " pages");
-
-            // Setup RecyclerView adapter with lazy loading
-            int screenWidth = getResources().getDisplayMetrics().widthPixels;
-            Log.d(TAG, "Creating adapter for " + pageCount + " pages, screen width: " + screenWidth);
-            pdfPageAdapter = new PdfPageAdapter(this, pdfRenderer, screenWidth);
-            pdfPageAdapter.setPdfPath(pdfPath);
-            pdfPageAdapter.setOnHighlightListener(new com.pdfreader.app.views.HighlightOverlayView.OnHighlightListener() {
-                @Override
-                public void onLineSelected(int page, float yPosition, float x, float y, float width, float height) {
-                    showLineSelectionDialog(page, yPosition, x, y, width, height);
-                }
-
-                @Override
-                public void onHighlightTapped(com.pdfreader.app.views.HighlightOverlayView.Highlight highlight) {
-                    showHighlightNoteDialog(highlight);
-                }
-            });
-            recyclerView.setAdapter(pdfPageAdapter);
-            Log.d(TAG, "Adapter set, item count: " + pdfPageAdapter.getItemCount());
-
-            // Restore scroll position after layout
-            recyclerView.post(() -> {
-                int savedPage = progressManager.getProgress(pdfPath) / 1000; // Convert to page number
-                if (savedPage > 0 && savedPage < pageCount) {
-                    layoutManager.scrollToPositionWithOffset(savedPage, 0);
+            handler.post(() -> {
+                if (isFinishing() || isDestroyed()) {
+                    handle.close();
+                    return;
                 }
-                updateCurrentPageFromScroll();
+                rendererHandle = handle;
+                pdfRenderer = handle.getRenderer();
+                resolvedFilePath = handle.getLocalPath();
+                onPdfOpened();
             });
+        });
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading PDF", e);
-            Toast.makeText(this, "Error loading PDF: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            finish();
-        }
+    private void onPdfOpened() {
+        pageCount = pdfRenderer.getPageCount();
+        progressManager.savePageCount(pdfPath, pageCount);
+
+        // Update UI
+        toolbarSubtitle.setText(pageCount + " pages");
+
+        // Setup RecyclerView adapter with lazy loading
+        int screenWidth = getResources().getDisplayMetrics().widthPixels;
+        Log.d(TAG, "Creating adapter for " + pageCount + " pages, screen width: " + screenWidth);
+        pdfPageAdapter = new PdfPageAdapter(this, pdfRenderer, screenWidth);
+        pdfPageAdapter.setPdfPath(pdfPath);
+        pdfPageAdapter.setOnHighlightListener(new com.pdfreader.app.views.HighlightOverlayView.OnHighlightListener() {
+            @Override
+            public void onLineSelected(int page, float yPosition, float x, float y, float width, float height) {
+                showLineSelectionDialog(page, yPosition, x, y, width, height);
+            }
+
+            @Override
+            public void onHighlightTapped(com.pdfreader.app.views.HighlightOverlayView.Highlight highlight) {
+                showHighlightNoteDialog(highlight);
+            }
+        });
+        recyclerView.setAdapter(pdfPageAdapter);
+        Log.d(TAG, "Adapter set, item count: " + pdfPageAdapter.getItemCount());
+
+        // Restore scroll position after layout
+        recyclerView.post(() -> {
+            int savedPage = progressManager.getProgress(pdfPath) / 1000; // Convert to page number
+            if (savedPage > 0 && savedPage < pageCount) {
+                layoutManager.scrollToPositionWithOffset(savedPage, 0);
+            }
+            updateCurrentPageFromScroll();
+        });
+    }
+
+    private void failOpen(String message, int duration) {
+        if (isFinishing() || isDestroyed()) return;
+        Toast.makeText(this, message, duration).show();
+        finish();
     }
 
 
@@ -569,35 +710,102 @@ public class PdfReaderActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_EXPORT_JOB, exportJobId);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        ExportQueue.shared(this).removeListener(exportListener);
         
         // Cleanup adapter and bitmaps
+        zoomedPageView.release();
         if (pdfPageAdapter != null) {
             pdfPageAdapter.cleanup();
         }
         
-        try {
-            if (pdfRenderer != null) {
-                pdfRenderer.close();
-            }
-            if (parcelFileDescriptor != null) {
-                parcelFileDescriptor.close();
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Error closing PDF renderer", e);
+        // Shared with any other screen on this document; the registry closes it when unused.
+        if (rendererHandle != null) {
+            rendererHandle.close();
+            rendererHandle = null;
         }
 
         if (hideIndicatorRunnable != null) {
             handler.removeCallbacks(hideIndicatorRunnable);
         }
-        
-        // Clear cache
-        File cacheFile = new File(getCacheDir(), "temp.pdf");
-        if (cacheFile.exists()) {
-            if (!cacheFile.delete()) {
-                Log.w(TAG, "Failed to delete cache file");
+
+        // A still-running open releases its own handle once it sees the activity is gone.
+        openExecutor.shutdown();
+    }
+
+    /**
+     * Writes a flattened copy of a document for sharing; see FlattenedPdfWriter. The copy only
+     * exists to be shared, so it's written to the cache and never published or added to the
+     * history.
+     */
+    static final class FlattenJob extends ExportJob {
+        static final String KIND = "flatten";
+        private static final String SHARE_DIR = "shared";
+        // Older copies are deleted when a new one is made; by then any share has read them.
+        private static final long SHARED_COPY_MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+
+        private final String source;
+
+        FlattenJob(String title, String fileName, String source) {
+            super(title, fileName, null);
+            this.source = source;
+        }
+
+        static FlattenJob fromSpec(String title, String fileName, JSONObject spec) throws JSONException {
+            return new FlattenJob(title, fileName, spec.getString("source"));
+        }
+
+        @Override
+        String kind() {
+            return KIND;
+        }
+
+        @Override
+        void writeSpec(JSONObject spec) throws JSONException {
+            spec.put("source", source);
+        }
+
+        // One folder per job, so the file keeps the name the recipient sees without clashing.
+        @Override
+        File createDestination(Context context) {
+            File shared = new File(context.getCacheDir(), SHARE_DIR);
+            File[] previous = shared.listFiles();
+            if (previous != null) {
+                long cutoff = System.currentTimeMillis() - SHARED_COPY_MAX_AGE_MS;
+                for (File dir : previous) {
+                    if (dir.lastModified() < cutoff) deleteRecursively(dir);
+                }
+            }
+            File dir = new File(shared, id);
+            dir.mkdirs();
+            return new File(dir, fileName.replace('/', '_'));
+        }
+
+        @Override
+        boolean isPublished() {
+            return false;
+        }
+
+        @Override
+        void write(Context context, File destination, Progress progress) throws IOException {
+            FlattenedPdfWriter.write(context, source, destination, profile, progress);
+        }
+
+        private static void deleteRecursively(File file) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) deleteRecursively(child);
+            }
+            if (!file.delete()) {
+                Log.w(TAG, "Could not delete old shared copy " + file);
             }
         }
     }
@@ -24,6 +24,7 @@ public class PdfReaderApplication extends Application {
         } catch (Throwable t) {
             Log.e(TAG, "PDFBoxResourceLoader.init() failed", t);
         }
+        LibraryIndexJobService.schedule(this);
 
         registerActivityLifecycleCallbacks(new ActivityLifecycleCallbacks() {
             @Override
@@ -43,7 +44,13 @@ public class PdfReaderApplication extends Application {
                 WindowInsetsHelper.setupAfterSetContentView(activity);
             }
 
-            @Override public void onActivityStarted(@NonNull Activity activity) {}
+            @Override
+            public void onActivityStarted(@NonNull Activity activity) {
+                // Exports a previous process didn't finish; a no-op unless there are some. Run
+                // from here because their foreground service can only start while a screen is.
+                ExportQueue.shared(activity).resumeInterrupted();
+            }
+
             @Override public void onActivityResumed(@NonNull Activity activity) {}
             @Override public void onActivityPaused(@NonNull Activity activity) {}
             @Override public void onActivityStopped(@NonNull Activity activity) {}
@@ -51,4 +58,22 @@ public class PdfReaderApplication extends Application {
             @Override public void onActivityDestroyed(@NonNull Activity activity) {}
         });
     }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // First, so the pages of the documents it closes are dropped along with them.
+        RendererRegistry renderers = RendererRegistry.peekShared();
+        if (renderers != null) {
+            renderers.trimMemory(level);
+        }
+        PageBitmapCache pageCache = PageBitmapCache.peekShared();
+        if (pageCache != null) {
+            pageCache.trimMemory(level);
+        }
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            BitmapPool.shared().clear();
+            PageTileCache.shared(this).clear();
+        }
+    }
 }
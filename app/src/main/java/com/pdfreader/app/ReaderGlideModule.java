@@ -0,0 +1,32 @@
+package com.pdfreader.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Registry;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.module.AppGlideModule;
+
+/**
+ * Teaches Glide to load DocumentCover models, so library and home covers get Glide's memory
+ * and disk caches, per-view request cancellation and bitmap pooling.
+ */
+@GlideModule
+public final class ReaderGlideModule extends AppGlideModule {
+
+    @Override
+    public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
+        registry.append(DocumentCover.class, DocumentSource.Opened.class,
+                new DocumentCoverLoader.Factory(context));
+        registry.append(Registry.BUCKET_BITMAP, DocumentSource.Opened.class, Bitmap.class,
+                new DocumentCoverDecoder(context, glide.getBitmapPool()));
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
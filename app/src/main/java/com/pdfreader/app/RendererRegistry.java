@@ -0,0 +1,321 @@
+package com.pdfreader.app;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * App-wide registry of open documents, so every screen working on the same PDF shares one
+ * PdfBoxRenderer instead of re-resolving and re-parsing the file.
+ *
+ * Screens call acquire() with the path they were given and close() the returned Handle when
+ * they're done; the renderer is closed once the last handle is released. Going from the reader
+ * into Edit, Sign or Manage Pages therefore reuses the reader's renderer (and, since page
+ * caches are keyed by the renderer's fingerprint, its rendered pages). A document is found
+ * under the path it was opened with and under the local file backing it, if any, because the
+ * reader hands other screens the resolved local path.
+ *
+ * The most recently released documents stay open (up to MAX_IDLE), so backing out of a screen
+ * and reopening the same document is instant too. They're closed on memory pressure, and when
+ * the document changed since it was opened -- its size or modification time, as the file or,
+ * for content:// URIs, its provider reports them (see DocumentSource.stamp).
+ *
+ * The same content can be open under two entries at once (e.g. a content:// URI and a copy of
+ * the file), and both share its fingerprint and so its cached pages; those are dropped only
+ * when the last renderer with that fingerprint closes.
+ *
+ * Thread-safe. acquire() does blocking I/O -- call off the main thread.
+ */
+public final class RendererRegistry {
+
+    private static final String TAG = "RendererRegistry";
+    private static final int MAX_IDLE = 2;
+
+    /** A reference to a shared open document. Close it (once) when done; don't close the renderer. */
+    public static final class Handle implements Closeable {
+        private final RendererRegistry registry;
+        private final Entry entry;
+        private boolean released;
+
+        Handle(RendererRegistry registry, Entry entry) {
+            this.registry = registry;
+            this.entry = entry;
+        }
+
+        @NonNull
+        public PdfBoxRenderer getRenderer() {
+            return entry.renderer;
+        }
+
+        /** Local file backing the document, or null when it's read straight from a provider. */
+        @Nullable
+        public String getLocalPath() {
+            return entry.localPath;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (released) return;
+                released = true;
+            }
+            registry.release(entry);
+        }
+    }
+
+    private static final class Entry {
+        final List<String> keys = new ArrayList<>();
+        // Set once, under the entry's own lock, by whichever acquire() opens the document.
+        PdfBoxRenderer renderer;
+        ParcelFileDescriptor pfd;
+        String localPath;
+        // The path it was opened with, and that path's stamp at the time.
+        String openedPath;
+        DocumentSource.Stamp stamp;
+        // Guarded by the registry.
+        int refCount;
+        boolean detached;
+
+        Entry(String key) {
+            keys.add(key);
+        }
+
+        // Does I/O (a provider query for content:// URIs), so call outside the registry lock.
+        boolean isStale(Context context) {
+            return stamp.isKnown() && !DocumentSource.stamp(context, openedPath).equals(stamp);
+        }
+    }
+
+    private static RendererRegistry shared;
+
+    private final Context appContext;
+    // Guarded by `this`.
+    private final Map<String, Entry> entries = new HashMap<>();
+    // Open documents nobody holds a handle to, least recently released first.
+    private final LinkedHashSet<Entry> idle = new LinkedHashSet<>();
+    // Open renderers per fingerprint. Guarded by `this`.
+    private final Map<String, Integer> openFingerprints = new HashMap<>();
+
+    public static synchronized RendererRegistry shared(Context context) {
+        if (shared == null) {
+            shared = new RendererRegistry(context.getApplicationContext());
+        }
+        return shared;
+    }
+
+    /** The shared instance if it has been created, without creating it. */
+    static synchronized RendererRegistry peekShared() {
+        return shared;
+    }
+
+    private RendererRegistry(Context appContext) {
+        this.appContext = appContext;
+    }
+
+    /**
+     * Returns a handle on the document at {@code path} (file path, file:// or content:// URI),
+     * opening it only if no screen has it open already. Throws like DocumentSource.open() and
+     * the PdfBoxRenderer constructor (SecurityException for password-protected files).
+     */
+    @NonNull
+    public Handle acquire(String path) throws IOException {
+        Entry entry;
+        List<Entry> toClose = new ArrayList<>();
+        String staleFingerprint = null;
+        Entry open;
+        synchronized (this) {
+            open = entries.get(path);
+        }
+        String openFingerprint = null;
+        if (open != null) {
+            synchronized (open) {
+                if (open.renderer != null && open.isStale(appContext)) {
+                    openFingerprint = open.renderer.getFingerprint();
+                }
+            }
+        }
+        synchronized (this) {
+            entry = entries.get(path);
+            if (openFingerprint != null && entry == open) {
+                Log.d(TAG, "Document changed on disk, reopening: " + path);
+                staleFingerprint = openFingerprint;
+                detach(entry, toClose);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(path);
+                entries.put(path, entry);
+            }
+            entry.refCount++;
+            idle.remove(entry);
+        }
+        closeAll(toClose);
+        if (staleFingerprint != null) {
+            // That content is gone, so its pages on disk can never be shown again.
+            DiskPageCache.shared(appContext).removeDocument(staleFingerprint);
+        }
+
+        // Opened under the entry's lock, so concurrent acquires of the same document wait for
+        // this open instead of starting their own.
+        synchronized (entry) {
+            if (entry.renderer == null) {
+                try {
+                    open(entry, path);
+                } catch (IOException | RuntimeException e) {
+                    synchronized (this) {
+                        entry.refCount--;
+                        if (entry.refCount == 0) {
+                            removeKeys(entry);
+                        }
+                    }
+                    throw e;
+                }
+            }
+        }
+        return new Handle(this, entry);
+    }
+
+    /** Whether any screen currently holds a handle, i.e. a document is on screen. */
+    public synchronized boolean isInUse() {
+        for (Entry entry : entries.values()) {
+            if (entry.refCount > 0) return true;
+        }
+        return false;
+    }
+
+    /** Applies an onTrimMemory() level: idle documents are closed once the UI is hidden. */
+    public void trimMemory(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) return;
+        List<Entry> toClose;
+        synchronized (this) {
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            for (Entry entry : toClose) {
+                removeKeys(entry);
+            }
+        }
+        closeAll(toClose);
+    }
+
+    private void open(Entry entry, String path) throws IOException {
+        // Stamped before opening: a change made while the document is parsed then shows up as
+        // stale next time, rather than being missed.
+        DocumentSource.Stamp stamp = DocumentSource.stamp(appContext, path);
+        DocumentSource.Opened opened = DocumentSource.open(appContext, path);
+        PdfBoxRenderer renderer;
+        try {
+            renderer = new PdfBoxRenderer(appContext, opened.pfd);
+        } catch (IOException | RuntimeException e) {
+            try {
+                opened.pfd.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+        entry.openedPath = path;
+        entry.stamp = stamp;
+        entry.localPath = opened.localPath;
+        entry.pfd = opened.pfd;
+        entry.renderer = renderer;
+
+        synchronized (this) {
+            openFingerprints.merge(renderer.getFingerprint(), 1, Integer::sum);
+            // Reachable under the local path too, unless that already names another document.
+            if (!entry.detached && opened.localPath != null && !entries.containsKey(opened.localPath)) {
+                entries.put(opened.localPath, entry);
+                entry.keys.add(opened.localPath);
+            }
+        }
+        Log.d(TAG, "Opened " + path + " (" + renderer.getPageCount() + " pages)");
+    }
+
+    private void release(Entry entry) {
+        List<Entry> toClose = new ArrayList<>();
+        synchronized (this) {
+            entry.refCount--;
+            if (entry.refCount > 0) return;
+            if (entry.detached) {
+                toClose.add(entry);
+            } else {
+                idle.add(entry);
+                Iterator<Entry> it = idle.iterator();
+                while (idle.size() > MAX_IDLE && it.hasNext()) {
+                    Entry eldest = it.next();
+                    it.remove();
+                    removeKeys(eldest);
+                    toClose.add(eldest);
+                }
+            }
+        }
+        closeAll(toClose);
+    }
+
+    // Unlinks an entry from the registry; it's closed now if unused, else on its last release.
+    private void detach(Entry entry, List<Entry> toClose) {
+        removeKeys(entry);
+        if (idle.remove(entry) || entry.refCount == 0) {
+            toClose.add(entry);
+        }
+    }
+
+    private void removeKeys(Entry entry) {
+        entry.detached = true;
+        for (String key : entry.keys) {
+            if (entries.get(key) == entry) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    // Outside the registry lock, since closing engines and descriptors does I/O.
+    private void closeAll(List<Entry> toClose) {
+        for (Entry entry : toClose) {
+            String fingerprint;
+            synchronized (entry) {
+                if (entry.renderer == null) continue;
+                fingerprint = entry.renderer.getFingerprint();
+                entry.renderer.close();
+                try {
+                    entry.pfd.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Error closing document descriptor", e);
+                }
+                entry.renderer = null;
+            }
+            releaseFingerprint(fingerprint);
+        }
+    }
+
+    // Pages and zoom tiles cached under a fingerprint go once its last renderer has closed:
+    // nothing can display them any more. Under the registry lock, so a renderer opening the
+    // same content meanwhile counts first, or else only caches pages after these are dropped.
+    private synchronized void releaseFingerprint(String fingerprint) {
+        Integer count = openFingerprints.get(fingerprint);
+        if (count != null && count > 1) {
+            openFingerprints.put(fingerprint, count - 1);
+            return;
+        }
+        openFingerprints.remove(fingerprint);
+        PageBitmapCache cache = PageBitmapCache.peekShared();
+        if (cache != null) {
+            cache.removeDocument(fingerprint);
+        }
+        PageTileCache tiles = PageTileCache.peekShared();
+        if (tiles != null) {
+            tiles.removeDocument(fingerprint);
+        }
+    }
+}
@@ -1,11 +1,9 @@
 package com.pdfreader.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.pdf.PdfDocument;
 import android.graphics.pdf.PdfRenderer;
 import android.net.Uri;
 import android.os.Bundle;
@@ -28,24 +26,38 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.button.MaterialButton;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
 
 public class ScanReviewActivity extends AppCompatActivity {
 
     public static final String EXTRA_IMAGE_PATHS = "image_paths";
     public static final int RESULT_ADD_MORE = 100;
+    private static final String STATE_EXPORT_JOB = "export_job";
 
     private List<String> imagePaths;
     private File tempPdfFile;
+    // The profile the preview PDF was written with; a save with it copies the preview.
+    private ExportProfile previewProfile;
     private String savedFilePath;
+    // The save running in ExportQueue, if any.
+    private String exportJobId;
 
     private ProgressBar loadingIndicator;
     private RecyclerView pagesRecycler;
@@ -89,6 +101,19 @@ public class ScanReviewActivity extends AppCompatActivity {
         });
 
         generatePreview();
+
+        if (savedInstanceState != null) {
+            exportJobId = savedInstanceState.getString(STATE_EXPORT_JOB);
+            if (exportJobId != null) {
+                showSaving();
+                if (!ExportQueue.shared(this).observe(exportJobId, exportListener)) {
+                    // Finished and reported while nobody was watching.
+                    exportJobId = null;
+                    btnSave.setEnabled(true);
+                    btnSave.setText("Save & Share");
+                }
+            }
+        }
     }
 
     private void generatePreview() {
@@ -96,11 +121,15 @@ public class ScanReviewActivity extends AppCompatActivity {
         pagesRecycler.setVisibility(View.GONE);
         pageCountText.setText("Generating preview…");
 
+        // Built the way a save with the current default profile would be, so such a save can
+        // just copy it.
+        ExportProfile profile = ExportProfile.load(this);
+        previewProfile = profile;
         new Thread(() -> {
             try {
                 // Build temp PDF from captured images
                 tempPdfFile = new File(getCacheDir(), "preview_" + System.currentTimeMillis() + ".pdf");
-                writePdf(imagePaths, tempPdfFile);
+                writePdf(imagePaths, tempPdfFile, profile, (done, total) -> {});
 
                 // Render each page to a Bitmap
                 List<Bitmap> pages = renderPdfPages(tempPdfFile);
@@ -122,27 +151,20 @@ public class ScanReviewActivity extends AppCompatActivity {
         }).start();
     }
 
-    private void writePdf(List<String> paths, File outFile) throws Exception {
-        PdfDocument doc = new PdfDocument();
-        int pageNum = 1;
-        for (String path : paths) {
-            Bitmap bmp = BitmapFactory.decodeFile(path);
-            if (bmp == null) continue;
-            bmp = scaleBitmap(bmp, 1240, 1754);
-            PdfDocument.PageInfo info = new PdfDocument.PageInfo.Builder(
-                    bmp.getWidth(), bmp.getHeight(), pageNum++).create();
-            PdfDocument.Page page = doc.startPage(info);
-            // White background so the image sits on white paper
-            Canvas c = page.getCanvas();
-            c.drawColor(Color.WHITE);
-            c.drawBitmap(bmp, 0, 0, null);
-            doc.finishPage(page);
-            bmp.recycle();
-        }
-        try (FileOutputStream fos = new FileOutputStream(outFile)) {
-            doc.writeTo(fos);
+    private static void writePdf(List<String> paths, File outFile, ExportProfile profile,
+                                 ExportJob.Progress progress) throws IOException {
+        try (PdfMergeWriter writer = new PdfMergeWriter(outFile)) {
+            int done = 0;
+            for (String path : paths) {
+                progress.update(done++, paths.size());
+                try (InputStream in = new FileInputStream(path);
+                     PDDocument page = ImagePageFactory.create(in, profile)) {
+                    if (page != null) writer.append(page);
+                }
+            }
+            writer.finish();
         }
-        doc.close();
+        progress.update(paths.size(), paths.size());
     }
 
     private List<Bitmap> renderPdfPages(File pdfFile) throws Exception {
@@ -183,82 +205,77 @@ public class ScanReviewActivity extends AppCompatActivity {
                 String name = input.getText().toString().trim();
                 if (name.isEmpty()) name = defaultName;
                 if (!name.toLowerCase().endsWith(".pdf")) name += ".pdf";
-                savePermanently(name);
+                chooseProfile(name);
             })
             .setNegativeButton("Cancel", null)
             .show();
     }
 
-    private void savePermanently(String fileName) {
+    private void chooseProfile(String fileName) {
+        List<String> paths = new ArrayList<>(imagePaths);
+        ExportProfileDialog.show(this, "Export quality", "Save", () -> {
+            ExportEstimate estimate = new ExportEstimate();
+            for (String path : paths) {
+                estimate.addImage(this, Uri.fromFile(new File(path)));
+            }
+            return estimate;
+        }, profile -> savePermanently(fileName, profile));
+    }
+
+    private void savePermanently(String fileName, ExportProfile profile) {
+        String preview = tempPdfFile != null && previewProfile == profile
+                ? tempPdfFile.getAbsolutePath() : null;
+        ScanJob job = new ScanJob("Saving scan", fileName, new ArrayList<>(imagePaths), preview);
+        job.profile = profile;
+        // Runs in ExportQueue, so it carries on if this screen is rotated or left.
+        exportJobId = ExportQueue.shared(this).enqueue(job);
+        ExportQueue.shared(this).observe(exportJobId, exportListener);
+        showSaving();
+    }
+
+    private void showSaving() {
         btnSave.setEnabled(false);
         btnSave.setText("Saving…");
+    }
 
-        new Thread(() -> {
-            try {
-                byte[] pdfBytes;
-                if (tempPdfFile != null && tempPdfFile.exists()) {
-                    // Re-read temp file bytes
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    try (java.io.FileInputStream fis = new java.io.FileInputStream(tempPdfFile)) {
-                        byte[] buf = new byte[4096];
-                        int read;
-                        while ((read = fis.read(buf)) != -1) baos.write(buf, 0, read);
-                    }
-                    pdfBytes = baos.toByteArray();
-                } else {
-                    // Regenerate from images
-                    File tmp = new File(getCacheDir(), "save_tmp.pdf");
-                    writePdf(imagePaths, tmp);
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    try (java.io.FileInputStream fis = new java.io.FileInputStream(tmp)) {
-                        byte[] buf = new byte[4096];
-                        int read;
-                        while ((read = fis.read(buf)) != -1) baos.write(buf, 0, read);
-                    }
-                    pdfBytes = baos.toByteArray();
-                }
-
-                FileManager fm = new FileManager(this);
-                String path = fm.savePdf(pdfBytes, fileName, FileManager.CATEGORY_SCANNED);
+    private final ExportQueue.Listener exportListener = new ExportQueue.Listener() {
+        @Override
+        public void onProgress(int done, int total) {
+            btnSave.setText("Saving… " + done + "/" + total);
+        }
 
-                // Fallback to internal files dir
-                if (path == null) {
-                    File fallback = new File(getFilesDir(), fileName);
-                    try (FileOutputStream fos = new FileOutputStream(fallback)) {
-                        fos.write(pdfBytes);
-                    }
-                    path = fallback.getAbsolutePath();
-                }
+        @Override
+        public void onFinished(String path) {
+            exportJobId = null;
+            savedFilePath = path;
+            btnSave.setEnabled(true);
+            btnSave.setText("Save & Share");
+            btnShare.setVisibility(View.VISIBLE);
+
+            // Delete temp image files
+            for (String imgPath : imagePaths) new File(imgPath).delete();
+
+            new AlertDialog.Builder(ScanReviewActivity.this)
+                .setTitle("Saved!")
+                .setMessage("Your document was saved. Share it now?")
+                .setPositiveButton("Share", (d, w) -> shareFile(path))
+                .setNegativeButton("Done", (d, w) -> {
+                    setResult(RESULT_OK);
+                    finish();
+                })
+                .show();
+        }
 
-                final String finalPath = path;
-                runOnUiThread(() -> {
-                    savedFilePath = finalPath;
-                    btnSave.setEnabled(true);
-                    btnSave.setText("Save & Share");
-                    btnShare.setVisibility(View.VISIBLE);
-
-                    // Delete temp image files
-                    for (String imgPath : imagePaths) new File(imgPath).delete();
-
-                    new AlertDialog.Builder(this)
-                        .setTitle("Saved!")
-                        .setMessage("Your document was saved. Share it now?")
-                        .setPositiveButton("Share", (d, w) -> shareFile(finalPath))
-                        .setNegativeButton("Done", (d, w) -> {
-                            setResult(RESULT_OK);
-                            finish();
-                        })
-                        .show();
-                });
-            } catch (Exception e) {
-                runOnUiThread(() -> {
-                    btnSave.setEnabled(true);
-                    btnSave.setText("Save & Share");
-                    Toast.makeText(this, "Save failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                });
+        @Override
+        public void onFailed(Exception e) {
+            exportJobId = null;
+            btnSave.setEnabled(true);
+            btnSave.setText("Save & Share");
+            if (!(e instanceof CancellationException)) {
+                Toast.makeText(ScanReviewActivity.this, "Save failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
             }
-        }).start();
-    }
+        }
+    };
 
     private void shareFile(String filePath) {
         try {
@@ -284,24 +301,79 @@ public class ScanReviewActivity extends AppCompatActivity {
         }
     }
 
-    private Bitmap scaleBitmap(Bitmap src, int maxW, int maxH) {
-        int w = src.getWidth(), h = src.getHeight();
-        if (w <= maxW && h <= maxH) return src;
-        float scale = Math.min((float) maxW / w, (float) maxH / h);
-        Bitmap scaled = Bitmap.createScaledBitmap(src, (int)(w * scale), (int)(h * scale), true);
-        src.recycle();
-        return scaled;
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_EXPORT_JOB, exportJobId);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        ExportQueue.shared(this).removeListener(exportListener);
         // Clean up temp preview file
         if (tempPdfFile != null && tempPdfFile.exists() && savedFilePath != null) {
             tempPdfFile.delete();
         }
     }
 
+    /**
+     * Saves the scanned pages: a copy of the preview PDF if it's still there, else a PDF
+     * written from the page images. Both live in app storage, so it's restarted if the process
+     * dies part way.
+     */
+    static final class ScanJob extends ExportJob {
+        static final String KIND = "scan";
+
+        private final List<String> imagePaths;
+        private final String previewPath;
+
+        ScanJob(String title, String fileName, List<String> imagePaths, String previewPath) {
+            super(title, fileName, FileManager.CATEGORY_SCANNED);
+            this.imagePaths = imagePaths;
+            this.previewPath = previewPath;
+        }
+
+        static ScanJob fromSpec(String title, String fileName, JSONObject spec) throws JSONException {
+            JSONArray array = spec.getJSONArray("images");
+            List<String> imagePaths = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) imagePaths.add(array.getString(i));
+            return new ScanJob(title, fileName, imagePaths, spec.optString("preview", null));
+        }
+
+        @Override
+        String kind() {
+            return KIND;
+        }
+
+        @Override
+        void writeSpec(JSONObject spec) throws JSONException {
+            spec.put("images", new JSONArray(imagePaths));
+            if (previewPath != null) spec.put("preview", previewPath);
+        }
+
+        @Override
+        void write(Context context, File destination, Progress progress) throws IOException {
+            File preview = previewPath != null ? new File(previewPath) : null;
+            if (preview == null || !preview.exists()) {
+                // Regenerate from images
+                writePdf(imagePaths, destination, profile, progress);
+                return;
+            }
+            // Copied file to file; the PDF is never read into memory
+            try (FileInputStream in = new FileInputStream(preview);
+                 FileOutputStream out = new FileOutputStream(destination)) {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                long copied = 0;
+                while (copied < size) {
+                    copied += channel.transferTo(copied, size - copied, out.getChannel());
+                }
+            }
+            progress.update(1, 1);
+        }
+    }
+
     // Simple adapter that shows pre-rendered page Bitmaps
     private static class PageBitmapAdapter extends RecyclerView.Adapter<PageBitmapAdapter.VH> {
         private final List<Bitmap> pages;
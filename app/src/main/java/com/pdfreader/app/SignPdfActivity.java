@@ -8,10 +8,8 @@ import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffColorFilter;
 import android.graphics.drawable.GradientDrawable;
-import android.graphics.pdf.PdfDocument;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.ParcelFileDescriptor;
 import android.text.InputType;
 import android.view.MenuItem;
 import android.view.View;
@@ -31,24 +29,25 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import com.google.android.material.button.MaterialButton;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class SignPdfActivity extends AppCompatActivity {
 
+    private static final String STATE_EXPORT_JOB = "export_job";
+
     private RecyclerView pagesRecyclerView;
     private View btnSelectPdf;
     private View btnAddSignature;
@@ -58,7 +57,7 @@ public class SignPdfActivity extends AppCompatActivity {
 
     private String pdfPath;
     private PdfBoxRenderer pdfRenderer;
-    private ParcelFileDescriptor parcelFileDescriptor;
+    private RendererRegistry.Handle rendererHandle;
     private List<Boolean> pagesWithSignature;
     private SignPdfPageAdapter signPdfPageAdapter;
     private Bitmap signatureBitmap;
@@ -69,6 +68,8 @@ public class SignPdfActivity extends AppCompatActivity {
     private ActivityResultLauncher<Intent> cameraSignatureLauncher;
     private SignatureManager signatureManager;
     private ExecutorService executorService;
+    // The save running in ExportQueue, if any.
+    private String exportJobId;
 
     // UI elements for preview
     private View signaturePreviewCard;
@@ -154,6 +155,18 @@ public class SignPdfActivity extends AppCompatActivity {
         btnAddSignature.setEnabled(false);
         btnAddSignature.setAlpha(0.4f);
         btnSave.setEnabled(false);
+
+        if (savedInstanceState != null) {
+            exportJobId = savedInstanceState.getString(STATE_EXPORT_JOB);
+            if (exportJobId != null) {
+                btnSave.setText("Saving…");
+                if (!ExportQueue.shared(this).observe(exportJobId, exportListener)) {
+                    // Finished and reported while nobody was watching.
+                    exportJobId = null;
+                    btnSave.setText("Save PDF");
+                }
+            }
+        }
     }
 
     private void openFilePicker() {
@@ -166,20 +179,13 @@ public class SignPdfActivity extends AppCompatActivity {
     private void loadPdf(Uri uri) {
         executorService.execute(() -> {
             try {
-                // Copy to cache in background
-                File cacheFile = new File(getCacheDir(), "sign_temp.pdf");
-                InputStream inputStream = getContentResolver().openInputStream(uri);
-                FileOutputStream outputStream = new FileOutputStream(cacheFile);
-                byte[] buffer = new byte[8192];
-                int length;
-                while ((length = inputStream.read(buffer)) > 0) {
-                    outputStream.write(buffer, 0, length);
+                // Shared with any other screen that has this document open
+                RendererRegistry.Handle previous = rendererHandle;
+                rendererHandle = RendererRegistry.shared(this).acquire(uri.toString());
+                pdfRenderer = rendererHandle.getRenderer();
+                if (previous != null) {
+                    previous.close();
                 }
-                outputStream.close();
-                inputStream.close();
-
-                parcelFileDescriptor = ParcelFileDescriptor.open(cacheFile, ParcelFileDescriptor.MODE_READ_ONLY);
-                pdfRenderer = new PdfBoxRenderer(this, parcelFileDescriptor);
 
                 int pageCount = pdfRenderer.getPageCount();
                 pagesWithSignature.clear();
@@ -464,8 +470,10 @@ public class SignPdfActivity extends AppCompatActivity {
 
         pagesWithSignature.set(pageIndex, true);
         signPdfPageAdapter.setSignature(signatureBitmap, pageIndex, tapX, tapY);
-        btnSave.setEnabled(true);
-        btnSave.setText("Save PDF");
+        if (exportJobId == null) {
+            btnSave.setEnabled(true);
+            btnSave.setText("Save PDF");
+        }
 
         if (statusText != null) {
             statusText.setText("Signature placed on page " + (pageIndex + 1) + " — tap Save PDF to finish");
@@ -473,82 +481,61 @@ public class SignPdfActivity extends AppCompatActivity {
     }
 
     private void savePdf() {
-        if (pdfRenderer == null || signPdfPageAdapter == null) return;
+        if (pdfRenderer == null || signPdfPageAdapter == null || pdfPath == null) return;
 
+        btnSave.setEnabled(false);
         executorService.execute(() -> {
             try {
-                PdfDocument document = new PdfDocument();
-                int screenWidth = getResources().getDisplayMetrics().widthPixels - 32;
-
+                // Signature positions are in pixels of the page previews, which the adapter
+                // renders at this width; the writer wants fractions of the page.
+                int previewWidth = getResources().getDisplayMetrics().widthPixels - 32;
+                Map<Integer, List<EditPdfActivity.SignatureOverlay>> signatures = new HashMap<>();
+                // The job outlives this screen, which recycles its bitmaps when it closes; it
+                // gets its own copies, one per distinct signature.
+                Map<Bitmap, Bitmap> copies = new IdentityHashMap<>();
                 for (int i = 0; i < pdfRenderer.getPageCount(); i++) {
-                    // Render page with signature if it has one
-                    float scale = screenWidth / pdfRenderer.getPageWidthPoints(i);
-                    Bitmap bitmap = pdfRenderer.renderPage(i, scale);
-
-                    // Add signature if present at the user-defined position
-                    if (signPdfPageAdapter.hasSignature(i)) {
-                        SignPdfPageAdapter.SignaturePosition sigPos = signPdfPageAdapter.getSignaturePosition(i);
-                        if (sigPos != null && sigPos.bitmap != null && !sigPos.bitmap.isRecycled()) {
-                            Canvas canvas = new Canvas(bitmap);
-                            // Use the position and size set by the user
-                            int sigWidth = (int) sigPos.width;
-                            int sigHeight = (int) sigPos.height;
-                            int x = (int) sigPos.x;
-                            int y = (int) sigPos.y;
-
-                            if (sigWidth > 0 && sigHeight > 0) {
-                                Bitmap scaledSignature = Bitmap.createScaledBitmap(sigPos.bitmap, sigWidth, sigHeight, true);
-                                canvas.drawBitmap(scaledSignature, x, y, null);
-                                scaledSignature.recycle();
-                            }
-                        }
+                    SignPdfPageAdapter.SignaturePosition sigPos = signPdfPageAdapter.getSignaturePosition(i);
+                    if (sigPos == null || sigPos.bitmap == null || sigPos.bitmap.isRecycled()
+                            || sigPos.width <= 0 || sigPos.height <= 0) {
+                        continue;
                     }
-
-                    PdfDocument.PageInfo pageInfo = new PdfDocument.PageInfo.Builder(
-                            bitmap.getWidth(), bitmap.getHeight(), i + 1).create();
-                    PdfDocument.Page docPage = document.startPage(pageInfo);
-                    Canvas canvas = docPage.getCanvas();
-                    canvas.drawBitmap(bitmap, 0, 0, null);
-                    document.finishPage(docPage);
-
-                    bitmap.recycle();
+                    float previewHeight = pdfRenderer.getPageHeightPoints(i)
+                            * (previewWidth / pdfRenderer.getPageWidthPoints(i));
+                    List<EditPdfActivity.SignatureOverlay> onPage = new ArrayList<>();
+                    Bitmap copy = copies.get(sigPos.bitmap);
+                    if (copy == null) {
+                        copy = sigPos.bitmap.copy(Bitmap.Config.ARGB_8888, false);
+                        copies.put(sigPos.bitmap, copy);
+                    }
+                    onPage.add(new EditPdfActivity.SignatureOverlay(i,
+                            sigPos.x / previewWidth, sigPos.y / previewHeight,
+                            sigPos.width / previewWidth, sigPos.height / previewHeight,
+                            copy));
+                    signatures.put(i, onPage);
                 }
 
-                // Serialise PDF to bytes in memory (avoids partial-read bugs with large files)
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                document.writeTo(baos);
-                document.close();
-                byte[] pdfBytes = baos.toByteArray();
-
+                // A copy of the original with the signatures appended as an incremental update,
+                // rather than every page re-rendered into a new file.
                 String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
                 String fileName = "signed_" + timestamp + ".pdf";
 
-                FileManager fileManager = new FileManager(this);
-                String savedPath = fileManager.savePdf(pdfBytes, fileName, FileManager.CATEGORY_SIGNED);
-
-                if (savedPath == null) {
-                    // MediaStore failed – fall back to app-specific external storage
-                    File fallback = fileManager.getPdfFile(fileName, FileManager.CATEGORY_SIGNED);
-                    if (fallback != null) {
-                        try (FileOutputStream fos = new FileOutputStream(fallback)) {
-                            fos.write(pdfBytes);
-                        }
-                        savedPath = fallback.getAbsolutePath();
-                    }
-                }
+                String source = pdfPath;
+                ExportProfile profile = ExportProfile.load(this);
+                ExportJob job = ExportJob.of("Signing " + fileName, fileName, FileManager.CATEGORY_SIGNED,
+                        (context, destination, progress) -> AnnotatedPdfWriter.write(context, source,
+                                new HashMap<>(), signatures, previewWidth, destination, profile, progress));
+                job.profile = profile;
 
-                final boolean success = savedPath != null;
+                // Runs in ExportQueue, so it carries on if this screen is rotated or left.
                 runOnUiThread(() -> {
-                    if (success) {
-                        Toast.makeText(this, "PDF saved successfully", Toast.LENGTH_SHORT).show();
-                    } else {
-                        Toast.makeText(this, "Failed to save PDF", Toast.LENGTH_LONG).show();
-                    }
-                    finish();
+                    exportJobId = ExportQueue.shared(this).enqueue(job);
+                    ExportQueue.shared(this).observe(exportJobId, exportListener);
+                    btnSave.setText("Saving…");
                 });
 
             } catch (Exception e) {
                 runOnUiThread(() -> {
+                    btnSave.setEnabled(true);
                     Toast.makeText(this, R.string.error_occurred, Toast.LENGTH_SHORT).show();
                 });
                 e.printStackTrace();
@@ -556,6 +543,36 @@ public class SignPdfActivity extends AppCompatActivity {
         });
     }
 
+    private final ExportQueue.Listener exportListener = new ExportQueue.Listener() {
+        @Override
+        public void onProgress(int done, int total) {
+            btnSave.setText("Saving… " + done + "/" + total);
+        }
+
+        @Override
+        public void onFinished(String path) {
+            exportJobId = null;
+            Toast.makeText(SignPdfActivity.this, "PDF saved successfully", Toast.LENGTH_SHORT).show();
+            finish();
+        }
+
+        @Override
+        public void onFailed(Exception e) {
+            exportJobId = null;
+            btnSave.setEnabled(true);
+            btnSave.setText("Save PDF");
+            if (!(e instanceof CancellationException)) {
+                Toast.makeText(SignPdfActivity.this, "Save failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            }
+        }
+    };
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_EXPORT_JOB, exportJobId);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         return super.onOptionsItemSelected(item);
@@ -564,6 +581,7 @@ public class SignPdfActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        ExportQueue.shared(this).removeListener(exportListener);
         
         // Cleanup
         if (signPdfPageAdapter != null) {
@@ -574,21 +592,9 @@ public class SignPdfActivity extends AppCompatActivity {
             executorService.shutdown();
         }
         
-        try {
-            if (pdfRenderer != null) {
-                pdfRenderer.close();
-            }
-            if (parcelFileDescriptor != null) {
-                parcelFileDescriptor.close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        
-        // Clean cache
-        File cacheFile = new File(getCacheDir(), "sign_temp.pdf");
-        if (cacheFile.exists()) {
-            cacheFile.delete();
+        if (rendererHandle != null) {
+            rendererHandle.close();
+            rendererHandle = null;
         }
         
         // Recycle signature bitmap
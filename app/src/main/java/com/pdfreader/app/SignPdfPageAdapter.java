@@ -77,7 +77,7 @@ public class SignPdfPageAdapter extends RecyclerView.Adapter<SignPdfPageAdapter.
         this.screenWidth = screenWidth - 32;
         this.bitmapCache = new HashMap<>();
         this.signaturePositions = new HashMap<>();
-        this.executor = Executors.newFixedThreadPool(2);
+        this.executor = Executors.newFixedThreadPool(pdfRenderer.getMaxParallelism());
         this.mainHandler = new Handler(Looper.getMainLooper());
         this.onPageClickListener = listener;
     }
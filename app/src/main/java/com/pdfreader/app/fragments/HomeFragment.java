@@ -2,7 +2,6 @@ package com.pdfreader.app.fragments;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -33,7 +32,8 @@ import com.pdfreader.app.MainActivityNew;
 import com.pdfreader.app.PdfBook;
 import com.pdfreader.app.PdfBookAdapter;
 import com.pdfreader.app.PdfReaderActivity;
-import com.pdfreader.app.PdfThumbnailGenerator;
+import com.pdfreader.app.DocumentCover;
+import com.pdfreader.app.DocumentMetadataStore;
 import com.pdfreader.app.R;
 import com.pdfreader.app.SearchActivity;
 
@@ -439,9 +439,10 @@ public class HomeFragment extends Fragment {
         int currentPage = savedProgress / 1000; // Convert scroll position to page number
         
         // Get total page count from PDF
+        DocumentMetadataStore metadataStore = DocumentMetadataStore.shared(requireContext());
         executorService.execute(() -> {
             try {
-                int totalPages = getPdfPageCount(pdfPath);
+                int totalPages = metadataStore.getPageCount(pdfPath);
                 
                 mainHandler.post(() -> {
                     if (totalPages > 0 && currentPage > 0) {
@@ -460,34 +461,6 @@ public class HomeFragment extends Fragment {
         });
     }
     
-    private int getPdfPageCount(String pdfPath) {
-        try {
-            android.graphics.pdf.PdfRenderer renderer = null;
-            android.os.ParcelFileDescriptor pfd = null;
-            
-            if (pdfPath.startsWith("content://") || pdfPath.startsWith("file://")) {
-                android.net.Uri uri = android.net.Uri.parse(pdfPath);
-                pfd = requireContext().getContentResolver().openFileDescriptor(uri, "r");
-            } else {
-                java.io.File file = new java.io.File(pdfPath);
-                if (file.exists()) {
-                    pfd = android.os.ParcelFileDescriptor.open(file, android.os.ParcelFileDescriptor.MODE_READ_ONLY);
-                }
-            }
-            
-            if (pfd != null) {
-                renderer = new android.graphics.pdf.PdfRenderer(pfd);
-                int pageCount = renderer.getPageCount();
-                renderer.close();
-                pfd.close();
-                return pageCount;
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error reading PDF page count", e);
-        }
-        return 0;
-    }
-    
     private void setProgress(int progressPercent, int pagesRemaining) {
         String progressText = progressPercent + "% complete";
         
@@ -533,39 +506,8 @@ public class HomeFragment extends Fragment {
             return;
         }
         
-        // Show placeholder while loading
-        bookCover.setImageResource(R.drawable.placeholder_book);
-        
-        executorService.execute(() -> {
-            try {
-                // Get display dimensions for thumbnail
-                int maxWidth = 400; // Cover width
-                int maxHeight = 560; // Cover height (maintaining aspect ratio)
-                
-                Bitmap thumbnail = PdfThumbnailGenerator.generateThumbnail(
-                    requireContext(),
-                    pdfPath,
-                    maxWidth,
-                    maxHeight
-                );
-                
-                if (thumbnail != null && !thumbnail.isRecycled()) {
-                    mainHandler.post(() -> {
-                        if (bookCover != null && isAdded()) {
-                            bookCover.setImageBitmap(thumbnail);
-                            Log.d(TAG, "Book cover loaded successfully");
-                        } else {
-                            // Fragment detached, recycle bitmap
-                            thumbnail.recycle();
-                        }
-                    });
-                } else {
-                    Log.w(TAG, "Failed to generate thumbnail for: " + pdfPath);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error loading book cover", e);
-            }
-        });
+        // Cached by Glide across binds and restarts; cancelled if the view goes away
+        DocumentCover.load(bookCover, pdfPath, DocumentCover.CARD_WIDTH, DocumentCover.CARD_HEIGHT);
     }
     
     @Override
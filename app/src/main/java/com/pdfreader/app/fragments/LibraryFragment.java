@@ -20,7 +20,6 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.Looper;
 import android.widget.ProgressBar;
@@ -29,12 +28,14 @@ import android.view.View;
 
 import androidx.core.content.ContextCompat;
 
+import com.bumptech.glide.Glide;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.pdfreader.app.HistoryManager;
 import com.pdfreader.app.PdfBook;
 import com.pdfreader.app.PdfReaderActivity;
 import com.pdfreader.app.EpubReaderActivity;
-import com.pdfreader.app.PdfThumbnailGenerator;
+import com.pdfreader.app.DocumentCover;
+import com.pdfreader.app.DocumentMetadataStore;
 import com.pdfreader.app.MainActivityNew;
 import com.pdfreader.app.ReadingProgressManager;
 import com.pdfreader.app.R;
@@ -388,6 +389,13 @@ public class LibraryFragment extends Fragment {
             return books.size();
         }
 
+        @Override
+        public void onViewRecycled(@NonNull ViewHolder holder) {
+            super.onViewRecycled(holder);
+            // Cancels a cover still loading and releases the bitmap back to Glide's pool.
+            Glide.with(holder.coverImage).clear(holder.coverImage);
+        }
+
         static class ViewHolder extends RecyclerView.ViewHolder {
             private final TextView titleText;
             private final android.widget.ImageView coverImage;
@@ -418,9 +426,7 @@ public class LibraryFragment extends Fragment {
                     }
                 });
                 
-                // Load thumbnail for PDF files (matching home page implementation)
                 String path = book.getFilePath();
-                String title = book.getTitle();
                 
                 // Load actual reading progress (calculate percentage from page number)
                 if (progressBar != null) {
@@ -433,7 +439,7 @@ public class LibraryFragment extends Fragment {
                     // Calculate progress percentage asynchronously
                     executorService.execute(() -> {
                         try {
-                            int totalPages = getPdfPageCount(itemView.getContext(), path);
+                            int totalPages = DocumentMetadataStore.shared(itemView.getContext()).getPageCount(path);
                             
                             mainHandler.post(() -> {
                                 if (totalPages > 0 && currentPage > 0) {
@@ -452,60 +458,12 @@ public class LibraryFragment extends Fragment {
                     });
                 }
 
-                // Show placeholder while loading
-                coverImage.setImageResource(R.drawable.placeholder_book);
-                coverImage.setTag(path); // Use path as tag to track which book this view is showing
-
-                // Check if this is a PDF file - check both path and title for .pdf extension
-                // Content URIs don't have extensions in the URI itself
-                boolean isPdf = (path != null && path.toLowerCase().contains(".pdf")) ||
-                               (title != null && title.toLowerCase().endsWith(".pdf")) ||
-                               (path != null && !path.toLowerCase().contains(".epub"));
-
-                if (path != null && isPdf) {
-                    // Load thumbnail in background (same as home page)
-                    executorService.execute(() -> {
-                        try {
-                            android.content.Context context = itemView.getContext();
-                            if (context == null) {
-                                return;
-                            }
-                            
-                            // Get display dimensions for thumbnail (matching home page)
-                            int maxWidth = 400; // Cover width
-                            int maxHeight = 560; // Cover height (maintaining aspect ratio)
-                            
-                            Bitmap thumbnail = PdfThumbnailGenerator.generateThumbnail(
-                                context,
-                                path,
-                                maxWidth,
-                                maxHeight
-                            );
-                            
-                            if (thumbnail != null && !thumbnail.isRecycled()) {
-                                mainHandler.post(() -> {
-                                    // Check if this view is still showing the same book (using path as tag)
-                                    if (coverImage != null && coverImage.getTag() != null && 
-                                        coverImage.getTag().equals(path)) {
-                                        coverImage.setImageBitmap(thumbnail);
-                                        coverImage.invalidate(); // Force redraw
-                                        android.util.Log.d("LibraryFragment", "Cover loaded successfully for: " + book.getTitle());
-                                    } else {
-                                        // Fragment detached or view recycled, recycle bitmap
-                                        if (thumbnail != null && !thumbnail.isRecycled()) {
-                                            thumbnail.recycle();
-                                        }
-                                    }
-                                });
-                            } else {
-                                android.util.Log.w("LibraryFragment", "Thumbnail is null or recycled for: " + book.getTitle());
-                            }
-                        } catch (Exception e) {
-                            android.util.Log.e("LibraryFragment", "Error loading cover for: " + path, e);
-                        }
-                    });
+                // PDF page 0 or EPUB cover, through Glide's memory and disk caches; a new bind
+                // of this view cancels the previous book's request.
+                if (path != null) {
+                    DocumentCover.load(coverImage, path, DocumentCover.CARD_WIDTH, DocumentCover.CARD_HEIGHT);
                 } else {
-                    // EPUB or other - use placeholder
+                    Glide.with(coverImage).clear(coverImage);
                     coverImage.setImageResource(R.drawable.placeholder_book);
                 }
                 
@@ -545,34 +503,6 @@ public class LibraryFragment extends Fragment {
                     statusBadge.setVisibility(View.GONE);
                 }
             }
-
-            private int getPdfPageCount(android.content.Context context, String pdfPath) {
-                try {
-                    android.graphics.pdf.PdfRenderer renderer = null;
-                    android.os.ParcelFileDescriptor pfd = null;
-                    
-                    if (pdfPath.startsWith("content://") || pdfPath.startsWith("file://")) {
-                        android.net.Uri uri = android.net.Uri.parse(pdfPath);
-                        pfd = context.getContentResolver().openFileDescriptor(uri, "r");
-                    } else {
-                        java.io.File file = new java.io.File(pdfPath);
-                        if (file.exists()) {
-                            pfd = android.os.ParcelFileDescriptor.open(file, android.os.ParcelFileDescriptor.MODE_READ_ONLY);
-                        }
-                    }
-                    
-                    if (pfd != null) {
-                        renderer = new android.graphics.pdf.PdfRenderer(pfd);
-                        int pageCount = renderer.getPageCount();
-                        renderer.close();
-                        pfd.close();
-                        return pageCount;
-                    }
-                } catch (Exception e) {
-                    android.util.Log.e("LibraryFragment", "Error reading PDF page count", e);
-                }
-                return 0;
-            }
         }
     }
 
@@ -4,12 +4,11 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.pdf.PdfRenderer;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.ParcelFileDescriptor;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -23,13 +22,14 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
 
+import com.pdfreader.app.DiskPageCache;
+import com.pdfreader.app.DocumentMetadataStore;
 import com.pdfreader.app.HistoryManager;
 import com.pdfreader.app.PdfBook;
 import com.pdfreader.app.R;
 import com.pdfreader.app.ReadingProgressManager;
 import com.pdfreader.app.SignatureManager;
 
-import java.io.File;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -158,6 +158,30 @@ public class ProfileFragment extends Fragment {
                 .setTitle("Reading Preferences")
                 .setMessage("Daily goal: 60 min / 30 pages\n\nCustom goals coming soon.")
                 .setPositiveButton("OK", null)
+                .setNeutralButton("Page cache", (dialog, which) -> showPageCacheDialog())
+                .show();
+    }
+
+    // Rendered pages kept on disk make reopening a document instant; this bounds their space.
+    private void showPageCacheDialog() {
+        Context context = requireContext();
+        DiskPageCache cache = DiskPageCache.shared(context);
+        long[] sizes = DiskPageCache.SIZE_CHOICES;
+        String[] labels = new String[sizes.length];
+        int checked = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            labels[i] = sizes[i] == 0 ? "Off" : "Up to " + Formatter.formatShortFileSize(context, sizes[i]);
+            if (sizes[i] == cache.getMaxBytes()) checked = i;
+        }
+        new AlertDialog.Builder(context)
+                .setTitle("Saved pages on disk")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    long maxBytes = sizes[which];
+                    // Shrinking deletes files, so not on the main thread.
+                    executorService.execute(() -> cache.setMaxBytes(context.getApplicationContext(), maxBytes));
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", null)
                 .show();
     }
 
@@ -216,6 +240,7 @@ public class ProfileFragment extends Fragment {
     }
 
     private void loadStats() {
+        DocumentMetadataStore metadataStore = DocumentMetadataStore.shared(requireContext());
         executorService.execute(() -> {
             try {
                 List<PdfBook> allBooks = historyManager.getHistory();
@@ -229,7 +254,7 @@ public class ProfileFragment extends Fragment {
                     }
 
                     int savedProgress = readingProgressManager.getProgress(path);
-                    int pageCount = getPdfPageCount(requireContext(), path);
+                    int pageCount = metadataStore.getPageCount(path);
 
                     if (pageCount > 0) {
                         int currentPage = savedProgress / 1000;
@@ -260,43 +285,6 @@ public class ProfileFragment extends Fragment {
         });
     }
 
-    private int getPdfPageCount(Context context, String pdfPath) {
-        ParcelFileDescriptor pfd = null;
-        PdfRenderer renderer = null;
-
-        try {
-            if (pdfPath.startsWith("content://") || pdfPath.startsWith("file://")) {
-                Uri uri = Uri.parse(pdfPath);
-                pfd = context.getContentResolver().openFileDescriptor(uri, "r");
-            } else {
-                File file = new File(pdfPath);
-                if (file.exists()) {
-                    pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
-                }
-            }
-
-            if (pfd != null) {
-                renderer = new PdfRenderer(pfd);
-                return renderer.getPageCount();
-            }
-        } catch (Exception e) {
-            Log.w(TAG, "Error getting page count for: " + pdfPath, e);
-        } finally {
-            if (renderer != null) {
-                renderer.close();
-            }
-            if (pfd != null) {
-                try {
-                    pfd.close();
-                } catch (Exception e) {
-                    // Ignore
-                }
-            }
-        }
-
-        return 0;
-    }
-
     private int calculateStreak(List<PdfBook> books) {
         if (books.isEmpty()) {
             return 0;
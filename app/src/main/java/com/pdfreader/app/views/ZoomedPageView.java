@@ -0,0 +1,311 @@
+package com.pdfreader.app.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+import com.pdfreader.app.PageTileCache;
+import com.pdfreader.app.PdfBoxRenderer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A single page shown zoomed in, with pinch-to-zoom and pan.
+ *
+ * The page's normal fit-to-width bitmap is drawn scaled up straight away, so zooming never
+ * shows a blank page; once the zoom settles, only the tiles that intersect the screen are
+ * requested from PageTileCache at the nearest zoom level and drawn over it. Panning asks for
+ * the tiles that come into view, and the cache hands back the ones it already has.
+ */
+public class ZoomedPageView extends View {
+
+    private static final String TAG = "ZoomedPageView";
+    private static final float MAX_ZOOM = 5f;
+    // Double-tapping the list opens the page at this zoom.
+    public static final float INITIAL_ZOOM = 2f;
+
+    /** Told when the user zooms back out to the page's normal size, or double-taps. */
+    public interface OnDismissListener {
+        void onDismiss();
+    }
+
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint pagePaint = new Paint();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService tileExecutor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "ZoomedPageTiles"));
+    private ScaleGestureDetector scaleDetector;
+    private GestureDetector gestureDetector;
+
+    private PdfBoxRenderer renderer;
+    private String document;
+    private int page;
+    private Bitmap basePage;
+    private OnDismissListener dismissListener;
+
+    // Page size in view pixels at zoom 1 (fitted to the view's width).
+    private float baseScale;
+    private float pageWidth;
+    private float pageHeight;
+    private float zoom = 1f;
+    // Offset of the zoomed page's top-left corner from the view's.
+    private float offsetX;
+    private float offsetY;
+
+    // Tiles currently drawn, and the zoom level they were rendered at.
+    private List<PageTileCache.Tile> tiles = Collections.emptyList();
+    private int tilesLevel = -1;
+    // Bumped whenever what's on screen changes, so stale tile requests are dropped.
+    private volatile int generation;
+
+    public ZoomedPageView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public ZoomedPageView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    public ZoomedPageView(Context context, @Nullable AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        init(context);
+    }
+
+    private void init(Context context) {
+        pagePaint.setColor(Color.WHITE);
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                offsetX -= distanceX;
+                offsetY -= distanceY;
+                clampOffsets();
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                dismiss();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Shows {@code page} of the document {@code document} (its fingerprint, the tile cache's
+     * key) at {@code zoom}, with the page point ({@code pageX}, {@code pageY}) -- fractions of
+     * its width and height -- under the view point ({@code viewX}, {@code viewY}).
+     * {@code basePage} is the page's normal rendering, drawn until the tiles arrive; may be null.
+     */
+    public void showPage(PdfBoxRenderer renderer, String document, int page, @Nullable Bitmap basePage,
+                         float zoom, float pageX, float pageY, float viewX, float viewY) {
+        this.renderer = renderer;
+        this.document = document;
+        this.page = page;
+        this.basePage = basePage;
+        this.tiles = Collections.emptyList();
+        this.tilesLevel = -1;
+        generation++;
+        setVisibility(VISIBLE);
+        Runnable place = () -> {
+            if (this.renderer != renderer) return;
+            layoutPage();
+            this.zoom = Math.max(1f, Math.min(MAX_ZOOM, zoom));
+            offsetX = viewX - pageX * pageWidth * this.zoom;
+            offsetY = viewY - pageY * pageHeight * this.zoom;
+            clampOffsets();
+            invalidate();
+            requestTiles();
+        };
+        if (getWidth() > 0) {
+            place.run();
+        } else {
+            post(place);
+        }
+    }
+
+    public boolean isShowing() {
+        return getVisibility() == VISIBLE && renderer != null;
+    }
+
+    public void setOnDismissListener(OnDismissListener listener) {
+        this.dismissListener = listener;
+    }
+
+    /** Hides the view and lets go of the page; tiles stay in the cache for next time. */
+    public void dismiss() {
+        generation++;
+        renderer = null;
+        basePage = null;
+        tiles = Collections.emptyList();
+        setVisibility(GONE);
+        if (dismissListener != null) {
+            dismissListener.onDismiss();
+        }
+    }
+
+    /** Stops the tile worker; call when the hosting screen is destroyed. */
+    public void release() {
+        generation++;
+        tileExecutor.shutdownNow();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (renderer != null && w > 0) {
+            layoutPage();
+            clampOffsets();
+            requestTiles();
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (renderer == null) return false;
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        // A double-tap may have dismissed the page already.
+        if (renderer == null) return true;
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            if (zoom <= 1.01f) {
+                dismiss();
+            } else {
+                // Rendering while the fingers are still moving would only be thrown away.
+                requestTiles();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (renderer == null || pageWidth <= 0) return;
+        float width = pageWidth * zoom;
+        float height = pageHeight * zoom;
+        RectF pageRect = new RectF(offsetX, offsetY, offsetX + width, offsetY + height);
+        canvas.drawRect(pageRect, pagePaint);
+        if (basePage != null && !basePage.isRecycled()) {
+            canvas.drawBitmap(basePage, null, pageRect, bitmapPaint);
+        }
+        if (tiles.isEmpty()) return;
+        // Tiles are in pixels of the page at the level's zoom; scale them to the current one.
+        float tileScale = zoom / PageTileCache.zoomForLevel(tilesLevel);
+        canvas.save();
+        canvas.translate(offsetX, offsetY);
+        canvas.scale(tileScale, tileScale);
+        for (PageTileCache.Tile tile : tiles) {
+            if (!tile.bitmap.isRecycled()) {
+                canvas.drawBitmap(tile.bitmap, null, tile.bounds, bitmapPaint);
+            }
+        }
+        canvas.restore();
+    }
+
+    private void layoutPage() {
+        float pointsWide = renderer.getPageWidthPoints(page);
+        float pointsHigh = renderer.getPageHeightPoints(page);
+        baseScale = pointsWide > 0 ? getWidth() / pointsWide : 1f;
+        pageWidth = pointsWide * baseScale;
+        pageHeight = pointsHigh * baseScale;
+    }
+
+    private void zoomBy(float factor, float focusX, float focusY) {
+        float newZoom = Math.max(1f, Math.min(MAX_ZOOM, zoom * factor));
+        float applied = newZoom / zoom;
+        offsetX = focusX - (focusX - offsetX) * applied;
+        offsetY = focusY - (focusY - offsetY) * applied;
+        zoom = newZoom;
+        clampOffsets();
+        invalidate();
+    }
+
+    // Keeps the page covering the view where it's larger than it, and centered where smaller.
+    private void clampOffsets() {
+        offsetX = clamp(offsetX, getWidth(), pageWidth * zoom);
+        offsetY = clamp(offsetY, getHeight(), pageHeight * zoom);
+    }
+
+    private static float clamp(float offset, float viewSize, float contentSize) {
+        if (contentSize <= viewSize) return (viewSize - contentSize) / 2f;
+        return Math.max(viewSize - contentSize, Math.min(0, offset));
+    }
+
+    private void requestTiles() {
+        if (renderer == null || pageWidth <= 0) return;
+        int level = PageTileCache.zoomLevel(zoom);
+        if (level == 0) {
+            // At the page's own size the base rendering is already sharp.
+            tiles = Collections.emptyList();
+            tilesLevel = -1;
+            invalidate();
+            return;
+        }
+        float toTiles = PageTileCache.zoomForLevel(level) / zoom;
+        RectF viewport = new RectF(-offsetX * toTiles, -offsetY * toTiles,
+                (getWidth() - offsetX) * toTiles, (getHeight() - offsetY) * toTiles);
+        int requested = ++generation;
+        PdfBoxRenderer tileRenderer = renderer;
+        String tileDocument = document;
+        int tilePage = page;
+        float tileBaseScale = baseScale;
+        PageTileCache cache = PageTileCache.shared(getContext());
+        try {
+            tileExecutor.execute(() -> {
+                // A newer request supersedes this one before it has rendered anything.
+                if (requested != generation) return;
+                List<PageTileCache.Tile> result;
+                try {
+                    result = cache.getVisibleTiles(tileRenderer, tileDocument, tilePage,
+                            tileBaseScale, level, viewport);
+                } catch (IOException e) {
+                    // E.g. the document was closed while zoomed; the base page stays on screen.
+                    Log.w(TAG, "Could not render tiles for page " + tilePage, e);
+                    return;
+                }
+                mainHandler.post(() -> {
+                    if (requested != generation) return;
+                    tiles = result;
+                    tilesLevel = level;
+                    invalidate();
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            // Released already.
+        }
+    }
+}